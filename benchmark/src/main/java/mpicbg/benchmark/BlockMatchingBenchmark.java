@@ -0,0 +1,118 @@
+/*-
+ * #%L
+ * JMH benchmarks for the MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.benchmark;
+
+import ij.process.FloatProcessor;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mpicbg.ij.blockmatching.BlockMatching;
+import mpicbg.models.AffineModel2D;
+import mpicbg.models.ErrorStatistic;
+import mpicbg.models.Point;
+import mpicbg.models.PointMatch;
+
+/**
+ * Block matching by
+ * {@link BlockMatching#matchByMaximalPMCC(FloatProcessor, FloatProcessor, FloatProcessor, FloatProcessor, double, mpicbg.models.CoordinateTransform, int, int, int, int, float, float, float, java.util.Collection, java.util.Collection, ErrorStatistic)}
+ * of a regular grid of blocks between a synthetic image and a slightly
+ * rotated and shifted copy of it.  The initial estimate misses the shift.
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class BlockMatchingBenchmark
+{
+	@Param( { "1024" } )
+	public int size;
+
+	@Param( { "0.5", "1.0" } )
+	public double scale;
+
+	@Param( { "25", "50" } )
+	public int blockRadius;
+
+	@Param( { "16" } )
+	public int searchRadius;
+
+	protected FloatProcessor source;
+	protected FloatProcessor target;
+	protected AffineModel2D estimate;
+	protected ArrayList< Point > sourcePoints;
+
+	@Setup
+	public void setup()
+	{
+		source = SyntheticData.blobs( size, size, size * size / 256, 0 );
+		target = SyntheticData.transformed( source, SyntheticData.affine( size, size, 0.02, 1.0, 5, -7 ) );
+		estimate = SyntheticData.affine( size, size, 0.02, 1.0, 0, 0 );
+
+		sourcePoints = new ArrayList< Point >();
+		final int step = size / 16;
+		for ( int y = step / 2; y < size; y += step )
+			for ( int x = step / 2; x < size; x += step )
+				sourcePoints.add( new Point( new double[]{ x, y } ) );
+	}
+
+	@Benchmark
+	public Object matchByMaximalPMCC() throws InterruptedException, ExecutionException
+	{
+		final ArrayList< PointMatch > matches = new ArrayList< PointMatch >();
+		BlockMatching.matchByMaximalPMCC(
+				source,
+				target,
+				null,
+				null,
+				scale,
+				estimate,
+				blockRadius,
+				blockRadius,
+				searchRadius,
+				searchRadius,
+				0.7f,
+				0.9f,
+				10.0f,
+				sourcePoints,
+				matches,
+				new ErrorStatistic( 1 ) );
+		return matches;
+	}
+}
@@ -0,0 +1,262 @@
+/*-
+ * #%L
+ * JMH benchmarks for the MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.benchmark;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Compare two JMH result files in CSV format (as written with
+ * {@code -rf csv -rff <file>}), e.g. of a baseline and a candidate build:
+ * <pre>
+ * java -cp target/benchmarks.jar mpicbg.benchmark.CompareResults baseline.csv candidate.csv [threshold]
+ * </pre>
+ * For each benchmark and parameter combination present in both files, the
+ * relative change of the score is reported.  A change is flagged as
+ * regression or improvement if it is larger than threshold (relative,
+ * default 0.05) and the score confidence intervals do not overlap.  For
+ * throughput, larger scores are better, for all time based modes smaller
+ * scores are better.  The exit status is 1 if any regression was found.
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+public class CompareResults
+{
+	static public class Result
+	{
+		final public String mode;
+		final public double score;
+		final public double error;
+		final public String unit;
+
+		public Result( final String mode, final double score, final double error, final String unit )
+		{
+			this.mode = mode;
+			this.score = score;
+			this.error = Double.isNaN( error ) ? 0 : error;
+			this.unit = unit;
+		}
+
+		public boolean higherIsBetter()
+		{
+			return mode.equals( "thrpt" );
+		}
+	}
+
+	/**
+	 * Split a CSV line respecting quotes.
+	 */
+	static protected ArrayList< String > split( final String line )
+	{
+		final ArrayList< String > fields = new ArrayList< String >();
+		final StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for ( int i = 0; i < line.length(); ++i )
+		{
+			final char c = line.charAt( i );
+			if ( c == '"' )
+			{
+				if ( quoted && i + 1 < line.length() && line.charAt( i + 1 ) == '"' )
+				{
+					field.append( '"' );
+					++i;
+				}
+				else
+					quoted = !quoted;
+			}
+			else if ( c == ',' && !quoted )
+			{
+				fields.add( field.toString() );
+				field.setLength( 0 );
+			}
+			else
+				field.append( c );
+		}
+		fields.add( field.toString() );
+		return fields;
+	}
+
+	static protected double parseDouble( final String s )
+	{
+		try
+		{
+			return Double.parseDouble( s.trim() );
+		}
+		catch ( final NumberFormatException e )
+		{
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Read a JMH CSV result file.
+	 *
+	 * @param path
+	 * @return results by benchmark, parameters and mode
+	 *
+	 * @throws IOException
+	 */
+	static public Map< String, Result > read( final String path ) throws IOException
+	{
+		final LinkedHashMap< String, Result > results = new LinkedHashMap< String, Result >();
+		final BufferedReader reader = new BufferedReader( new FileReader( path ) );
+		try
+		{
+			final String headerLine = reader.readLine();
+			if ( headerLine == null )
+				return results;
+
+			final ArrayList< String > header = split( headerLine );
+			final int benchmarkIndex = header.indexOf( "Benchmark" );
+			final int modeIndex = header.indexOf( "Mode" );
+			final int scoreIndex = header.indexOf( "Score" );
+			final int unitIndex = header.indexOf( "Unit" );
+			int errorIndex = -1;
+			for ( int i = 0; i < header.size(); ++i )
+				if ( header.get( i ).startsWith( "Score Error" ) )
+					errorIndex = i;
+
+			if ( benchmarkIndex < 0 || modeIndex < 0 || scoreIndex < 0 )
+				throw new IOException( path + " is not a JMH CSV result file." );
+
+			for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+			{
+				if ( line.trim().isEmpty() )
+					continue;
+
+				final ArrayList< String > fields = split( line );
+
+				/* parameters sorted by name such that files with different column orders can be compared */
+				final TreeMap< String, String > params = new TreeMap< String, String >();
+				for ( int i = 0; i < header.size() && i < fields.size(); ++i )
+					if ( header.get( i ).startsWith( "Param: " ) && !fields.get( i ).isEmpty() )
+						params.put( header.get( i ).substring( 7 ), fields.get( i ) );
+
+				final String mode = fields.get( modeIndex );
+				final String key = fields.get( benchmarkIndex ) + ( params.isEmpty() ? "" : " " + params ) + " (" + mode + ")";
+				results.put(
+						key,
+						new Result(
+								mode,
+								parseDouble( fields.get( scoreIndex ) ),
+								errorIndex < 0 ? 0 : parseDouble( fields.get( errorIndex ) ),
+								unitIndex < 0 ? "" : fields.get( unitIndex ) ) );
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return results;
+	}
+
+	/**
+	 * Compare candidate against baseline results and print a report.
+	 *
+	 * @param baseline
+	 * @param candidate
+	 * @param threshold minimal relative change to be reported as regression
+	 *   or improvement
+	 *
+	 * @return number of regressions
+	 */
+	static public int compare(
+			final Map< String, Result > baseline,
+			final Map< String, Result > candidate,
+			final double threshold )
+	{
+		int numRegressions = 0;
+		int numImprovements = 0;
+
+		for ( final Entry< String, Result > entry : baseline.entrySet() )
+		{
+			final String key = entry.getKey();
+			final Result a = entry.getValue();
+			final Result b = candidate.get( key );
+			if ( b == null )
+			{
+				System.out.println( String.format( Locale.US, "%-12s %s", "missing", key ) );
+				continue;
+			}
+
+			final double change = ( b.score - a.score ) / a.score;
+			final boolean overlap =
+					a.score + a.error >= b.score - b.error &&
+					b.score + b.error >= a.score - a.error;
+
+			final String status;
+			if ( overlap || Math.abs( change ) < threshold )
+				status = "";
+			else if ( ( change > 0 ) == a.higherIsBetter() )
+			{
+				status = "improvement";
+				++numImprovements;
+			}
+			else
+			{
+				status = "REGRESSION";
+				++numRegressions;
+			}
+
+			System.out.println(
+					String.format(
+							Locale.US,
+							"%-12s %s: %.3f +- %.3f -> %.3f +- %.3f %s (%+.1f%%)",
+							status,
+							key,
+							a.score,
+							a.error,
+							b.score,
+							b.error,
+							b.unit,
+							100 * change ) );
+		}
+
+		for ( final String key : candidate.keySet() )
+			if ( !baseline.containsKey( key ) )
+				System.out.println( String.format( Locale.US, "%-12s %s", "new", key ) );
+
+		System.out.println( numRegressions + " regressions, " + numImprovements + " improvements" );
+
+		return numRegressions;
+	}
+
+	public static void main( final String... args ) throws IOException
+	{
+		if ( args.length < 2 )
+		{
+			System.err.println( "Usage: CompareResults <baseline.csv> <candidate.csv> [threshold]" );
+			System.exit( 2 );
+		}
+
+		final double threshold = args.length > 2 ? Double.parseDouble( args[ 2 ] ) : 0.05;
+		final int numRegressions = compare( read( args[ 0 ] ), read( args[ 1 ] ), threshold );
+		System.exit( numRegressions > 0 ? 1 : 0 );
+	}
+}
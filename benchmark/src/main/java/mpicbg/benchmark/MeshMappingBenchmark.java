@@ -0,0 +1,117 @@
+/*-
+ * #%L
+ * JMH benchmarks for the MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.benchmark;
+
+import ij.process.FloatProcessor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mpicbg.ij.TransformMeshMapping;
+import mpicbg.models.CoordinateTransformMesh;
+
+/**
+ * Rendering of a synthetic image through a triangle mesh by
+ * {@link TransformMeshMapping#mapInterpolated(ij.process.ImageProcessor, ij.process.ImageProcessor, int)}
+ * and by tiles on a reused {@link ExecutorService}.
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class MeshMappingBenchmark
+{
+	@Param( { "2048" } )
+	public int size;
+
+	@Param( { "32", "128" } )
+	public int numX;
+
+	@Param( { "1", "4" } )
+	public int numThreads;
+
+	protected FloatProcessor source;
+	protected FloatProcessor target;
+	protected TransformMeshMapping< CoordinateTransformMesh > mapping;
+	protected ExecutorService executor;
+
+	@Setup
+	public void setup()
+	{
+		source = SyntheticData.blobs( size, size, size * size / 256, 0 );
+		target = new FloatProcessor( size, size );
+		mapping = new TransformMeshMapping< CoordinateTransformMesh >( SyntheticData.warpMesh( size, size, numX, 20 ) );
+		executor = new ForkJoinPool( numThreads );
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		executor.shutdown();
+	}
+
+	@Benchmark
+	public Object map()
+	{
+		mapping.map( source, target, numThreads );
+		return target;
+	}
+
+	@Benchmark
+	public Object mapInterpolated()
+	{
+		mapping.mapInterpolated( source, target, numThreads );
+		return target;
+	}
+
+	@Benchmark
+	public Object mapTiles()
+	{
+		mapping.map( source, target, executor );
+		return target;
+	}
+
+	@Benchmark
+	public Object mapInterpolatedTiles()
+	{
+		mapping.mapInterpolated( source, target, executor );
+		return target;
+	}
+}
@@ -0,0 +1,120 @@
+/*-
+ * #%L
+ * JMH benchmarks for the MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mpicbg.models.AbstractAffineModel2D;
+import mpicbg.models.AffineModel2D;
+import mpicbg.models.NotEnoughDataPointsException;
+import mpicbg.models.PointMatch;
+import mpicbg.models.RigidModel2D;
+import mpicbg.models.SimilarityModel2D;
+
+/**
+ * Robust model estimation by
+ * {@link mpicbg.models.AbstractModel#ransac(List, java.util.Collection, int, double, double, int) RANSAC}
+ * and {@link mpicbg.models.AbstractModel#filter(java.util.Collection, java.util.Collection, double) iterative trimming}
+ * on synthetic point matches with a known fraction of outliers.
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class RansacBenchmark
+{
+	@Param( { "100", "1000", "10000" } )
+	public int numMatches;
+
+	@Param( { "0.2", "0.6" } )
+	public double outlierRatio;
+
+	@Param( { "rigid", "similarity", "affine" } )
+	public String model;
+
+	protected List< PointMatch > candidates;
+
+	protected List< PointMatch > trueMatches;
+
+	protected AbstractAffineModel2D< ? > createModel()
+	{
+		if ( model.equals( "rigid" ) )
+			return new RigidModel2D();
+		else if ( model.equals( "similarity" ) )
+			return new SimilarityModel2D();
+		else
+			return new AffineModel2D();
+	}
+
+	@Setup
+	public void setup()
+	{
+		final AffineModel2D transform = SyntheticData.affine( 2048, 2048, 0.1, 1.0, 20, -35 );
+		candidates = SyntheticData.pointMatches( numMatches, outlierRatio, transform, 1.0, 2048, 2048, 0 );
+		trueMatches = SyntheticData.pointMatches( numMatches, 0.0, transform, 1.0, 2048, 2048, 0 );
+	}
+
+	@Benchmark
+	public Object ransac() throws NotEnoughDataPointsException
+	{
+		final AbstractAffineModel2D< ? > m = createModel();
+		final ArrayList< PointMatch > inliers = new ArrayList< PointMatch >();
+		m.ransac( candidates, inliers, 1000, 10.0, 0.1, 7 );
+		return inliers;
+	}
+
+	@Benchmark
+	public Object filterRansac() throws NotEnoughDataPointsException
+	{
+		final AbstractAffineModel2D< ? > m = createModel();
+		final ArrayList< PointMatch > inliers = new ArrayList< PointMatch >();
+		m.filterRansac( candidates, inliers, 1000, 10.0, 0.1 );
+		return inliers;
+	}
+
+	@Benchmark
+	public Object filter() throws NotEnoughDataPointsException
+	{
+		final AbstractAffineModel2D< ? > m = createModel();
+		final ArrayList< PointMatch > inliers = new ArrayList< PointMatch >();
+		m.filter( trueMatches, inliers, 3.0 );
+		return inliers;
+	}
+}
@@ -0,0 +1,110 @@
+/*-
+ * #%L
+ * JMH benchmarks for the MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.benchmark;
+
+import ij.process.FloatProcessor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mpicbg.ij.FeatureTransform;
+import mpicbg.ij.SIFT;
+import mpicbg.imagefeatures.Feature;
+import mpicbg.imagefeatures.FloatArray2DSIFT;
+import mpicbg.models.PointMatch;
+
+/**
+ * SIFT feature extraction by {@link FloatArray2DSIFT} and feature matching
+ * by {@link FeatureTransform#matchFeatures(java.util.Collection, java.util.Collection, List, float)}
+ * on a synthetic image and a rotated and scaled copy of it.
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class SiftBenchmark
+{
+	@Param( { "512", "1024" } )
+	public int size;
+
+	protected FloatProcessor image1;
+	protected FloatProcessor image2;
+
+	protected List< Feature > features1;
+	protected List< Feature > features2;
+
+	protected SIFT createSIFT()
+	{
+		final FloatArray2DSIFT.Param p = new FloatArray2DSIFT.Param();
+		p.maxOctaveSize = 1024;
+		return new SIFT( new FloatArray2DSIFT( p ) );
+	}
+
+	@Setup
+	public void setup()
+	{
+		image1 = SyntheticData.blobs( size, size, size * size / 256, 0 );
+		image2 = SyntheticData.transformed( image1, SyntheticData.affine( size, size, 0.3, 1.1, 10, -5 ) );
+
+		features1 = new ArrayList< Feature >();
+		features2 = new ArrayList< Feature >();
+		createSIFT().extractFeatures( image1, features1 );
+		createSIFT().extractFeatures( image2, features2 );
+	}
+
+	/**
+	 * Scale space construction ({@link FloatArray2DSIFT#init}) and feature
+	 * detection and description ({@link FloatArray2DSIFT#run}).
+	 */
+	@Benchmark
+	public Object extractFeatures()
+	{
+		final ArrayList< Feature > features = new ArrayList< Feature >();
+		createSIFT().extractFeatures( image1, features );
+		return features;
+	}
+
+	@Benchmark
+	public Object matchFeatures()
+	{
+		final ArrayList< PointMatch > matches = new ArrayList< PointMatch >();
+		FeatureTransform.matchFeatures( features1, features2, matches, 0.92f );
+		return matches;
+	}
+}
@@ -0,0 +1,109 @@
+/*-
+ * #%L
+ * JMH benchmarks for the MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mpicbg.models.CoordinateTransform;
+import mpicbg.models.NotEnoughDataPointsException;
+import mpicbg.models.Point;
+import mpicbg.models.Spring;
+import mpicbg.models.SpringMesh;
+import mpicbg.models.Vertex;
+
+/**
+ * Optimization of a series of {@link SpringMesh SpringMeshes} by
+ * {@link SpringMesh#optimizeMeshes(java.util.Collection, double, int, int)}.
+ * Consecutive meshes are connected the same way as by the ElasticAlign
+ * plugin with matches that follow a smooth deformation.  The meshes are
+ * modified by the optimization and therefore re-created before each
+ * single shot.
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class SpringMeshBenchmark
+{
+	@Param( { "4", "16" } )
+	public int numMeshes;
+
+	@Param( { "16", "32" } )
+	public int numX;
+
+	protected ArrayList< SpringMesh > meshes;
+
+	static protected void connect(
+			final SpringMesh m1,
+			final SpringMesh m2,
+			final CoordinateTransform t )
+	{
+		for ( final Vertex p1 : m1.getVertices() )
+		{
+			final Vertex p2 = new Vertex( new Point( t.apply( p1.getL() ) ) );
+			p1.addSpring( p2, new Spring( 0, 1.0 ) );
+			m2.addPassiveVertex( p2 );
+		}
+	}
+
+	@Setup( Level.Iteration )
+	public void setup()
+	{
+		final int width = 4096, height = 4096;
+		meshes = new ArrayList< SpringMesh >( numMeshes );
+		for ( int i = 0; i < numMeshes; ++i )
+			meshes.add( new SpringMesh( numX, width, height, 0.1, 2000.0, 0.9 ) );
+
+		final CoordinateTransform forward = new SyntheticData.SineWarp( width, height, 10 );
+		final CoordinateTransform backward = new SyntheticData.SineWarp( width, height, -10 );
+		for ( int i = 1; i < numMeshes; ++i )
+		{
+			connect( meshes.get( i - 1 ), meshes.get( i ), forward );
+			connect( meshes.get( i ), meshes.get( i - 1 ), backward );
+		}
+	}
+
+	@Benchmark
+	public Object optimizeMeshes() throws NotEnoughDataPointsException
+	{
+		SpringMesh.optimizeMeshes( meshes, 200.0, 1000, 200 );
+		return meshes;
+	}
+}
@@ -0,0 +1,246 @@
+/*-
+ * #%L
+ * JMH benchmarks for the MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.benchmark;
+
+import ij.process.FloatProcessor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import mpicbg.ij.TransformMapping;
+import mpicbg.models.AffineModel2D;
+import mpicbg.models.CoordinateTransform;
+import mpicbg.models.CoordinateTransformMesh;
+import mpicbg.models.Point;
+import mpicbg.models.PointMatch;
+
+/**
+ * Deterministic synthetic images and point sets for benchmarks.  All
+ * generators are seeded such that repeated runs on different machines and
+ * code versions process exactly the same data.
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+final public class SyntheticData
+{
+	private SyntheticData(){}
+
+	/**
+	 * Smooth sinusoidal deformation of a width&times;height domain.
+	 */
+	static public class SineWarp implements CoordinateTransform
+	{
+		private static final long serialVersionUID = 2271867384614585402L;
+
+		final protected double fx, fy, amplitude;
+
+		public SineWarp( final double width, final double height, final double amplitude )
+		{
+			fx = 2 * Math.PI / width;
+			fy = 2 * Math.PI / height;
+			this.amplitude = amplitude;
+		}
+
+		@Override
+		public double[] apply( final double[] location )
+		{
+			final double[] transformed = location.clone();
+			applyInPlace( transformed );
+			return transformed;
+		}
+
+		@Override
+		public void applyInPlace( final double[] location )
+		{
+			final double x = location[ 0 ];
+			location[ 0 ] += amplitude * Math.sin( location[ 1 ] * fy );
+			location[ 1 ] += amplitude * Math.sin( x * fx );
+		}
+	}
+
+	/**
+	 * Create an image of randomly placed Gaussian blobs of random size and
+	 * contrast on a smooth background.  Blobs of different scales create
+	 * stable scale space extrema for SIFT and enough texture for block
+	 * matching.
+	 *
+	 * @param width
+	 * @param height
+	 * @param numBlobs
+	 * @param seed
+	 *
+	 * @return image
+	 */
+	static public FloatProcessor blobs(
+			final int width,
+			final int height,
+			final int numBlobs,
+			final long seed )
+	{
+		final Random rnd = new Random( seed );
+		final float[] pixels = new float[ width * height ];
+
+		for ( int y = 0; y < height; ++y )
+			for ( int x = 0; x < width; ++x )
+				pixels[ y * width + x ] = ( float )( 0.25 * Math.sin( x * 0.013 ) * Math.cos( y * 0.017 ) );
+
+		for ( int i = 0; i < numBlobs; ++i )
+		{
+			final double cx = rnd.nextDouble() * width;
+			final double cy = rnd.nextDouble() * height;
+			final double sigma = 1.5 + rnd.nextDouble() * rnd.nextDouble() * 12.0;
+			final double amplitude = rnd.nextDouble() * 2.0 - 1.0;
+			final double s = -0.5 / ( sigma * sigma );
+			final int r = ( int )Math.ceil( 3 * sigma );
+
+			final int xMin = Math.max( 0, ( int )cx - r ), xMax = Math.min( width - 1, ( int )cx + r );
+			final int yMin = Math.max( 0, ( int )cy - r ), yMax = Math.min( height - 1, ( int )cy + r );
+			for ( int y = yMin; y <= yMax; ++y )
+			{
+				final double dy = y - cy;
+				for ( int x = xMin; x <= xMax; ++x )
+				{
+					final double dx = x - cx;
+					pixels[ y * width + x ] += ( float )( amplitude * Math.exp( s * ( dx * dx + dy * dy ) ) );
+				}
+			}
+		}
+
+		final FloatProcessor fp = new FloatProcessor( width, height, pixels );
+		fp.resetMinAndMax();
+		return fp;
+	}
+
+	/**
+	 * Create an {@link AffineModel2D} that rotates about the center of a
+	 * width&times;height image, scales and translates.
+	 *
+	 * @param width
+	 * @param height
+	 * @param angle rotation in radians
+	 * @param scale
+	 * @param tx
+	 * @param ty
+	 *
+	 * @return the model
+	 */
+	static public AffineModel2D affine(
+			final int width,
+			final int height,
+			final double angle,
+			final double scale,
+			final double tx,
+			final double ty )
+	{
+		final double cx = 0.5 * width, cy = 0.5 * height;
+		final double cos = scale * Math.cos( angle ), sin = scale * Math.sin( angle );
+		final AffineModel2D model = new AffineModel2D();
+		model.set(
+				cos, sin, -sin, cos,
+				cx - cos * cx + sin * cy + tx,
+				cy - sin * cx - cos * cy + ty );
+		return model;
+	}
+
+	/**
+	 * Render source transformed by model into an image of the same size.
+	 *
+	 * @param source
+	 * @param model maps source into target coordinates
+	 *
+	 * @return transformed image
+	 */
+	static public FloatProcessor transformed( final FloatProcessor source, final AffineModel2D model )
+	{
+		final FloatProcessor target = new FloatProcessor( source.getWidth(), source.getHeight() );
+		new TransformMapping< AffineModel2D >( model.createInverse() ).mapInverseInterpolated( source, target );
+		target.resetMinAndMax();
+		return target;
+	}
+
+	/**
+	 * Create a {@link CoordinateTransformMesh} approximating a
+	 * {@link SineWarp} of a width&times;height domain.
+	 *
+	 * @param width
+	 * @param height
+	 * @param numX number of vertices per row
+	 * @param amplitude
+	 *
+	 * @return mesh
+	 */
+	static public CoordinateTransformMesh warpMesh(
+			final int width,
+			final int height,
+			final int numX,
+			final double amplitude )
+	{
+		return new CoordinateTransformMesh( new SineWarp( width, height, amplitude ), numX, width, height );
+	}
+
+	/**
+	 * Create {@link PointMatch PointMatches} in a width&times;height domain
+	 * of which a fraction of 1 - outlierRatio is explained by transform up to
+	 * Gaussian noise.  The outliers map uniformly into the domain.  The
+	 * matches are shuffled.
+	 *
+	 * @param n
+	 * @param outlierRatio
+	 * @param transform
+	 * @param noise standard deviation of the noise in px
+	 * @param width
+	 * @param height
+	 * @param seed
+	 *
+	 * @return matches
+	 */
+	static public ArrayList< PointMatch > pointMatches(
+			final int n,
+			final double outlierRatio,
+			final CoordinateTransform transform,
+			final double noise,
+			final double width,
+			final double height,
+			final long seed )
+	{
+		final Random rnd = new Random( seed );
+		final ArrayList< PointMatch > matches = new ArrayList< PointMatch >( n );
+		final int numOutliers = ( int )Math.round( n * outlierRatio );
+		for ( int i = 0; i < n; ++i )
+		{
+			final double[] p = new double[]{ rnd.nextDouble() * width, rnd.nextDouble() * height };
+			final double[] q;
+			if ( i < numOutliers )
+				q = new double[]{ rnd.nextDouble() * width, rnd.nextDouble() * height };
+			else
+			{
+				q = transform.apply( p );
+				q[ 0 ] += rnd.nextGaussian() * noise;
+				q[ 1 ] += rnd.nextGaussian() * noise;
+			}
+			matches.add( new PointMatch( new Point( p ), new Point( q ) ) );
+		}
+		Collections.shuffle( matches, rnd );
+		return matches;
+	}
+}
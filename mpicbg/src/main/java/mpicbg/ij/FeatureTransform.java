@@ -106,6 +106,49 @@ abstract public class FeatureTransform< T extends FloatArray2DFeatureTransform<
 		removeAmbiguousMatches(matches);
 	}
 
+	/**
+	 * Identify corresponding features and order them by decreasing quality,
+	 * i.e. by increasing ratio of distances (closest/next closest match).
+	 * This order is expected by
+	 * {@link mpicbg.models.AbstractModel#prosac(List, Collection, int, double, double, int, double) PROSAC}.
+	 *
+	 * @param fs1 feature collection from set 1
+	 * @param fs2 feature collection from set 2
+	 * @param matches collects the matching coordinates, best first
+	 * @param rod Ratio of distances (closest/next closest match)
+	 */
+	static public void matchFeaturesByQuality(
+			final Collection<Feature> fs1,
+			final Collection<Feature> fs2,
+			final List<PointMatch> matches,
+			final float rod
+	) {
+		final NearestNeighborSearch neighborSearch = new BruteForceSearch(fs2);
+		final List<RankedMatch> rankedMatches = new ArrayList<>();
+
+		for (final Feature f1 : fs1) {
+			final FeatureAccumulator accumulator = neighborSearch.findFor(f1);
+			final Feature best = accumulator.getClosestChecked(rod);
+
+			if (best != null) {
+				final Point p1 = new Point(new double[]{f1.location[0], f1.location[1]});
+				final Point p2 = new Point(new double[]{best.location[0], best.location[1]});
+				rankedMatches.add(new RankedMatch(new PointMatch(p1, p2), accumulator.getRatioOfDistances()));
+			}
+		}
+
+		// stable, so equally ranked matches remain in the order of fs1
+		rankedMatches.sort(Comparator.comparingDouble(m -> m.ratioOfDistances));
+
+		final List<PointMatch> sortedMatches = new ArrayList<>(rankedMatches.size());
+		for (final RankedMatch m : rankedMatches)
+			sortedMatches.add(m.match);
+
+		// removal preserves the order of the remaining matches
+		removeAmbiguousMatches(sortedMatches);
+		matches.addAll(sortedMatches);
+	}
+
 	/**
 	 * Identify corresponding features
 	 *
@@ -215,6 +258,10 @@ abstract public class FeatureTransform< T extends FloatArray2DFeatureTransform<
 			}
 		}
 
+		public double getRatioOfDistances() {
+			return bestDistance / secondBestDistance;
+		}
+
 		public Feature getClosestChecked(double maxRatioOfDistances) {
 			if (secondBestDistance < Double.MAX_VALUE && bestDistance / secondBestDistance < maxRatioOfDistances) {
 				return currentClosest;
@@ -224,6 +271,16 @@ abstract public class FeatureTransform< T extends FloatArray2DFeatureTransform<
 		}
 	}
 
+	private static class RankedMatch {
+		private final PointMatch match;
+		private final double ratioOfDistances;
+
+		public RankedMatch(PointMatch match, double ratioOfDistances) {
+			this.match = match;
+			this.ratioOfDistances = ratioOfDistances;
+		}
+	}
+
 	private interface NearestNeighborSearch {
 		FeatureAccumulator findFor(Feature f);
 	}
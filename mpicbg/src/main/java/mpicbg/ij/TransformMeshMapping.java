@@ -23,9 +23,16 @@ package mpicbg.ij;
 
 import ij.process.ImageProcessor;
 
+import java.awt.geom.AffineTransform;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import mpicbg.models.AffineModel2D;
@@ -172,11 +179,172 @@ public class TransformMeshMapping< T extends TransformMesh > extends InvertibleT
 	}
 
 
+	/**
+	 * Index of the triangles whose target bounding box overlaps a tile of
+	 * a regular grid of square tiles over the target image.  Triangles of
+	 * tile i are triangles[ offsets[ i ] ] to triangles[ offsets[ i + 1 ] - 1 ].
+	 */
+	final static protected class TileIndex
+	{
+		final protected int tileSize, numX, numY;
+		final protected int[] offsets;
+		final protected AffineModel2D[] triangles;
+
+		/**
+		 * @param inverse index source instead of target coordinates of the
+		 *   mesh as required for inverse mapping
+		 */
+		protected TileIndex(
+				final TransformMesh m,
+				final int width,
+				final int height,
+				final int tileSize,
+				final boolean inverse )
+		{
+			this.tileSize = tileSize;
+			numX = ( width + tileSize - 1 ) / tileSize;
+			numY = ( height + tileSize - 1 ) / tileSize;
+
+			final int n = m.getAV().size();
+			final AffineModel2D[] affines = new AffineModel2D[ n ];
+			final int[] tiles = new int[ 4 * n ];
+			final double[] min = new double[ 2 ];
+			final double[] max = new double[ 2 ];
+			offsets = new int[ numX * numY + 1 ];
+			int k = 0;
+			for ( final Entry< AffineModel2D, ArrayList< PointMatch > > e : m.getAV().entrySet() )
+			{
+				affines[ k ] = e.getKey();
+				if ( inverse )
+					calculateBoundingBoxInverse( e.getValue(), min, max );
+				else
+					calculateBoundingBox( e.getValue(), min, max );
+
+				/* same rounding as in mapTriangle, empty if outside */
+				final int minX = Math.max( 0, Util.roundPos( min[ 0 ] ) );
+				final int minY = Math.max( 0, Util.roundPos( min[ 1 ] ) );
+				final int maxX = Math.min( width - 1, Util.roundPos( max[ 0 ] ) );
+				final int maxY = Math.min( height - 1, Util.roundPos( max[ 1 ] ) );
+				if ( minX > maxX || minY > maxY )
+				{
+					tiles[ 4 * k ] = tiles[ 4 * k + 1 ] = 0;
+					tiles[ 4 * k + 2 ] = tiles[ 4 * k + 3 ] = -1;
+				}
+				else
+				{
+					tiles[ 4 * k ] = minX / tileSize;
+					tiles[ 4 * k + 1 ] = minY / tileSize;
+					tiles[ 4 * k + 2 ] = maxX / tileSize;
+					tiles[ 4 * k + 3 ] = maxY / tileSize;
+				}
+				for ( int y = tiles[ 4 * k + 1 ]; y <= tiles[ 4 * k + 3 ]; ++y )
+					for ( int x = tiles[ 4 * k ]; x <= tiles[ 4 * k + 2 ]; ++x )
+						++offsets[ y * numX + x + 1 ];
+				++k;
+			}
+			for ( int i = 1; i < offsets.length; ++i )
+				offsets[ i ] += offsets[ i - 1 ];
+
+			triangles = new AffineModel2D[ offsets[ offsets.length - 1 ] ];
+			final int[] fill = Arrays.copyOf( offsets, offsets.length - 1 );
+			for ( k = 0; k < n; ++k )
+				for ( int y = tiles[ 4 * k + 1 ]; y <= tiles[ 4 * k + 3 ]; ++y )
+					for ( int x = tiles[ 4 * k ]; x <= tiles[ 4 * k + 2 ]; ++x )
+						triangles[ fill[ y * numX + x ]++ ] = affines[ k ];
+		}
+	}
+
+	/**
+	 * Edge length of the square target tiles that are rendered by one task
+	 * when mapping through an {@link ExecutorService}.
+	 */
+	protected int tileSize = 256;
+
 	public TransformMeshMapping( final T t )
 	{
 		super( t );
 	}
 
+	public int getTileSize()
+	{
+		return tileSize;
+	}
+
+	public void setTileSize( final int tileSize )
+	{
+		this.tileSize = Math.max( 1, tileSize );
+	}
+
+	/**
+	 * Render the target in square tiles of {@link #tileSize} pixels.  Each
+	 * tile is one task that maps all triangles overlapping it, clipped to
+	 * the tile, such that no two tasks write the same pixel.
+	 *
+	 * @param executor executes the tiles, if null, tiles are rendered
+	 *   sequentially in the calling thread
+	 */
+	final protected void mapTiles(
+			final ImageProcessor source,
+			final ImageProcessor target,
+			final ExecutorService executor,
+			final boolean inverse,
+			final boolean interpolated )
+	{
+		final int width = target.getWidth();
+		final int height = target.getHeight();
+		final TileIndex index = new TileIndex( transform, width, height, tileSize, inverse );
+		final ArrayList< Future< ? > > tasks = new ArrayList< Future< ? > >();
+		for ( int y = 0; y < index.numY; ++y )
+		{
+			for ( int x = 0; x < index.numX; ++x )
+			{
+				final int tile = y * index.numX + x;
+				if ( index.offsets[ tile ] == index.offsets[ tile + 1 ] )
+					continue;
+				final int x1 = x * tileSize;
+				final int y1 = y * tileSize;
+				final int x2 = Math.min( width, x1 + tileSize ) - 1;
+				final int y2 = Math.min( height, y1 + tileSize ) - 1;
+				final Runnable task = () ->
+				{
+					for ( int i = index.offsets[ tile ]; i < index.offsets[ tile + 1 ]; ++i )
+					{
+						final AffineModel2D ai = index.triangles[ i ];
+						if ( inverse )
+						{
+							if ( interpolated )
+								mapTriangleInverseInterpolated( transform, ai, source, target, x1, y1, x2, y2 );
+							else
+								mapTriangleInverse( transform, ai, source, target, x1, y1, x2, y2 );
+						}
+						else
+						{
+							if ( interpolated )
+								mapTriangleInterpolated( transform, ai, source, target, x1, y1, x2, y2 );
+							else
+								mapTriangle( transform, ai, source, target, x1, y1, x2, y2 );
+						}
+					}
+				};
+				if ( executor == null )
+					task.run();
+				else
+					tasks.add( executor.submit( task ) );
+			}
+		}
+		for ( final Future< ? > task : tasks )
+		{
+			try
+			{
+				task.get();
+			}
+			catch ( final InterruptedException | ExecutionException e )
+			{
+				throw new RuntimeException( e );
+			}
+		}
+	}
+
 	/**
 	 *
 	 * @param pm PointMatches
@@ -243,6 +411,81 @@ public class TransformMeshMapping< T extends TransformMesh > extends InvertibleT
 		return true;
 	}
 
+	/**
+	 * Intersect row <em>y</em> with an edge and extend the interval
+	 * <em>lr</em> = [l, r] by the intersection.
+	 */
+	final static private void intersectEdge(
+			final double ax,
+			final double ay,
+			final double bx,
+			final double by,
+			final double y,
+			final double[] lr )
+	{
+		if ( ( ay <= y && y <= by ) || ( by <= y && y <= ay ) )
+		{
+			final double x1, x2;
+			if ( ay == by )
+			{
+				x1 = ax;
+				x2 = bx;
+			}
+			else
+				x1 = x2 = ax + ( y - ay ) * ( bx - ax ) / ( by - ay );
+			lr[ 0 ] = Math.min( lr[ 0 ], Math.min( x1, x2 ) );
+			lr[ 1 ] = Math.max( lr[ 1 ], Math.max( x1, x2 ) );
+		}
+	}
+
+	/**
+	 * Calculate the span of pixels in row <em>y</em> that are inside a
+	 * triangle as tested by
+	 * {@link #isInTriangle(double, double, double, double, double, double, double, double)},
+	 * clipped to [<em>minX</em>, <em>maxX</em>].  The span is estimated
+	 * from the intersections of the row with the edges and its end points
+	 * are then adjusted with the exact test, such that the set of pixels
+	 * is identical to testing each pixel of the bounding box.
+	 *
+	 * @param span first and last pixel of the span, x = span[0], y = span[1]
+	 * @param lr temporary storage for two doubles
+	 *
+	 * @return false if the span is empty
+	 */
+	final static protected boolean triangleSpan(
+			final double ax,
+			final double ay,
+			final double bx,
+			final double by,
+			final double cx,
+			final double cy,
+			final int y,
+			final int minX,
+			final int maxX,
+			final int[] span,
+			final double[] lr )
+	{
+		lr[ 0 ] = Double.POSITIVE_INFINITY;
+		lr[ 1 ] = Double.NEGATIVE_INFINITY;
+		intersectEdge( ax, ay, bx, by, y, lr );
+		intersectEdge( bx, by, cx, cy, y, lr );
+		intersectEdge( cx, cy, ax, ay, y, lr );
+		if ( !( lr[ 0 ] <= lr[ 1 ] ) )
+			return false;
+
+		/* one pixel margin for rounding errors */
+		int x1 = ( int )Math.max( minX, Math.ceil( lr[ 0 ] ) - 1 );
+		int x2 = ( int )Math.min( maxX, Math.floor( lr[ 1 ] ) + 1 );
+		while ( x1 <= x2 && !isInTriangle( ax, ay, bx, by, cx, cy, x1, y ) )
+			++x1;
+		while ( x2 >= x1 && !isInTriangle( ax, ay, bx, by, cx, cy, x2, y ) )
+			--x2;
+		if ( x1 > x2 )
+			return false;
+		span[ 0 ] = x1;
+		span[ 1 ] = x2;
+		return true;
+	}
 
 	final static protected void mapTriangle(
 			final TransformMesh m,
@@ -250,16 +493,31 @@ public class TransformMeshMapping< T extends TransformMesh > extends InvertibleT
 			final ImageProcessor source,
 			final ImageProcessor target )
 	{
-		final int w = target.getWidth() - 1;
-		final int h = target.getHeight() - 1;
+		mapTriangle( m, ai, source, target, 0, 0, target.getWidth() - 1, target.getHeight() - 1 );
+	}
+
+	/**
+	 * Render only the part of the triangle that is inside the target
+	 * rectangle [<em>x1</em>, <em>x2</em>]&times;[<em>y1</em>, <em>y2</em>].
+	 */
+	final static protected void mapTriangle(
+			final TransformMesh m,
+			final AffineModel2D ai,
+			final ImageProcessor source,
+			final ImageProcessor target,
+			final int x1,
+			final int y1,
+			final int x2,
+			final int y2 )
+	{
 		final ArrayList< PointMatch > pm = m.getAV().get( ai );
 		final double[] min = new double[ 2 ];
 		final double[] max = new double[ 2 ];
 		calculateBoundingBox( pm, min, max );
-		final int minX = Math.max( 0, Util.roundPos( min[ 0 ] ) );
-		final int minY = Math.max( 0, Util.roundPos( min[ 1 ] ) );
-		final int maxX = Math.min( w, Util.roundPos( max[ 0 ] ) );
-		final int maxY = Math.min( h, Util.roundPos( max[ 1 ] ) );
+		final int minX = Math.max( x1, Util.roundPos( min[ 0 ] ) );
+		final int minY = Math.max( y1, Util.roundPos( min[ 1 ] ) );
+		final int maxX = Math.min( x2, Util.roundPos( max[ 0 ] ) );
+		final int maxY = Math.min( y2, Util.roundPos( max[ 1 ] ) );
 
 		final double[] a = pm.get( 0 ).getP2().getW();
 		final double ax = a[ 0 ];
@@ -270,26 +528,31 @@ public class TransformMeshMapping< T extends TransformMesh > extends InvertibleT
 		final double[] c = pm.get( 2 ).getP2().getW();
 		final double cx = c[ 0 ];
 		final double cy = c[ 1 ];
+		final AffineTransform affine = ai.createInverseAffine();
+		final double dx = affine.getScaleX();
+		final double dy = affine.getShearY();
 		final double[] t = new double[ 2 ];
+		final int[] span = new int[ 2 ];
+		final double[] lr = new double[ 2 ];
 		for ( int y = minY; y <= maxY; ++y )
 		{
-			for ( int x = minX; x <= maxX; ++x )
+			if ( triangleSpan( ax, ay, bx, by, cx, cy, y, minX, maxX, span, lr ) )
 			{
-				if ( isInTriangle( ax, ay, bx, by, cx, cy, x, y ) )
+				t[ 0 ] = span[ 0 ];
+				t[ 1 ] = y;
+				try
 				{
-					t[ 0 ] = x;
-					t[ 1 ] = y;
-					try
-					{
-						ai.applyInverseInPlace( t );
-					}
-					catch ( final Exception e )
-					{
-						//e.printStackTrace( System.err );
-						continue;
-					}
-					target.putPixel( x, y, source.getPixel( ( int )( t[ 0 ] + 0.5f ), ( int )( t[ 1 ] + 0.5f ) ) );
+					ai.applyInverseInPlace( t );
+				}
+				catch ( final Exception e )
+				{
+					//e.printStackTrace( System.err );
+					return;
 				}
+				double sx = t[ 0 ];
+				double sy = t[ 1 ];
+				for ( int x = span[ 0 ]; x <= span[ 1 ]; ++x, sx += dx, sy += dy )
+					target.putPixel( x, y, source.getPixel( ( int )( sx + 0.5f ), ( int )( sy + 0.5f ) ) );
 			}
 		}
 	}
@@ -300,16 +563,31 @@ public class TransformMeshMapping< T extends TransformMesh > extends InvertibleT
 			final ImageProcessor source,
 			final ImageProcessor target )
 	{
-		final int w = target.getWidth() - 1;
-		final int h = target.getHeight() - 1;
+		mapTriangleInterpolated( m, ai, source, target, 0, 0, target.getWidth() - 1, target.getHeight() - 1 );
+	}
+
+	/**
+	 * Render only the part of the triangle that is inside the target
+	 * rectangle [<em>x1</em>, <em>x2</em>]&times;[<em>y1</em>, <em>y2</em>].
+	 */
+	final static protected void mapTriangleInterpolated(
+			final TransformMesh m,
+			final AffineModel2D ai,
+			final ImageProcessor source,
+			final ImageProcessor target,
+			final int x1,
+			final int y1,
+			final int x2,
+			final int y2 )
+	{
 		final ArrayList< PointMatch > pm = m.getAV().get( ai );
 		final double[] min = new double[ 2 ];
 		final double[] max = new double[ 2 ];
 		calculateBoundingBox( pm, min, max );
-		final int minX = Math.max( 0, Util.roundPos( min[ 0 ] ) );
-		final int minY = Math.max( 0, Util.roundPos( min[ 1 ] ) );
-		final int maxX = Math.min( w, Util.roundPos( max[ 0 ] ) );
-		final int maxY = Math.min( h, Util.roundPos( max[ 1 ] ) );
+		final int minX = Math.max( x1, Util.roundPos( min[ 0 ] ) );
+		final int minY = Math.max( y1, Util.roundPos( min[ 1 ] ) );
+		final int maxX = Math.min( x2, Util.roundPos( max[ 0 ] ) );
+		final int maxY = Math.min( y2, Util.roundPos( max[ 1 ] ) );
 
 		final double[] a = pm.get( 0 ).getP2().getW();
 		final double ax = a[ 0 ];
@@ -320,26 +598,31 @@ public class TransformMeshMapping< T extends TransformMesh > extends InvertibleT
 		final double[] c = pm.get( 2 ).getP2().getW();
 		final double cx = c[ 0 ];
 		final double cy = c[ 1 ];
+		final AffineTransform affine = ai.createInverseAffine();
+		final double dx = affine.getScaleX();
+		final double dy = affine.getShearY();
 		final double[] t = new double[ 2 ];
+		final int[] span = new int[ 2 ];
+		final double[] lr = new double[ 2 ];
 		for ( int y = minY; y <= maxY; ++y )
 		{
-			for ( int x = minX; x <= maxX; ++x )
+			if ( triangleSpan( ax, ay, bx, by, cx, cy, y, minX, maxX, span, lr ) )
 			{
-				if ( isInTriangle( ax, ay, bx, by, cx, cy, x, y ) )
+				t[ 0 ] = span[ 0 ];
+				t[ 1 ] = y;
+				try
 				{
-					t[ 0 ] = x;
-					t[ 1 ] = y;
-					try
-					{
-						ai.applyInverseInPlace( t );
-					}
-					catch ( final Exception e )
-					{
-						//e.printStackTrace( System.err );
-						continue;
-					}
-					target.putPixel( x, y, source.getPixelInterpolated( t[ 0 ], t[ 1 ] ) );
+					ai.applyInverseInPlace( t );
+				}
+				catch ( final Exception e )
+				{
+					//e.printStackTrace( System.err );
+					return;
 				}
+				double sx = t[ 0 ];
+				double sy = t[ 1 ];
+				for ( int x = span[ 0 ]; x <= span[ 1 ]; ++x, sx += dx, sy += dy )
+					target.putPixel( x, y, source.getPixelInterpolated( sx, sy ) );
 			}
 		}
 	}
@@ -379,12 +662,29 @@ public class TransformMeshMapping< T extends TransformMesh > extends InvertibleT
 		}
 	}
 
+	/**
+	 * Render in tiles that are executed by an {@link ExecutorService}.
+	 * Reusing a shared executor avoids creating threads for each call.
+	 *
+	 * @param executor if null, tiles are rendered in the calling thread
+	 */
+	final public void map(
+			final ImageProcessor source,
+			final ImageProcessor target,
+			final ExecutorService executor )
+	{
+		mapTiles( source, target, executor, false, false );
+	}
+
+	/**
+	 * Render in tiles on the {@link ForkJoinPool#commonPool() common pool}.
+	 */
 	@Override
 	final public void map(
 			final ImageProcessor source,
 			final ImageProcessor target )
 	{
-		map( source, target, Runtime.getRuntime().availableProcessors() );
+		map( source, target, ForkJoinPool.commonPool() );
 	}
 
 	final public void mapInterpolated(
@@ -422,12 +722,29 @@ public class TransformMeshMapping< T extends TransformMesh > extends InvertibleT
 		}
 	}
 
+	/**
+	 * Render in tiles that are executed by an {@link ExecutorService}.
+	 * Reusing a shared executor avoids creating threads for each call.
+	 *
+	 * @param executor if null, tiles are rendered in the calling thread
+	 */
+	final public void mapInterpolated(
+			final ImageProcessor source,
+			final ImageProcessor target,
+			final ExecutorService executor )
+	{
+		mapTiles( source, target, executor, false, true );
+	}
+
+	/**
+	 * Render in tiles on the {@link ForkJoinPool#commonPool() common pool}.
+	 */
 	@Override
 	final public void mapInterpolated(
 			final ImageProcessor source,
 			final ImageProcessor target )
 	{
-		mapInterpolated( source, target, Runtime.getRuntime().availableProcessors() );
+		mapInterpolated( source, target, ForkJoinPool.commonPool() );
 	}
 
 
@@ -464,16 +781,31 @@ public class TransformMeshMapping< T extends TransformMesh > extends InvertibleT
 			final ImageProcessor source,
 			final ImageProcessor target )
 	{
-		final int w = target.getWidth() - 1;
-		final int h = target.getHeight() - 1;
+		mapTriangleInverse( m, ai, source, target, 0, 0, target.getWidth() - 1, target.getHeight() - 1 );
+	}
+
+	/**
+	 * Render only the part of the triangle that is inside the target
+	 * rectangle [<em>x1</em>, <em>x2</em>]&times;[<em>y1</em>, <em>y2</em>].
+	 */
+	final static protected void mapTriangleInverse(
+			final TransformMesh m,
+			final AffineModel2D ai,
+			final ImageProcessor source,
+			final ImageProcessor target,
+			final int x1,
+			final int y1,
+			final int x2,
+			final int y2 )
+	{
 		final ArrayList< PointMatch > pm = m.getAV().get( ai );
 		final double[] min = new double[ 2 ];
 		final double[] max = new double[ 2 ];
 		calculateBoundingBoxInverse( pm, min, max );
-		final int minX = Math.max( 0, Util.roundPos( min[ 0 ] ) );
-		final int minY = Math.max( 0, Util.roundPos( min[ 1 ] ) );
-		final int maxX = Math.min( w, Util.roundPos( max[ 0 ] ) );
-		final int maxY = Math.min( h, Util.roundPos( max[ 1 ] ) );
+		final int minX = Math.max( x1, Util.roundPos( min[ 0 ] ) );
+		final int minY = Math.max( y1, Util.roundPos( min[ 1 ] ) );
+		final int maxX = Math.min( x2, Util.roundPos( max[ 0 ] ) );
+		final int maxY = Math.min( y2, Util.roundPos( max[ 1 ] ) );
 
 		final double[] a = pm.get( 0 ).getP1().getL();
 		final double ax = a[ 0 ];
@@ -484,18 +816,23 @@ public class TransformMeshMapping< T extends TransformMesh > extends InvertibleT
 		final double[] c = pm.get( 2 ).getP1().getL();
 		final double cx = c[ 0 ];
 		final double cy = c[ 1 ];
+		final AffineTransform affine = ai.createAffine();
+		final double dx = affine.getScaleX();
+		final double dy = affine.getShearY();
 		final double[] t = new double[ 2 ];
+		final int[] span = new int[ 2 ];
+		final double[] lr = new double[ 2 ];
 		for ( int y = minY; y <= maxY; ++y )
 		{
-			for ( int x = minX; x <= maxX; ++x )
+			if ( triangleSpan( ax, ay, bx, by, cx, cy, y, minX, maxX, span, lr ) )
 			{
-				if ( isInTriangle( ax, ay, bx, by, cx, cy, x, y ) )
-				{
-					t[ 0 ] = x;
-					t[ 1 ] = y;
-					ai.applyInPlace( t );
-					target.putPixel( x, y, source.getPixel( ( int )( t[ 0 ] + 0.5f ), ( int )( t[ 1 ] + 0.5f ) ) );
-				}
+				t[ 0 ] = span[ 0 ];
+				t[ 1 ] = y;
+				ai.applyInPlace( t );
+				double sx = t[ 0 ];
+				double sy = t[ 1 ];
+				for ( int x = span[ 0 ]; x <= span[ 1 ]; ++x, sx += dx, sy += dy )
+					target.putPixel( x, y, source.getPixel( ( int )( sx + 0.5f ), ( int )( sy + 0.5f ) ) );
 			}
 		}
 	}
@@ -506,16 +843,31 @@ public class TransformMeshMapping< T extends TransformMesh > extends InvertibleT
 			final ImageProcessor source,
 			final ImageProcessor target )
 	{
-		final int w = target.getWidth() - 1;
-		final int h = target.getHeight() - 1;
+		mapTriangleInverseInterpolated( m, ai, source, target, 0, 0, target.getWidth() - 1, target.getHeight() - 1 );
+	}
+
+	/**
+	 * Render only the part of the triangle that is inside the target
+	 * rectangle [<em>x1</em>, <em>x2</em>]&times;[<em>y1</em>, <em>y2</em>].
+	 */
+	final static protected void mapTriangleInverseInterpolated(
+			final TransformMesh m,
+			final AffineModel2D ai,
+			final ImageProcessor source,
+			final ImageProcessor target,
+			final int x1,
+			final int y1,
+			final int x2,
+			final int y2 )
+	{
 		final ArrayList< PointMatch > pm = m.getAV().get( ai );
 		final double[] min = new double[ 2 ];
 		final double[] max = new double[ 2 ];
 		calculateBoundingBoxInverse( pm, min, max );
-		final int minX = Math.max( 0, Util.roundPos( min[ 0 ] ) );
-		final int minY = Math.max( 0, Util.roundPos( min[ 1 ] ) );
-		final int maxX = Math.min( w, Util.roundPos( max[ 0 ] ) );
-		final int maxY = Math.min( h, Util.roundPos( max[ 1 ] ) );
+		final int minX = Math.max( x1, Util.roundPos( min[ 0 ] ) );
+		final int minY = Math.max( y1, Util.roundPos( min[ 1 ] ) );
+		final int maxX = Math.min( x2, Util.roundPos( max[ 0 ] ) );
+		final int maxY = Math.min( y2, Util.roundPos( max[ 1 ] ) );
 
 		final double[] a = pm.get( 0 ).getP1().getL();
 		final double ax = a[ 0 ];
@@ -526,18 +878,23 @@ public class TransformMeshMapping< T extends TransformMesh > extends InvertibleT
 		final double[] c = pm.get( 2 ).getP1().getL();
 		final double cx = c[ 0 ];
 		final double cy = c[ 1 ];
+		final AffineTransform affine = ai.createAffine();
+		final double dx = affine.getScaleX();
+		final double dy = affine.getShearY();
 		final double[] t = new double[ 2 ];
+		final int[] span = new int[ 2 ];
+		final double[] lr = new double[ 2 ];
 		for ( int y = minY; y <= maxY; ++y )
 		{
-			for ( int x = minX; x <= maxX; ++x )
+			if ( triangleSpan( ax, ay, bx, by, cx, cy, y, minX, maxX, span, lr ) )
 			{
-				if ( isInTriangle( ax, ay, bx, by, cx, cy, x, y ) )
-				{
-					t[ 0 ] = x;
-					t[ 1 ] = y;
-					ai.applyInPlace( t );
-					target.putPixel( x, y, source.getPixelInterpolated( t[ 0 ], t[ 1 ] ) );
-				}
+				t[ 0 ] = span[ 0 ];
+				t[ 1 ] = y;
+				ai.applyInPlace( t );
+				double sx = t[ 0 ];
+				double sy = t[ 1 ];
+				for ( int x = span[ 0 ]; x <= span[ 1 ]; ++x, sx += dx, sy += dy )
+					target.putPixel( x, y, source.getPixelInterpolated( sx, sy ) );
 			}
 		}
 	}
@@ -577,12 +934,29 @@ public class TransformMeshMapping< T extends TransformMesh > extends InvertibleT
 		}
 	}
 
+	/**
+	 * Render in tiles that are executed by an {@link ExecutorService}.
+	 * Reusing a shared executor avoids creating threads for each call.
+	 *
+	 * @param executor if null, tiles are rendered in the calling thread
+	 */
+	final public void mapInverse(
+			final ImageProcessor source,
+			final ImageProcessor target,
+			final ExecutorService executor )
+	{
+		mapTiles( source, target, executor, true, false );
+	}
+
+	/**
+	 * Render in tiles on the {@link ForkJoinPool#commonPool() common pool}.
+	 */
 	@Override
 	final public void mapInverse(
 			final ImageProcessor source,
 			final ImageProcessor target )
 	{
-		mapInverse( source, target, Runtime.getRuntime().availableProcessors() );
+		mapInverse( source, target, ForkJoinPool.commonPool() );
 	}
 
 	final public void mapInverseInterpolated(
@@ -620,12 +994,29 @@ public class TransformMeshMapping< T extends TransformMesh > extends InvertibleT
 		}
 	}
 
+	/**
+	 * Render in tiles that are executed by an {@link ExecutorService}.
+	 * Reusing a shared executor avoids creating threads for each call.
+	 *
+	 * @param executor if null, tiles are rendered in the calling thread
+	 */
+	final public void mapInverseInterpolated(
+			final ImageProcessor source,
+			final ImageProcessor target,
+			final ExecutorService executor )
+	{
+		mapTiles( source, target, executor, true, true );
+	}
+
+	/**
+	 * Render in tiles on the {@link ForkJoinPool#commonPool() common pool}.
+	 */
 	@Override
 	final public void mapInverseInterpolated(
 			final ImageProcessor source,
 			final ImageProcessor target )
 	{
-		mapInverseInterpolated( source, target, Runtime.getRuntime().availableProcessors() );
+		mapInverseInterpolated( source, target, ForkJoinPool.commonPool() );
 	}
 
 }
@@ -39,10 +39,17 @@ package mpicbg.models;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import mpicbg.util.KDTree;
 
 /**
  * Abstract class for arbitrary transformation models to be applied
@@ -97,6 +104,38 @@ public abstract class AbstractModel< M extends AbstractModel< M > > implements M
 	/* repeatable results */
 	final static protected Random rnd = new Random( 69997 );
 
+	/**
+	 * Smallest Gaussian weight considered by
+	 * {@link #localSmoothnessFilter(Collection, Collection, double, double, double, ExecutorService)}.
+	 * Matches further than {@code sqrt(-2 log(w)) sigma} (about 3.7 sigma) from
+	 * the candidate are ignored.
+	 */
+	final static protected double MIN_LOCAL_SMOOTHNESS_WEIGHT = 0.001;
+
+	/**
+	 * Number of consecutive hypotheses that are drawn from one seeded random
+	 * sequence in
+	 * {@link #ransac(List, Collection, int, double, double, int, long, ExecutorService)}.
+	 * The block size does not depend on the number of threads such that the
+	 * result does not depend on how blocks are distributed over threads.
+	 */
+	final static protected int RANSAC_BLOCK_SIZE = 64;
+
+	/**
+	 * The best hypothesis of a block of RANSAC iterations.
+	 */
+	final static private class RansacHypothesis< M extends AbstractModel< M >, P extends PointMatch >
+	{
+		final M model;
+		final ArrayList< P > inliers;
+
+		RansacHypothesis( final M model, final ArrayList< P > inliers )
+		{
+			this.model = model;
+			this.inliers = inliers;
+		}
+	}
+
 	/**
 	 * The cost depends on what kind of algorithm is running.  It is always
 	 * true that a smaller cost is better than large cost
@@ -158,6 +197,46 @@ public abstract class AbstractModel< M extends AbstractModel< M > > implements M
 		return ( inliers.size() >= minNumInliers && ir > minInlierRatio );
 	}
 
+	/**
+	 * Test the {@link AbstractModel} for a set of {@link PointMatch} candidates
+	 * like {@link #test(Collection, Collection, double, double, int)} but
+	 * calculate the transfer errors on a {@link PackedPointMatches packed}
+	 * copy of the candidates.  The candidates are not modified, no memory is
+	 * allocated other than for growing inliers and the single small array of
+	 * {@link PackedPointMatches#distances(CoordinateTransform, double[])}.
+	 *
+	 * @param packedCandidates packed copy of candidates
+	 * @param candidates set of point correspondence candidates
+	 * @param inliers set of point correspondences that fit the model
+	 * @param epsilon maximal allowed transfer error
+	 * @param minInlierRatio minimal ratio {@code |inliers| / |candidates| (0.0 => 0%, 1.0 => 100%)}
+	 * @param minNumInliers minimally required absolute number of inliers
+	 * @param distances buffer for the transfer errors of all candidates
+	 * @param inlierIndices buffer for the indices of all inliers
+	 */
+	final public < P extends PointMatch >boolean test(
+			final PackedPointMatches packedCandidates,
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final double epsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final double[] distances,
+			final int[] inlierIndices )
+	{
+		inliers.clear();
+
+		packedCandidates.distances( this, distances );
+		final int numInliers = packedCandidates.inliers( distances, epsilon, inlierIndices );
+		for ( int i = 0; i < numInliers; ++i )
+			inliers.add( candidates.get( inlierIndices[ i ] ) );
+
+		final double ir = ( double )numInliers / ( double )candidates.size();
+		setCost( Math.max( 0.0, Math.min( 1.0, 1.0 - ir ) ) );
+
+		return ( numInliers >= minNumInliers && ir > minInlierRatio );
+	}
+
 	/**
 	 * Call {@link #test(Collection, Collection, double, double, int)} with
 	 * minNumInliers = {@link #getMinNumMatches()}.
@@ -172,6 +251,41 @@ public abstract class AbstractModel< M extends AbstractModel< M > > implements M
 		return test( candidates, inliers, epsilon, minInlierRatio, getMinNumMatches() );
 	}
 
+	/**
+	 * Create empty {@link PointMatchStatistics} for a model that implements
+	 * {@link StatisticsModel} and whose fit to these statistics is the same
+	 * as {@link #fit(Collection)}.  This is the case for the moment based
+	 * affine family ({@link PointMatchMoments2D}, {@link PointMatchMoments3D})
+	 * but not for {@link HomographyModel2D} whose normalized normal
+	 * equations give a different estimate.
+	 *
+	 * @return empty statistics or null if the model cannot be fit from
+	 *   statistics equivalently
+	 */
+	static protected PointMatchStatistics< ? > createStatistics( final Object model )
+	{
+		if ( model instanceof StatisticsModel )
+		{
+			final PointMatchStatistics< ? > statistics = ( ( StatisticsModel< ? > )model ).createStatistics();
+			if ( statistics instanceof PointMatchMoments2D || statistics instanceof PointMatchMoments3D )
+				return statistics;
+		}
+		return null;
+	}
+
+	/**
+	 * Fit a {@link StatisticsModel} to statistics that were created by
+	 * {@link #createStatistics(Object)} for the same model.
+	 */
+	@SuppressWarnings( "unchecked" )
+	static protected < S extends PointMatchStatistics< S > >void fitStatistics(
+			final StatisticsModel< S > model,
+			final PointMatchStatistics< ? > statistics )
+		throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		model.fit( ( S )statistics );
+	}
+
 	/**
 	 * Estimate the {@link AbstractModel} and filter potential outliers by robust
 	 * iterative regression.
@@ -206,18 +320,37 @@ public abstract class AbstractModel< M extends AbstractModel< M > > implements M
 
 		final M copy = copy();
 
+		final ArrayList< P > candidateList = new ArrayList< P >( candidates );
+		final PackedPointMatches packedCandidates = new PackedPointMatches( candidateList );
+		final double[] distances = new double[ candidateList.size() ];
+		final double[] sortedDistances = new double[ candidateList.size() ];
+		int[] temp = new int[ candidateList.size() ];
+		int[] inlierIndices = new int[ candidateList.size() ];
+
+		int numInliers = candidateList.size();
+		for ( int i = 0; i < numInliers; ++i )
+			inlierIndices[ i ] = i;
+
+		/* models that can be fit from sufficient statistics are updated by the removed candidates only */
+		final PointMatchStatistics< ? > statistics = createStatistics( copy );
+		if ( statistics != null )
+			statistics.add( candidateList );
+
 		inliers.clear();
-		inliers.addAll( candidates );
-		final ArrayList< P > temp = new ArrayList< P >();
-		int numInliers;
+		inliers.addAll( candidateList );
+		int numTemp;
 		do
 		{
-			temp.clear();
-			temp.addAll( inliers );
-			numInliers = inliers.size();
+			final int[] swap = temp;
+			temp = inlierIndices;
+			inlierIndices = swap;
+			numTemp = numInliers;
 			try
 			{
-				copy.fit( inliers );
+				if ( statistics == null )
+					copy.fit( inliers );
+				else
+					fitStatistics( ( StatisticsModel< ? > )copy, statistics );
 			}
 			catch ( final NotEnoughDataPointsException e )
 			{
@@ -227,25 +360,46 @@ public abstract class AbstractModel< M extends AbstractModel< M > > implements M
 			{
 				return false;
 			}
-			final ErrorStatistic observer = new ErrorStatistic( temp.size() );
-			for ( final PointMatch m : temp )
+
+			/* median and running mean of the transfer errors as by ErrorStatistic */
+			packedCandidates.distances( copy, distances );
+			double mean = 0;
+			for ( int i = 0; i < numTemp; ++i )
 			{
-				m.apply( copy );
-				observer.add( m.getDistance() );
+				final double d = distances[ temp[ i ] ];
+				sortedDistances[ i ] = d;
+				mean += ( d - mean ) / ( i + 1 );
 			}
+			Arrays.sort( sortedDistances, 0, numTemp );
+			final double median;
+			if ( numTemp % 2 == 0 )
+				median = ( sortedDistances[ numTemp / 2 - 1 ] + sortedDistances[ numTemp / 2 ] ) / 2.0;
+			else
+				median = sortedDistances[ numTemp / 2 ];
+
 			inliers.clear();
-			final double t = observer.getMedian() * maxTrust;
-			for ( final P m : temp )
+			numInliers = 0;
+			final double t = median * maxTrust;
+			for ( int i = 0; i < numTemp; ++i )
 			{
-				if ( m.getDistance() <= t )
-					inliers.add( m );
+				final int k = temp[ i ];
+				if ( distances[ k ] <= t )
+				{
+					inlierIndices[ numInliers++ ] = k;
+					inliers.add( candidateList.get( k ) );
+				}
+				else if ( statistics != null )
+					statistics.remove( candidateList.get( k ) );
 			}
 
-			copy.cost = observer.mean;
+			copy.cost = mean;
 		}
-		while ( numInliers > inliers.size() );
+		while ( numTemp > numInliers );
 
-		if ( numInliers < minNumInliers )
+		/* world coordinates of the inliers are expected to be transferred by the estimated model */
+		PointMatch.apply( inliers, copy );
+
+		if ( numTemp < minNumInliers )
 			return false;
 
 		set( copy );
@@ -319,6 +473,7 @@ public abstract class AbstractModel< M extends AbstractModel< M > > implements M
 		inliers.clear();
 
 		final HashSet< P > minMatches = new HashSet< P >();
+		final ArrayList< P > tempInliers = new ArrayList< P >();
 
 		for ( int i = 0; i < iterations; ++i )
 		{
@@ -338,8 +493,6 @@ public abstract class AbstractModel< M extends AbstractModel< M > > implements M
 			catch ( final IllDefinedDataPointsException e )
 			{ continue; }
 
-			final ArrayList< P > tempInliers = new ArrayList< P >();
-
 			int numInliers = 0;
 			boolean isGood = m.test( candidates, tempInliers, epsilon, minInlierRatio );
 			while ( isGood && numInliers < tempInliers.size() )
@@ -390,195 +543,1101 @@ public abstract class AbstractModel< M extends AbstractModel< M > > implements M
 	}
 
 	/**
-	 * Estimate a {@link AbstractModel} from a set with many outliers by first
-	 * filtering the worst outliers with {@link #ransac RANSAC}
-	 * \citet[{FischlerB81} and filter potential outliers by robust iterative
-	 * regression.
+	 * Find the {@link AbstractModel} of a set of {@link PointMatch} candidates
+	 * containing a high number of outliers using
+	 * {@link #ransac(List, Collection, int, double, double, int) RANSAC}
+	 * \citet[{FischlerB81} with a given random seed.
+	 * <p>
+	 * Call
+	 * {@link #ransac(List, Collection, int, double, double, int, long, ExecutorService)}
+	 * without an {@link ExecutorService}, i.e. all hypotheses are tested in
+	 * the calling thread.  The result is identical to that of a concurrent
+	 * run with the same seed.
+	 * </p>
 	 *
 	 * @param candidates candidate data points inluding (many) outliers
 	 * @param inliers remaining candidates after RANSAC
 	 * @param iterations number of iterations
-	 * @param maxEpsilon maximal allowed transfer error
+	 * @param epsilon maximal allowed transfer error
 	 * @param minInlierRatio minimal number of inliers to number of
 	 *   candidates
 	 * @param minNumInliers minimally required absolute number of inliers
-	 * @param maxTrust reject candidates with a cost larger than
-	 *   maxTrust * median cost
+	 * @param seed seed for the random sample selection
 	 *
 	 * @return true if {@link AbstractModel} could be estimated and inliers is not
 	 *   empty, false otherwise.  If false, {@link AbstractModel} remains unchanged.
 	 */
-	@Override
-	final public < P extends PointMatch >boolean filterRansac(
+	final public < P extends PointMatch >boolean ransac(
 			final List< P > candidates,
 			final Collection< P > inliers,
 			final int iterations,
-			final double maxEpsilon,
+			final double epsilon,
 			final double minInlierRatio,
 			final int minNumInliers,
-			final double maxTrust )
+			final long seed )
 		throws NotEnoughDataPointsException
 	{
-		final ArrayList< P > temp = new ArrayList< P >();
-		if (
-				ransac(
-						candidates,
-						temp,
-						iterations,
-						maxEpsilon,
-						minInlierRatio,
-						minNumInliers ) &&
-				filter( temp, inliers, maxTrust, minNumInliers ) )
-			return true;
-		return false;
+		return ransac( candidates, inliers, iterations, epsilon, minInlierRatio, minNumInliers, seed, null );
 	}
 
 	/**
-	 * Call {@link #filterRansac(List, Collection, int, double, double, int, double)}
-	 * with maxTrust = 4.
+	 * Find the {@link AbstractModel} of a set of {@link PointMatch} candidates
+	 * containing a high number of outliers using
+	 * {@link #ransac(List, Collection, int, double, double, int) RANSAC}
+	 * \citet[{FischlerB81} concurrently.
+	 * <p>
+	 * The iterations are split into blocks of {@link #RANSAC_BLOCK_SIZE}
+	 * hypotheses.  Each block is evaluated by its own copy of this model with
+	 * its own {@link Random} that is seeded from seed and the block index.
+	 * The best hypotheses of all blocks are reduced in block order such that
+	 * the result depends only on the seed but not on the number of threads or
+	 * the scheduling.
+	 * </p>
+	 * <p>
+	 * Other than {@link #ransac(List, Collection, int, double, double, int)},
+	 * this method does not modify the world coordinates of the candidates.
+	 * </p>
+	 *
+	 * @param candidates candidate data points inluding (many) outliers
+	 * @param inliers remaining candidates after RANSAC
+	 * @param iterations number of iterations
+	 * @param epsilon maximal allowed transfer error
+	 * @param minInlierRatio minimal number of inliers to number of
+	 *   candidates
+	 * @param minNumInliers minimally required absolute number of inliers
+	 * @param seed seed for the random sample selection
+	 * @param executor evaluates the blocks of iterations, if null, all blocks
+	 *   are evaluated in the calling thread
+	 *
+	 * @return true if {@link AbstractModel} could be estimated and inliers is not
+	 *   empty, false otherwise.  If false, {@link AbstractModel} remains unchanged.
 	 */
-	@Override
-	final public < P extends PointMatch >boolean filterRansac(
+	final public < P extends PointMatch >boolean ransac(
 			final List< P > candidates,
 			final Collection< P > inliers,
 			final int iterations,
-			final double maxEpsilon,
+			final double epsilon,
 			final double minInlierRatio,
-			final int minNumInliers )
+			final int minNumInliers,
+			final long seed,
+			final ExecutorService executor )
 		throws NotEnoughDataPointsException
 	{
-		return filterRansac( candidates, inliers, iterations, maxEpsilon, minInlierRatio, minNumInliers, 4f );
-	}
-
+		if ( candidates.size() < getMinNumMatches() )
+			throw new NotEnoughDataPointsException( candidates.size() + " data points are not enough to solve the Model, at least " + getMinNumMatches() + " data points required." );
 
-	/**
-	 * Call {@link #filterRansac(List, Collection, int, double, double, int, double)}
-	 * with minNumInliers = {@link #getMinNumMatches()}.
-	 */
-	@Override
-	final public < P extends PointMatch >boolean filterRansac(
-			final List< P > candidates,
-			final Collection< P > inliers,
-			final int iterations,
-			final double maxEpsilon,
-			final double minInlierRatio,
-			final double maxTrust )
-		throws NotEnoughDataPointsException
-	{
-		return filterRansac( candidates, inliers, iterations, maxEpsilon, minInlierRatio, getMinNumMatches(), maxTrust );
-	}
+		cost = Double.MAX_VALUE;
 
+		inliers.clear();
 
-	/**
-	 * Call {@link #filterRansac(List, Collection, int, double, double, double)}
-	 * with maxTrust = 4.
-	 */
-	@Override
-	final public < P extends PointMatch >boolean filterRansac(
-			final List< P > candidates,
-			final Collection< P > inliers,
-			final int iterations,
-			final double maxEpsilon,
-			final double minInlierRatio )
-		throws NotEnoughDataPointsException
-	{
-		return filterRansac( candidates, inliers, iterations, maxEpsilon, minInlierRatio, 4f );
-	}
+		if ( candidates.isEmpty() )
+			return false;
 
+		final PackedPointMatches packedCandidates = new PackedPointMatches( candidates );
+		final int numBlocks = ( iterations + RANSAC_BLOCK_SIZE - 1 ) / RANSAC_BLOCK_SIZE;
+		final SplittableRandom seeds = new SplittableRandom( seed );
+		final ArrayList< RansacHypothesis< M, P > > hypotheses = new ArrayList< RansacHypothesis< M, P > >( numBlocks );
 
-	/**
-	 * Estimate the best model in terms of the Iterative Closest Point
-	 * Algorithm \cite{Zhang94} for matching two point clouds into each other.
-	 * {@code
-	 * p -> q
-	 * }
-	 *
-	 * @param p source
-	 * @param q target
-	 *
-	 * @return the list of matches
-	 *
-	 * TODO Test---at least once!
-	 */
-	@Override
-	final public Collection< PointMatch > icp(
-			final List< Point > p,
-			final List< Point > q )
-	{
-		final M m = copy();
-		final List< PointMatch > currentMatches = new ArrayList< PointMatch >();
-		final List< PointMatch > previousMatches = new ArrayList< PointMatch >();
-		do
+		if ( executor == null )
 		{
-			previousMatches.clear();
-			previousMatches.addAll( currentMatches );
-			currentMatches.clear();
-
-			/* Match by Euclidean distance in space */
-			for ( final Point pi : p )
+			for ( int b = 0; b < numBlocks; ++b )
 			{
-				double minimalDistance = Double.MAX_VALUE;
-				Point closestPoint = null;
-				for ( final Point qi : q )
-				{
-					final double d = Point.distance( pi, qi );
-					if ( d < minimalDistance )
-					{
-						minimalDistance = d;
-						closestPoint = qi;
-					}
-				}
-				currentMatches.add( new PointMatch( pi, closestPoint ) );
+				final int blockIterations = Math.min( RANSAC_BLOCK_SIZE, iterations - b * RANSAC_BLOCK_SIZE );
+				hypotheses.add( ransacBlock( candidates, packedCandidates, blockIterations, new Random( seeds.nextLong() ), epsilon, minInlierRatio, minNumInliers ) );
 			}
-			try
+		}
+		else
+		{
+			final ArrayList< Future< RansacHypothesis< M, P > > > tasks = new ArrayList< Future< RansacHypothesis< M, P > > >( numBlocks );
+			for ( int b = 0; b < numBlocks; ++b )
 			{
-				m.fit( currentMatches );
+				final int blockIterations = Math.min( RANSAC_BLOCK_SIZE, iterations - b * RANSAC_BLOCK_SIZE );
+				final Random random = new Random( seeds.nextLong() );
+				tasks.add( executor.submit( () -> ransacBlock( candidates, packedCandidates, blockIterations, random, epsilon, minInlierRatio, minNumInliers ) ) );
 			}
-			catch ( final Exception e )
+			for ( final Future< RansacHypothesis< M, P > > task : tasks )
 			{
-				e.printStackTrace();
-				return null;
+				try
+				{
+					hypotheses.add( task.get() );
+				}
+				catch ( final InterruptedException | ExecutionException e )
+				{
+					throw new RuntimeException( e );
+				}
 			}
 		}
-		while ( currentMatches.equals( previousMatches ) );
-		this.set( m );
-		return currentMatches;
+
+		RansacHypothesis< M, P > best = null;
+		for ( final RansacHypothesis< M, P > hypothesis : hypotheses )
+			if ( hypothesis != null && ( best == null || hypothesis.model.betterThan( best.model ) ) )
+				best = hypothesis;
+
+		if ( best == null )
+			return false;
+
+		inliers.addAll( best.inliers );
+		set( best.model );
+		return true;
 	}
 
 	/**
-	 * Default fit implementation using {@link #fit(Collection)}.  This foils
-	 * the intention that {@link #fit(float[][], float[][], float[])} would be
-	 * potentially more efficient.  You should better implement it directly.
+	 * Evaluate a block of RANSAC hypotheses with a private copy of this
+	 * model.  Hypotheses are tested on packedCandidates, candidates are not
+	 * modified, such that multiple blocks can be evaluated concurrently.
+	 *
+	 * @return the best hypothesis of the block or null if no hypothesis
+	 *   satisfied the constraints
 	 */
-	@Override
-	public void fit(
-			final float[][] p,
-			final float[][] q,
-			final float[] w )
-		throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	private < P extends PointMatch > RansacHypothesis< M, P > ransacBlock(
+			final List< P > candidates,
+			final PackedPointMatches packedCandidates,
+			final int iterations,
+			final Random random,
+			final double epsilon,
+			final double minInlierRatio,
+			final int minNumInliers )
 	{
-		assert
-			p.length > 0 &&
-			q.length == p.length : "Numbers of dimensions do not match.";
+		final int minNumMatches = getMinNumMatches();
+		final int numCandidates = candidates.size();
 
-		assert
-			p[ 0 ].length == p[ 1 ].length &&
-			p[ 0 ].length == q[ 0 ].length &&
-			p[ 0 ].length == q[ 1 ].length &&
-			p[ 0 ].length == w.length : "Array lengths do not match.";
+		final M best = copy();
+		best.cost = Double.MAX_VALUE;
+		final M m = copy();
 
-		final int n = p.length;
-		final int l = p[ 0 ].length;
+		final ArrayList< P > bestInliers = new ArrayList< P >();
+		final ArrayList< P > minMatches = new ArrayList< P >( minNumMatches );
+		final ArrayList< P > tempInliers = new ArrayList< P >();
+		final int[] sample = new int[ minNumMatches ];
+		final double[] distances = new double[ numCandidates ];
+		final int[] inlierIndices = new int[ numCandidates ];
 
-		final ArrayList< PointMatch > matches = new ArrayList< PointMatch >( l );
-		for ( int i = 0; i < l; ++i )
+		for ( int i = 0; i < iterations; ++i )
 		{
-			final double[] pi = new double[ n ];
-			final double[] qi = new double[ n ];
-			for ( int d = 0; d < n; ++d )
+			// choose model.MIN_SET_SIZE disjunctive matches randomly
+			minMatches.clear();
+			for ( int j = 0; j < minNumMatches; ++j )
 			{
-				pi[ d ] = p[ d ][ i ];
-				qi[ d ] = q[ d ][ i ];
+				int k;
+				boolean isDrawn;
+				do
+				{
+					k = ( int )( random.nextDouble() * numCandidates );
+					isDrawn = false;
+					for ( int l = 0; l < j && !isDrawn; ++l )
+						isDrawn = sample[ l ] == k;
+				}
+				while ( isDrawn );
+				sample[ j ] = k;
+				minMatches.add( candidates.get( k ) );
+			}
+			try { m.fit( minMatches ); }
+			catch ( final NotEnoughDataPointsException | IllDefinedDataPointsException e )
+			{ continue; }
+
+			int numInliers = 0;
+			boolean isGood = m.test( packedCandidates, candidates, tempInliers, epsilon, minInlierRatio, minNumMatches, distances, inlierIndices );
+			while ( isGood && numInliers < tempInliers.size() )
+			{
+				numInliers = tempInliers.size();
+				try { m.fit( tempInliers ); }
+				catch ( final NotEnoughDataPointsException | IllDefinedDataPointsException e )
+				{
+					break; // the while loop
+				}
+
+				isGood = m.test( packedCandidates, candidates, tempInliers, epsilon, minInlierRatio, minNumMatches, distances, inlierIndices );
+
+				if ( isGood && m.betterThan( best ) && tempInliers.size() >= minNumInliers )
+				{
+					best.set( m );
+					bestInliers.clear();
+					bestInliers.addAll( tempInliers );
+				}
+			}
+		}
+
+		if ( bestInliers.size() == 0 )
+			return null;
+
+		return new RansacHypothesis< M, P >( best, bestInliers );
+	}
+
+	/**
+	 * Estimate the number of RANSAC iterations required to draw at least one
+	 * outlier-free minimal sample with a given probability.
+	 * {@code
+	 * k = log(1 - confidence) / log(1 - inlierRatio^minNumMatches)
+	 * }
+	 *
+	 * @param inlierRatio ratio of inliers to candidates
+	 * @param minNumMatches size of the minimal sample
+	 * @param confidence desired probability (0.0, 1.0) to draw at least one
+	 *   outlier-free minimal sample
+	 *
+	 * @return number of iterations, {@link Integer#MAX_VALUE} if it cannot
+	 *   be estimated
+	 */
+	final static public int requiredRansacIterations(
+			final double inlierRatio,
+			final int minNumMatches,
+			final double confidence )
+	{
+		if ( inlierRatio >= 1.0 || confidence <= 0.0 )
+			return 1;
+		final double pGood = Math.pow( inlierRatio, minNumMatches );
+		if ( pGood <= 0.0 || confidence >= 1.0 )
+			return Integer.MAX_VALUE;
+		/* log1p keeps log( 1 - pGood ) from vanishing for tiny pGood */
+		final double k = Math.log1p( -confidence ) / Math.log1p( -pGood );
+		if ( !( k > 0 ) || Double.isInfinite( k ) || k >= Integer.MAX_VALUE )
+			return Integer.MAX_VALUE;
+		return Math.max( 1, ( int )Math.ceil( k ) );
+	}
+
+	/**
+	 * Refine a hypothesis that was fit to a minimal sample by iteratively
+	 * refitting it to its inliers until the number of inliers does not grow
+	 * anymore.  Every intermediate model that is better than best and has at
+	 * least minNumInliers inliers replaces best and its inliers.
+	 *
+	 * @return true if best was replaced
+	 */
+	private < P extends PointMatch > boolean refineHypothesis(
+			final M m,
+			final M best,
+			final List< P > candidates,
+			final ArrayList< P > tempInliers,
+			final Collection< P > inliers,
+			final double epsilon,
+			final double minInlierRatio,
+			final int minNumInliers )
+		throws NotEnoughDataPointsException
+	{
+		boolean isReplaced = false;
+		int numInliers = 0;
+		boolean isGood = m.test( candidates, tempInliers, epsilon, minInlierRatio );
+		while ( isGood && numInliers < tempInliers.size() )
+		{
+			numInliers = tempInliers.size();
+			try { m.fit( tempInliers ); }
+			catch ( final IllDefinedDataPointsException e )
+			{
+				break; // the while loop
+			}
+
+			isGood = m.test( candidates, tempInliers, epsilon, minInlierRatio );
+
+			if ( isGood && m.betterThan( best ) && tempInliers.size() >= minNumInliers )
+			{
+				best.set( m );
+				inliers.clear();
+				inliers.addAll( tempInliers );
+				isReplaced = true;
+			}
+		}
+		return isReplaced;
+	}
+
+	/**
+	 * Find the {@link AbstractModel} of a set of {@link PointMatch} candidates
+	 * containing a high number of outliers using
+	 * {@link #ransac(List, Collection, int, double, double, int) RANSAC}
+	 * \citet[{FischlerB81} with adaptive termination.
+	 * <p>
+	 * Each time a better model is found, the number of required iterations
+	 * is updated from its inlier ratio such that at least one outlier-free
+	 * minimal sample has been drawn with the given confidence
+	 * (see {@link #requiredRansacIterations(double, int, double)}).  RANSAC
+	 * stops as soon as this number of iterations is reached.  With a high
+	 * inlier ratio, this is much less than iterations.
+	 * </p>
+	 *
+	 * @param candidates candidate data points inluding (many) outliers
+	 * @param inliers remaining candidates after RANSAC
+	 * @param iterations maximal number of iterations
+	 * @param epsilon maximal allowed transfer error
+	 * @param minInlierRatio minimal number of inliers to number of
+	 *   candidates
+	 * @param minNumInliers minimally required absolute number of inliers
+	 * @param confidence probability to have drawn at least one outlier-free
+	 *   minimal sample, e.g. 0.999
+	 *
+	 * @return true if {@link AbstractModel} could be estimated and inliers is not
+	 *   empty, false otherwise.  If false, {@link AbstractModel} remains unchanged.
+	 */
+	final public < P extends PointMatch >boolean adaptiveRansac(
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int iterations,
+			final double epsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final double confidence )
+		throws NotEnoughDataPointsException
+	{
+		if ( candidates.size() < getMinNumMatches() )
+			throw new NotEnoughDataPointsException( candidates.size() + " data points are not enough to solve the Model, at least " + getMinNumMatches() + " data points required." );
+
+		cost = Double.MAX_VALUE;
+
+		final M copy = copy();
+		final M m = copy();
+
+		inliers.clear();
+
+		final HashSet< P > minMatches = new HashSet< P >();
+		final ArrayList< P > tempInliers = new ArrayList< P >();
+
+		int requiredIterations = iterations;
+		for ( int i = 0; i < requiredIterations; ++i )
+		{
+			// choose model.MIN_SET_SIZE disjunctive matches randomly
+			minMatches.clear();
+			for ( int j = 0; j < getMinNumMatches(); ++j )
+			{
+				P p;
+				do
+				{
+					p = candidates.get( ( int )( rnd.nextDouble() * candidates.size() ) );
+				}
+				while ( minMatches.contains( p ) );
+				minMatches.add( p );
+			}
+			try { m.fit( minMatches ); }
+			catch ( final IllDefinedDataPointsException e )
+			{ continue; }
+
+			if ( refineHypothesis( m, copy, candidates, tempInliers, inliers, epsilon, minInlierRatio, minNumInliers ) )
+				requiredIterations = Math.min(
+						iterations,
+						requiredRansacIterations(
+								( double )inliers.size() / ( double )candidates.size(),
+								getMinNumMatches(),
+								confidence ) );
+		}
+		if ( inliers.size() == 0 )
+			return false;
+
+		set( copy );
+		return true;
+	}
+
+	/**
+	 * Probability that an outlier supports a wrong model by chance.  Used by
+	 * {@link #prosac(List, Collection, int, double, double, int, double) PROSAC}
+	 * to reject subsets of candidates whose number of inliers could be
+	 * explained by chance.
+	 */
+	final static protected double PROSAC_BETA = 0.05;
+
+	/**
+	 * Minimal number of inliers in a subset of n candidates that is not
+	 * explained by outliers supporting a wrong model by chance with 95%
+	 * probability.  The binomial distribution of chance support is
+	 * approximated by a normal distribution.
+	 *
+	 * @param n size of the subset
+	 * @param minNumMatches size of the minimal sample
+	 */
+	final static protected int minNonRandomInliers( final int n, final int minNumMatches )
+	{
+		final int numOthers = n - minNumMatches;
+		final double mean = numOthers * PROSAC_BETA;
+		final double sigma = Math.sqrt( numOthers * PROSAC_BETA * ( 1.0 - PROSAC_BETA ) );
+		return minNumMatches + ( int )Math.ceil( mean + 1.645 * sigma );
+	}
+
+	/**
+	 * Find the {@link AbstractModel} of a set of {@link PointMatch} candidates
+	 * containing a high number of outliers using progressive sample consensus
+	 * (PROSAC) \cite{ChumM05}.
+	 * <p>
+	 * Candidates are expected to be ordered by decreasing quality, e.g. by
+	 * increasing ratio of best to second best descriptor distance as
+	 * generated by
+	 * {@link mpicbg.ij.FeatureTransform#matchFeaturesByQuality(Collection, Collection, List, float)}.
+	 * Early hypotheses are drawn from the best candidates only, the sampled
+	 * subset then grows following the PROSAC growth function until, after
+	 * iterations hypotheses, samples are drawn uniformly like in
+	 * {@link #ransac(List, Collection, int, double, double, int) RANSAC}.
+	 * Sampling stops as soon as, for any subset of the best n candidates,
+	 * the number of samples drawn from this subset reaches the number of
+	 * iterations required for the given confidence at the inlier ratio of
+	 * this subset (see {@link #requiredRansacIterations(double, int, double)}).
+	 * Only subsets whose number of inliers is unlikely to be caused by
+	 * outliers that support the model by chance are considered (see
+	 * {@link #PROSAC_BETA}).
+	 * </p>
+	 * <pre>
+	 * &#64;inproceedings{ChumM05,
+	 *   author    = {Ond{\v{r}}ej Chum and Ji{\v{r}}{\'\i} Matas},
+	 *   title     = {Matching with {PROSAC} -- Progressive Sample Consensus},
+	 *   booktitle = {IEEE Conference on Computer Vision and Pattern Recognition},
+	 *   volume    = {1},
+	 *   year      = {2005},
+	 *   pages     = {220--226},
+	 * }
+	 * </pre>
+	 *
+	 * @param candidates candidate data points inluding (many) outliers,
+	 *   ordered by decreasing quality
+	 * @param inliers remaining candidates after PROSAC
+	 * @param iterations maximal number of iterations
+	 * @param epsilon maximal allowed transfer error
+	 * @param minInlierRatio minimal number of inliers to number of
+	 *   candidates
+	 * @param minNumInliers minimally required absolute number of inliers
+	 * @param confidence probability to have drawn at least one outlier-free
+	 *   minimal sample, e.g. 0.999
+	 *
+	 * @return true if {@link AbstractModel} could be estimated and inliers is not
+	 *   empty, false otherwise.  If false, {@link AbstractModel} remains unchanged.
+	 */
+	final public < P extends PointMatch >boolean prosac(
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int iterations,
+			final double epsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final double confidence )
+		throws NotEnoughDataPointsException
+	{
+		final int minNumMatches = getMinNumMatches();
+		final int numCandidates = candidates.size();
+
+		if ( numCandidates < minNumMatches )
+			throw new NotEnoughDataPointsException( numCandidates + " data points are not enough to solve the Model, at least " + minNumMatches + " data points required." );
+
+		cost = Double.MAX_VALUE;
+
+		final M copy = copy();
+		final M m = copy();
+
+		inliers.clear();
+
+		if ( numCandidates == 0 )
+			return false;
+
+		final ArrayList< P > minMatches = new ArrayList< P >( minNumMatches );
+		final ArrayList< P > tempInliers = new ArrayList< P >();
+		final int[] sample = new int[ minNumMatches ];
+		final double[] location = new double[ candidates.get( 0 ).getP1().getL().length ];
+
+		/* size of the sampled subset of the best candidates */
+		int n = minNumMatches;
+
+		/* growth[ i ] is the first iteration that sampled from the best i candidates */
+		final int[] growth = new int[ numCandidates + 2 ];
+		growth[ n ] = 1;
+
+		/* expected number of samples drawn from the first n candidates among iterations samples */
+		double tn = iterations;
+		for ( int i = 0; i < minNumMatches; ++i )
+			tn *= ( double )( minNumMatches - i ) / ( double )( numCandidates - i );
+
+		/* iteration at which the subset grows */
+		int tnPrime = 1;
+
+		/* termination: kStar samples from the best nStar candidates */
+		int nStar = numCandidates;
+		int kStar = iterations;
+
+		for ( int t = 1; t <= iterations; ++t )
+		{
+			final int numSamplesFromNStar = n > nStar ? growth[ nStar + 1 ] - 1 : t - 1;
+			if ( numSamplesFromNStar >= kStar )
+				break;
+
+			while ( t == tnPrime && n < numCandidates )
+			{
+				final double tn1 = tn * ( n + 1 ) / ( n + 1 - minNumMatches );
+				tnPrime += ( int )Math.ceil( tn1 - tn );
+				tn = tn1;
+				++n;
+				growth[ n ] = t;
+			}
+
+			/* after the growth function passed, sample uniformly from the first n, otherwise always include the n-th */
+			final int numDrawn;
+			final int drawFrom;
+			if ( tnPrime < t || minNumMatches == 0 )
+			{
+				numDrawn = minNumMatches;
+				drawFrom = n;
+			}
+			else
+			{
+				numDrawn = minNumMatches - 1;
+				drawFrom = n - 1;
+				sample[ numDrawn ] = n - 1;
+			}
+
+			minMatches.clear();
+			for ( int j = 0; j < numDrawn; ++j )
+			{
+				int k;
+				boolean isDrawn;
+				do
+				{
+					k = ( int )( rnd.nextDouble() * drawFrom );
+					isDrawn = false;
+					for ( int l = 0; l < j && !isDrawn; ++l )
+						isDrawn = sample[ l ] == k;
+				}
+				while ( isDrawn );
+				sample[ j ] = k;
+			}
+			for ( int j = 0; j < minNumMatches; ++j )
+				minMatches.add( candidates.get( sample[ j ] ) );
+
+			try { m.fit( minMatches ); }
+			catch ( final IllDefinedDataPointsException e )
+			{ continue; }
+
+			if ( refineHypothesis( m, copy, candidates, tempInliers, inliers, epsilon, minInlierRatio, minNumInliers ) )
+			{
+				/* find the subset of best candidates that requires the least samples */
+				nStar = numCandidates;
+				kStar = iterations;
+				int numInliersInSubset = 0;
+				for ( int i = 0; i < numCandidates; ++i )
+				{
+					final P candidate = candidates.get( i );
+					final double[] l = candidate.getP1().getL();
+					final double[] w = candidate.getP2().getW();
+					System.arraycopy( l, 0, location, 0, l.length );
+					copy.applyInPlace( location );
+					double sum = 0.0;
+					for ( int d = 0; d < location.length; ++d )
+					{
+						final double dd = location[ d ] - w[ d ];
+						sum += dd * dd;
+					}
+					if ( Math.sqrt( sum ) < epsilon )
+						++numInliersInSubset;
+
+					final int subsetSize = i + 1;
+					if (
+							subsetSize >= minNumMatches &&
+							numInliersInSubset >= minNumInliers &&
+							numInliersInSubset >= minNonRandomInliers( subsetSize, minNumMatches ) )
+					{
+						final int k = requiredRansacIterations(
+								( double )numInliersInSubset / ( double )subsetSize,
+								minNumMatches,
+								confidence );
+						if ( k < kStar )
+						{
+							kStar = k;
+							nStar = subsetSize;
+						}
+					}
+				}
+			}
+		}
+		if ( inliers.size() == 0 )
+			return false;
+
+		set( copy );
+		return true;
+	}
+
+	/**
+	 * Estimate a {@link AbstractModel} from a set with many outliers by first
+	 * filtering the worst outliers with {@link #ransac RANSAC}
+	 * \citet[{FischlerB81} and filter potential outliers by robust iterative
+	 * regression.
+	 *
+	 * @param candidates candidate data points inluding (many) outliers
+	 * @param inliers remaining candidates after RANSAC
+	 * @param iterations number of iterations
+	 * @param maxEpsilon maximal allowed transfer error
+	 * @param minInlierRatio minimal number of inliers to number of
+	 *   candidates
+	 * @param minNumInliers minimally required absolute number of inliers
+	 * @param maxTrust reject candidates with a cost larger than
+	 *   maxTrust * median cost
+	 *
+	 * @return true if {@link AbstractModel} could be estimated and inliers is not
+	 *   empty, false otherwise.  If false, {@link AbstractModel} remains unchanged.
+	 */
+	@Override
+	final public < P extends PointMatch >boolean filterRansac(
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int iterations,
+			final double maxEpsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final double maxTrust )
+		throws NotEnoughDataPointsException
+	{
+		final ArrayList< P > temp = new ArrayList< P >();
+		if (
+				ransac(
+						candidates,
+						temp,
+						iterations,
+						maxEpsilon,
+						minInlierRatio,
+						minNumInliers ) &&
+				filter( temp, inliers, maxTrust, minNumInliers ) )
+			return true;
+		return false;
+	}
+
+	/**
+	 * Estimate a {@link AbstractModel} from a set with many outliers by first
+	 * filtering the worst outliers with
+	 * {@link #adaptiveRansac(List, Collection, int, double, double, int, double) adaptive RANSAC}
+	 * and filter potential outliers by robust iterative regression.
+	 *
+	 * @param candidates candidate data points inluding (many) outliers
+	 * @param inliers remaining candidates after RANSAC
+	 * @param iterations maximal number of iterations
+	 * @param maxEpsilon maximal allowed transfer error
+	 * @param minInlierRatio minimal number of inliers to number of
+	 *   candidates
+	 * @param minNumInliers minimally required absolute number of inliers
+	 * @param maxTrust reject candidates with a cost larger than
+	 *   maxTrust * median cost
+	 * @param confidence probability to have drawn at least one outlier-free
+	 *   minimal sample, e.g. 0.999
+	 *
+	 * @return true if {@link AbstractModel} could be estimated and inliers is not
+	 *   empty, false otherwise.  If false, {@link AbstractModel} remains unchanged.
+	 */
+	final public < P extends PointMatch >boolean adaptiveFilterRansac(
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int iterations,
+			final double maxEpsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final double maxTrust,
+			final double confidence )
+		throws NotEnoughDataPointsException
+	{
+		final ArrayList< P > temp = new ArrayList< P >();
+		if (
+				adaptiveRansac(
+						candidates,
+						temp,
+						iterations,
+						maxEpsilon,
+						minInlierRatio,
+						minNumInliers,
+						confidence ) &&
+				filter( temp, inliers, maxTrust, minNumInliers ) )
+			return true;
+		return false;
+	}
+
+	/**
+	 * Estimate a {@link AbstractModel} from a set with many outliers that is
+	 * ordered by decreasing quality by first filtering the worst outliers
+	 * with
+	 * {@link #prosac(List, Collection, int, double, double, int, double) PROSAC}
+	 * and filter potential outliers by robust iterative regression.
+	 *
+	 * @param candidates candidate data points inluding (many) outliers,
+	 *   ordered by decreasing quality
+	 * @param inliers remaining candidates after PROSAC
+	 * @param iterations maximal number of iterations
+	 * @param maxEpsilon maximal allowed transfer error
+	 * @param minInlierRatio minimal number of inliers to number of
+	 *   candidates
+	 * @param minNumInliers minimally required absolute number of inliers
+	 * @param maxTrust reject candidates with a cost larger than
+	 *   maxTrust * median cost
+	 * @param confidence probability to have drawn at least one outlier-free
+	 *   minimal sample, e.g. 0.999
+	 *
+	 * @return true if {@link AbstractModel} could be estimated and inliers is not
+	 *   empty, false otherwise.  If false, {@link AbstractModel} remains unchanged.
+	 */
+	final public < P extends PointMatch >boolean filterProsac(
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int iterations,
+			final double maxEpsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final double maxTrust,
+			final double confidence )
+		throws NotEnoughDataPointsException
+	{
+		final ArrayList< P > temp = new ArrayList< P >();
+		if (
+				prosac(
+						candidates,
+						temp,
+						iterations,
+						maxEpsilon,
+						minInlierRatio,
+						minNumInliers,
+						confidence ) &&
+				filter( temp, inliers, maxTrust, minNumInliers ) )
+			return true;
+		return false;
+	}
+
+	/**
+	 * Call {@link #filterRansac(List, Collection, int, double, double, int, double)}
+	 * with maxTrust = 4.
+	 */
+	@Override
+	final public < P extends PointMatch >boolean filterRansac(
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int iterations,
+			final double maxEpsilon,
+			final double minInlierRatio,
+			final int minNumInliers )
+		throws NotEnoughDataPointsException
+	{
+		return filterRansac( candidates, inliers, iterations, maxEpsilon, minInlierRatio, minNumInliers, 4f );
+	}
+
+
+	/**
+	 * Call {@link #filterRansac(List, Collection, int, double, double, int, double)}
+	 * with minNumInliers = {@link #getMinNumMatches()}.
+	 */
+	@Override
+	final public < P extends PointMatch >boolean filterRansac(
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int iterations,
+			final double maxEpsilon,
+			final double minInlierRatio,
+			final double maxTrust )
+		throws NotEnoughDataPointsException
+	{
+		return filterRansac( candidates, inliers, iterations, maxEpsilon, minInlierRatio, getMinNumMatches(), maxTrust );
+	}
+
+
+	/**
+	 * Call {@link #filterRansac(List, Collection, int, double, double, double)}
+	 * with maxTrust = 4.
+	 */
+	@Override
+	final public < P extends PointMatch >boolean filterRansac(
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int iterations,
+			final double maxEpsilon,
+			final double minInlierRatio )
+		throws NotEnoughDataPointsException
+	{
+		return filterRansac( candidates, inliers, iterations, maxEpsilon, minInlierRatio, 4f );
+	}
+
+
+	/**
+	 * Estimate the best model in terms of the Iterative Closest Point
+	 * Algorithm \cite{Zhang94} for matching two point clouds into each other.
+	 * {@code
+	 * p -> q
+	 * }
+	 *
+	 * @param p source
+	 * @param q target
+	 *
+	 * @return the list of matches
+	 *
+	 * TODO Test---at least once!
+	 */
+	@Override
+	final public Collection< PointMatch > icp(
+			final List< Point > p,
+			final List< Point > q )
+	{
+		final M m = copy();
+		final List< PointMatch > currentMatches = new ArrayList< PointMatch >();
+		final List< PointMatch > previousMatches = new ArrayList< PointMatch >();
+
+		/* pack target world coordinates for a cache friendly search */
+		final int numQ = q.size();
+		final int n = numQ == 0 ? 0 : q.get( 0 ).getW().length;
+		final double[][] qw = new double[ n ][ numQ ];
+		for ( int j = 0; j < numQ; ++j )
+		{
+			final double[] w = q.get( j ).getW();
+			for ( int d = 0; d < n; ++d )
+				qw[ d ][ j ] = w[ d ];
+		}
+
+		do
+		{
+			previousMatches.clear();
+			previousMatches.addAll( currentMatches );
+			currentMatches.clear();
+
+			/* Match by Euclidean distance in space */
+			for ( final Point pi : p )
+			{
+				final double[] w = pi.getW();
+				double minimalDistance = Double.MAX_VALUE;
+				int closestPoint = -1;
+				for ( int j = 0; j < numQ; ++j )
+				{
+					double d = 0;
+					for ( int k = 0; k < n; ++k )
+					{
+						final double dk = w[ k ] - qw[ k ][ j ];
+						d += dk * dk;
+					}
+					if ( d < minimalDistance )
+					{
+						minimalDistance = d;
+						closestPoint = j;
+					}
+				}
+				currentMatches.add( new PointMatch( pi, closestPoint < 0 ? null : q.get( closestPoint ) ) );
+			}
+			try
+			{
+				m.fit( currentMatches );
+			}
+			catch ( final Exception e )
+			{
+				e.printStackTrace();
+				return null;
+			}
+		}
+		while ( currentMatches.equals( previousMatches ) );
+		this.set( m );
+		return currentMatches;
+	}
+
+	/**
+	 * Estimate the best model in terms of the Iterative Closest Point
+	 * Algorithm \cite{Zhang94} for matching two point clouds into each other
+	 * with optional trimming \cite{ChetverikovSSK02}.
+	 * <pre>{@code
+	 * p -> q
+	 * }</pre>
+	 * <p>
+	 * Starting with the current parameters of this model, the local
+	 * coordinates of all points in p are transferred and matched with their
+	 * nearest neighbor in the world coordinates of q.  Only the fraction
+	 * overlap of matches with the smallest distances is used to fit the
+	 * model.  This is repeated until the matches do not change anymore or
+	 * maxIterations is reached.  Nearest neighbors are found with a
+	 * {@link KDTree} over q that is built once.  With an
+	 * {@link ExecutorService}, the nearest neighbor queries are split into
+	 * ranges of p that are evaluated concurrently, each with its own copy of
+	 * the model.  Neither p nor q are modified.
+	 * </p>
+	 * <pre>
+	 * &#64;inproceedings{ChetverikovSSK02,
+	 *   author    = {Dmitry Chetverikov and Dmitry Svirko and Dmitry Stepanov and Pavel Krsek},
+	 *   title     = {The Trimmed Iterative Closest Point Algorithm},
+	 *   booktitle = {International Conference on Pattern Recognition},
+	 *   volume    = {3},
+	 *   year      = {2002},
+	 *   pages     = {545--548},
+	 * }
+	 * </pre>
+	 *
+	 * @param p source
+	 * @param q target
+	 * @param maxIterations maximal number of iterations
+	 * @param overlap fraction (0.0, 1.0] of matches that are used for the
+	 *   fit, 1.0 means no trimming
+	 * @param executor evaluates the nearest neighbor queries, if null, all
+	 *   queries are evaluated in the calling thread
+	 *
+	 * @return the list of matches used for the final fit or null if the
+	 *   model could not be estimated
+	 */
+	final public List< PointMatch > icp(
+			final List< Point > p,
+			final List< Point > q,
+			final int maxIterations,
+			final double overlap,
+			final ExecutorService executor )
+	{
+		final int numP = p.size();
+		final int numQ = q.size();
+		if ( numP == 0 || numQ == 0 )
+			return null;
+
+		final int n = q.get( 0 ).getW().length;
+
+		final double[][] pl = new double[ n ][ numP ];
+		for ( int i = 0; i < numP; ++i )
+		{
+			final double[] l = p.get( i ).getL();
+			for ( int d = 0; d < n; ++d )
+				pl[ d ][ i ] = l[ d ];
+		}
+		final double[][] qw = new double[ n ][ numQ ];
+		for ( int j = 0; j < numQ; ++j )
+		{
+			final double[] w = q.get( j ).getW();
+			for ( int d = 0; d < n; ++d )
+				qw[ d ][ j ] = w[ d ];
+		}
+		final KDTree tree = new KDTree( qw );
+
+		final M m = copy();
+		int[] correspondences = new int[ numP ];
+		int[] previousCorrespondences = new int[ numP ];
+		Arrays.fill( correspondences, -1 );
+		final double[] distances = new double[ numP ];
+		final double[] sortedDistances = new double[ numP ];
+		final int numKept = Math.max( 1, Math.min( numP, ( int )Math.ceil( overlap * numP ) ) );
+
+		final ArrayList< PointMatch > matches = new ArrayList< PointMatch >( numKept );
+		int i = 0;
+		boolean hasChanged = true;
+		while ( hasChanged && i++ < maxIterations )
+		{
+			final int[] swap = previousCorrespondences;
+			previousCorrespondences = correspondences;
+			correspondences = swap;
+
+			/* Match by Euclidean distance in space */
+			if ( executor == null )
+				icpRange( m, pl, qw, tree, 0, numP, correspondences, distances );
+			else
+			{
+				final int numTasks = Math.min( numP, Runtime.getRuntime().availableProcessors() * 4 );
+				final int rangeSize = numP / numTasks + ( numP % numTasks == 0 ? 0 : 1 );
+				final ArrayList< Future< Void > > tasks = new ArrayList< Future< Void > >( numTasks );
+				final int[] c = correspondences;
+				for ( int j = 0; j < numTasks; ++j )
+				{
+					final int start = j * rangeSize;
+					final int end = Math.min( ( j + 1 ) * rangeSize, numP );
+					final M mj = m.copy();
+					tasks.add( executor.submit( () -> icpRange( mj, pl, qw, tree, start, end, c, distances ) ) );
+				}
+				for ( final Future< Void > task : tasks )
+				{
+					try
+					{
+						task.get();
+					}
+					catch ( final InterruptedException | ExecutionException e )
+					{
+						throw new RuntimeException( e );
+					}
+				}
+			}
+
+			hasChanged = !Arrays.equals( correspondences, previousCorrespondences );
+
+			/* trim to exactly numKept matches, ties with the largest kept distance are kept in index order */
+			matches.clear();
+			if ( numKept < numP )
+			{
+				System.arraycopy( distances, 0, sortedDistances, 0, numP );
+				Arrays.sort( sortedDistances );
+				final double maxDistance = sortedDistances[ numKept - 1 ];
+				int numLess = numKept - 1;
+				while ( numLess > 0 && sortedDistances[ numLess - 1 ] == maxDistance )
+					--numLess;
+				int numTies = numKept - numLess;
+				for ( int k = 0; k < numP; ++k )
+				{
+					if ( distances[ k ] < maxDistance || ( distances[ k ] == maxDistance && numTies-- > 0 ) )
+						matches.add( new PointMatch( p.get( k ), q.get( correspondences[ k ] ) ) );
+				}
+			}
+			else
+			{
+				for ( int k = 0; k < numP; ++k )
+					matches.add( new PointMatch( p.get( k ), q.get( correspondences[ k ] ) ) );
+			}
+
+			try
+			{
+				m.fit( matches );
+			}
+			catch ( final NotEnoughDataPointsException | IllDefinedDataPointsException e )
+			{
+				return null;
+			}
+		}
+		set( m );
+		return matches;
+	}
+
+	/**
+	 * Match the points [start, end) of an
+	 * {@link #icp(List, List, int, double, ExecutorService) ICP} iteration
+	 * with their nearest neighbors.
+	 */
+	private static Void icpRange(
+			final CoordinateTransform t,
+			final double[][] pl,
+			final double[][] qw,
+			final KDTree tree,
+			final int start,
+			final int end,
+			final int[] correspondences,
+			final double[] distances )
+	{
+		final int n = pl.length;
+		final double[] location = new double[ n ];
+		for ( int i = start; i < end; ++i )
+		{
+			for ( int d = 0; d < n; ++d )
+				location[ d ] = pl[ d ][ i ];
+			t.applyInPlace( location );
+			final int j = tree.nearestNeighbor( location );
+			correspondences[ i ] = j;
+			double sum = 0;
+			for ( int d = 0; d < n; ++d )
+			{
+				final double dd = location[ d ] - qw[ d ][ j ];
+				sum += dd * dd;
+			}
+			distances[ i ] = Math.sqrt( sum );
+		}
+		return null;
+	}
+
+	/**
+	 * Default fit implementation using {@link #fit(Collection)}.  This foils
+	 * the intention that {@link #fit(float[][], float[][], float[])} would be
+	 * potentially more efficient.  You should better implement it directly.
+	 */
+	@Override
+	public void fit(
+			final float[][] p,
+			final float[][] q,
+			final float[] w )
+		throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		assert
+			p.length > 0 &&
+			q.length == p.length : "Numbers of dimensions do not match.";
+
+		assert
+			p[ 0 ].length == p[ 1 ].length &&
+			p[ 0 ].length == q[ 0 ].length &&
+			p[ 0 ].length == q[ 1 ].length &&
+			p[ 0 ].length == w.length : "Array lengths do not match.";
+
+		final int n = p.length;
+		final int l = p[ 0 ].length;
+
+		final ArrayList< PointMatch > matches = new ArrayList< PointMatch >( l );
+		for ( int i = 0; i < l; ++i )
+		{
+			final double[] pi = new double[ n ];
+			final double[] qi = new double[ n ];
+			for ( int d = 0; d < n; ++d )
+			{
+				pi[ d ] = p[ d ][ i ];
+				qi[ d ] = q[ d ][ i ];
 			}
 
 			matches.add(
@@ -757,4 +1816,291 @@ public abstract class AbstractModel< M extends AbstractModel< M > > implements M
 
 		return inliers.size() >= getMinNumMatches();
 	}
+	/**
+	 * <p>Spatially indexed and concurrent version of
+	 * {@link #localSmoothnessFilter(Collection, Collection, double, double, double)}.</p>
+	 *
+	 * <p>Each candidate is tested against a locally weighted
+	 * {@link #filter(Collection, Collection, double) robust fit} to the
+	 * current inliers.  Other than the default implementation, only inliers
+	 * within the distance at which their Gaussian weight drops below
+	 * {@link #MIN_LOCAL_SMOOTHNESS_WEIGHT} are considered.  They are found
+	 * through a {@link KDTree} over the local coordinates of all inliers.
+	 * The robust fit is therefore also trimmed by the median transfer error
+	 * of the local neighborhood only.  A candidate whose local model cannot
+	 * be estimated, e.g. because it has not enough neighbors, is rejected.</p>
+	 *
+	 * <p>All candidates of one pass are tested independently, each thread with
+	 * its own copy of this model and its own weight buffers.  Neither the
+	 * weights nor the world coordinates of the candidates are modified.  This
+	 * model is not modified either.</p>
+	 *
+	 * @param candidates
+	 * @param inliers may be candidates
+	 * @param sigma
+	 * @param maxEpsilon
+	 * @param maxTrust
+	 * @param executor tests the candidates of each pass, if null, all
+	 *   candidates are tested in the calling thread
+	 *
+	 * @return true if at least {@link #getMinNumMatches()} inliers remain
+	 */
+	final public < P extends PointMatch > boolean localSmoothnessFilter(
+			final Collection< P > candidates,
+			final Collection< P > inliers,
+			final double sigma,
+			final double maxEpsilon,
+			final double maxTrust,
+			final ExecutorService executor )
+	{
+		final double var2 = 2 * sigma * sigma;
+		final double radius = Math.sqrt( -Math.log( MIN_LOCAL_SMOOTHNESS_WEIGHT ) * var2 );
+
+		ArrayList< P > currentInliers = new ArrayList< P >( candidates );
+
+		boolean hasChanged;
+		do
+		{
+			hasChanged = false;
+
+			final int n = currentInliers.size();
+			if ( n == 0 )
+				break;
+
+			final PackedPointMatches packedInliers = new PackedPointMatches( currentInliers );
+			final KDTree tree = new KDTree( packedInliers.getP() );
+			final boolean[] isRejected = new boolean[ n ];
+
+			if ( executor == null )
+				localSmoothnessFilterRange( packedInliers, tree, 0, n, radius, var2, maxEpsilon, maxTrust, isRejected );
+			else
+			{
+				final int numTasks = Math.min( n, Runtime.getRuntime().availableProcessors() * 4 );
+				final int rangeSize = n / numTasks + ( n % numTasks == 0 ? 0 : 1 );
+				final ArrayList< Future< Void > > tasks = new ArrayList< Future< Void > >( numTasks );
+				for ( int j = 0; j < numTasks; ++j )
+				{
+					final int start = j * rangeSize;
+					final int end = Math.min( ( j + 1 ) * rangeSize, n );
+					tasks.add( executor.submit( () -> localSmoothnessFilterRange( packedInliers, tree, start, end, radius, var2, maxEpsilon, maxTrust, isRejected ) ) );
+				}
+				for ( final Future< Void > task : tasks )
+				{
+					try
+					{
+						task.get();
+					}
+					catch ( final InterruptedException | ExecutionException e )
+					{
+						throw new RuntimeException( e );
+					}
+				}
+			}
+
+			final ArrayList< P > remainingInliers = new ArrayList< P >( n );
+			for ( int i = 0; i < n; ++i )
+			{
+				if ( isRejected[ i ] )
+					hasChanged = true;
+				else
+					remainingInliers.add( currentInliers.get( i ) );
+			}
+			currentInliers = remainingInliers;
+		}
+		while ( hasChanged );
+
+		inliers.clear();
+		inliers.addAll( currentInliers );
+
+		return inliers.size() >= getMinNumMatches();
+	}
+
+	/**
+	 * Test the candidates [start, end) of one pass of
+	 * {@link #localSmoothnessFilter(Collection, Collection, double, double, double, ExecutorService)}
+	 * with a private copy of this model and private buffers.
+	 */
+	private Void localSmoothnessFilterRange(
+			final PackedPointMatches packedInliers,
+			final KDTree tree,
+			final int start,
+			final int end,
+			final double radius,
+			final double var2,
+			final double maxEpsilon,
+			final double maxTrust,
+			final boolean[] isRejected )
+	{
+		final M model = copy();
+
+		final int n = packedInliers.size();
+		final int numDimensions = packedInliers.numDimensions();
+		final double[][] p = packedInliers.getP();
+		final double[][] q = packedInliers.getQ();
+		final double[] w = packedInliers.getW();
+
+		final int[] neighbors = new int[ n ];
+		final double[][] localP = new double[ numDimensions ][ n ];
+		final double[][] localQ = new double[ numDimensions ][ n ];
+		final double[] localW = new double[ n ];
+		final double[][] filterP = new double[ numDimensions ][ n ];
+		final double[][] filterQ = new double[ numDimensions ][ n ];
+		final double[] filterW = new double[ n ];
+		final double[] distances = new double[ n ];
+		final double[] location = new double[ numDimensions ];
+
+		for ( int c = start; c < end; ++c )
+		{
+			for ( int d = 0; d < numDimensions; ++d )
+				location[ d ] = p[ d ][ c ];
+
+			/* calculate weights by square distance to reference in local space */
+			final int numNeighbors = tree.radiusSearch( location, radius, neighbors );
+			int numLocal = 0;
+			for ( int i = 0; i < numNeighbors; ++i )
+			{
+				final int j = neighbors[ i ];
+				if ( j == c )
+					continue;
+
+				double squareDistance = 0;
+				for ( int d = 0; d < numDimensions; ++d )
+				{
+					final double dd = p[ d ][ j ] - location[ d ];
+					squareDistance += dd * dd;
+					localP[ d ][ numLocal ] = p[ d ][ j ];
+					localQ[ d ][ numLocal ] = q[ d ][ j ];
+				}
+				localW[ numLocal ] = Math.exp( -squareDistance / var2 ) * w[ j ];
+				++numLocal;
+			}
+
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				System.arraycopy( localP[ d ], 0, filterP[ d ], 0, numLocal );
+				System.arraycopy( localQ[ d ], 0, filterQ[ d ], 0, numLocal );
+			}
+			System.arraycopy( localW, 0, filterW, 0, numLocal );
+
+			if ( filter( model, filterP, filterQ, filterW, numLocal, maxTrust, getMinNumMatches(), distances ) < 0 )
+			{
+				isRejected[ c ] = true;
+				continue;
+			}
+
+			model.applyInPlace( location );
+			double candidateSquareDistance = 0;
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				final double dd = location[ d ] - q[ d ][ c ];
+				candidateSquareDistance += dd * dd;
+			}
+			final double candidateDistance = Math.sqrt( candidateSquareDistance );
+
+			if ( candidateDistance <= maxEpsilon )
+			{
+				/* weighed mean Euclidean distances */
+				double meanDistance = 0, ws = 0;
+				for ( int i = 0; i < numLocal; ++i )
+				{
+					for ( int d = 0; d < numDimensions; ++d )
+						location[ d ] = localP[ d ][ i ];
+					model.applyInPlace( location );
+					double squareDistance = 0;
+					for ( int d = 0; d < numDimensions; ++d )
+					{
+						final double dd = location[ d ] - localQ[ d ][ i ];
+						squareDistance += dd * dd;
+					}
+					ws += localW[ i ];
+					meanDistance += Math.sqrt( squareDistance ) * localW[ i ];
+				}
+				meanDistance /= ws;
+
+				if ( candidateDistance > maxTrust * meanDistance )
+					isRejected[ c ] = true;
+			}
+			else
+				isRejected[ c ] = true;
+		}
+		return null;
+	}
+
+	/**
+	 * Robust iterative regression like
+	 * {@link #filter(Collection, Collection, double, int)} on the first n
+	 * elements of packed arrays that are compacted in place to the inliers.
+	 * No {@link PointMatch} is modified.
+	 *
+	 * @return number of inliers or -1 if the model could not be estimated
+	 */
+	private static int filter(
+			final Model< ? > model,
+			final double[][] p,
+			final double[][] q,
+			final double[] w,
+			int n,
+			final double maxTrust,
+			final int minNumInliers,
+			final double[] distances )
+	{
+		final int numDimensions = p.length;
+		int numTemp;
+		do
+		{
+			numTemp = n;
+
+			/* fit( double[][], double[][], double[] ) expects arrays of exactly n elements */
+			final double[][] fitP = new double[ numDimensions ][ n ];
+			final double[][] fitQ = new double[ numDimensions ][ n ];
+			final double[] fitW = new double[ n ];
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				System.arraycopy( p[ d ], 0, fitP[ d ], 0, n );
+				System.arraycopy( q[ d ], 0, fitQ[ d ], 0, n );
+			}
+			System.arraycopy( w, 0, fitW, 0, n );
+			final PackedPointMatches packed = new PackedPointMatches( fitP, fitQ, fitW );
+
+			try
+			{
+				packed.fit( model );
+			}
+			catch ( final NotEnoughDataPointsException | IllDefinedDataPointsException e )
+			{
+				return -1;
+			}
+
+			packed.distances( model, distances );
+			final double[] sortedDistances = Arrays.copyOf( distances, n );
+			Arrays.sort( sortedDistances );
+			final double median;
+			if ( n % 2 == 0 )
+				median = ( sortedDistances[ n / 2 - 1 ] + sortedDistances[ n / 2 ] ) / 2.0;
+			else
+				median = sortedDistances[ n / 2 ];
+
+			final double t = median * maxTrust;
+			n = 0;
+			for ( int i = 0; i < numTemp; ++i )
+			{
+				if ( distances[ i ] <= t )
+				{
+					for ( int d = 0; d < numDimensions; ++d )
+					{
+						p[ d ][ n ] = p[ d ][ i ];
+						q[ d ][ n ] = q[ d ][ i ];
+					}
+					w[ n ] = w[ i ];
+					++n;
+				}
+			}
+		}
+		while ( numTemp > n );
+
+		if ( numTemp < minNumInliers )
+			return -1;
+
+		return n;
+	}
 };
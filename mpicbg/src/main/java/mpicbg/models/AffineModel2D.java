@@ -63,7 +63,7 @@ import java.util.Collection;
  *
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
  */
-public class AffineModel2D extends AbstractAffineModel2D< AffineModel2D >
+public class AffineModel2D extends AbstractAffineModel2D< AffineModel2D > implements StatisticsModel< PointMatchMoments2D >
 {
 	private static final long serialVersionUID = 2323673888015396528L;
 
@@ -434,6 +434,61 @@ public class AffineModel2D extends AbstractAffineModel2D< AffineModel2D >
 		invert();
 	}
 
+	@Override
+	public PointMatchMoments2D createStatistics()
+	{
+		return new PointMatchMoments2D();
+	}
+
+	/**
+	 * Closed form weighted least squares solution as described by
+	 * \citet{SchaeferAl06} from accumulated
+	 * {@link PointMatchMoments2D moments}.
+	 *
+	 * @param moments
+	 * @throws NotEnoughDataPointsException
+	 * @throws IllDefinedDataPointsException
+	 */
+	@Override
+	final public void fit( final PointMatchMoments2D moments )
+		throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		if ( moments.n < MIN_NUM_MATCHES )
+			throw new NotEnoughDataPointsException( moments.n + " data points are not enough to estimate a 2d affine model, at least " + MIN_NUM_MATCHES + " data points required." );
+
+		final double ws = moments.ws;
+
+		/* centers of mass relative to the local origin */
+		final double dpcx = moments.spx / ws, dpcy = moments.spy / ws;
+		final double dqcx = moments.sqx / ws, dqcy = moments.sqy / ws;
+
+		final double a00 = moments.spxpx - moments.spx * dpcx;
+		final double a01 = moments.spxpy - moments.spx * dpcy;
+		final double a11 = moments.spypy - moments.spy * dpcy;
+		final double b00 = moments.spxqx - moments.spx * dqcx;
+		final double b01 = moments.spxqy - moments.spx * dqcy;
+		final double b10 = moments.spyqx - moments.spy * dqcx;
+		final double b11 = moments.spyqy - moments.spy * dqcy;
+
+		final double det = a00 * a11 - a01 * a01;
+
+		if ( det == 0 )
+			throw new IllDefinedDataPointsException();
+
+		m00 = ( a11 * b00 - a01 * b10 ) / det;
+		m01 = ( a00 * b10 - a01 * b00 ) / det;
+		m10 = ( a11 * b01 - a01 * b11 ) / det;
+		m11 = ( a00 * b11 - a01 * b01 ) / det;
+
+		final double pcx = moments.opx + dpcx, pcy = moments.opy + dpcy;
+		final double qcx = moments.oqx + dqcx, qcy = moments.oqy + dqcy;
+
+		m02 = qcx - m00 * pcx - m01 * pcy;
+		m12 = qcy - m10 * pcx - m11 * pcy;
+
+		invert();
+	}
+
 	@Override
 	public AffineModel2D copy()
 	{
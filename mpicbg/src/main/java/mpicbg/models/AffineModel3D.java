@@ -65,7 +65,7 @@ import mpicbg.util.Matrix3x3;
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt; and Johannes Schindelin
  *
  */
-public class AffineModel3D extends AbstractAffineModel3D< AffineModel3D > implements InvertibleBoundable
+public class AffineModel3D extends AbstractAffineModel3D< AffineModel3D > implements InvertibleBoundable, StatisticsModel< PointMatchMoments3D >
 {
 	private static final long serialVersionUID = 4591403097787254013L;
 
@@ -628,6 +628,94 @@ public class AffineModel3D extends AbstractAffineModel3D< AffineModel3D > implem
 		invert();
 	}
 
+	@Override
+	public PointMatchMoments3D createStatistics()
+	{
+		return new PointMatchMoments3D();
+	}
+
+	/**
+	 * Closed form weighted least squares solution as described by
+	 * \citet{SchaeferAl06} from accumulated
+	 * {@link PointMatchMoments3D moments}.
+	 *
+	 * @param moments
+	 * @throws NotEnoughDataPointsException
+	 * @throws IllDefinedDataPointsException
+	 */
+	@Override
+	final public void fit( final PointMatchMoments3D moments )
+		throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		if ( moments.n < MIN_NUM_MATCHES )
+			throw new NotEnoughDataPointsException( moments.n + " data points are not enough to estimate a 3d affine model, at least " + MIN_NUM_MATCHES + " data points required." );
+
+		final double ws = moments.ws;
+
+		/* centers of mass relative to the local origin */
+		final double dpcx = moments.spx / ws, dpcy = moments.spy / ws, dpcz = moments.spz / ws;
+		final double dqcx = moments.sqx / ws, dqcy = moments.sqy / ws, dqcz = moments.sqz / ws;
+
+		final double
+			a00 = moments.spxpx - moments.spx * dpcx,
+			a01 = moments.spxpy - moments.spx * dpcy,
+			a02 = moments.spxpz - moments.spx * dpcz,
+			a11 = moments.spypy - moments.spy * dpcy,
+			a12 = moments.spypz - moments.spy * dpcz,
+			a22 = moments.spzpz - moments.spz * dpcz;
+		final double
+			b00 = moments.spxqx - moments.spx * dqcx,
+			b01 = moments.spxqy - moments.spx * dqcy,
+			b02 = moments.spxqz - moments.spx * dqcz,
+			b10 = moments.spyqx - moments.spy * dqcx,
+			b11 = moments.spyqy - moments.spy * dqcy,
+			b12 = moments.spyqz - moments.spy * dqcz,
+			b20 = moments.spzqx - moments.spz * dqcx,
+			b21 = moments.spzqy - moments.spz * dqcy,
+			b22 = moments.spzqz - moments.spz * dqcz;
+
+		final double det =
+			a00 * a11 * a22 +
+			a01 * a12 * a02 +
+			a02 * a01 * a12 -
+			a02 * a11 * a02 -
+			a12 * a12 * a00 -
+			a22 * a01 * a01;
+
+		if ( det == 0 )
+			throw new IllDefinedDataPointsException();
+
+		final double idet = 1.0 / det;
+
+		final double ai00 = ( a11 * a22 - a12 * a12 ) * idet;
+		final double ai01 = ( a02 * a12 - a01 * a22 ) * idet;
+		final double ai02 = ( a01 * a12 - a02 * a11 ) * idet;
+		final double ai11 = ( a00 * a22 - a02 * a02 ) * idet;
+		final double ai12 = ( a02 * a01 - a00 * a12 ) * idet;
+		final double ai22 = ( a00 * a11 - a01 * a01 ) * idet;
+
+		m00 = ai00 * b00 + ai01 * b10 + ai02 * b20;
+		m01 = ai01 * b00 + ai11 * b10 + ai12 * b20;
+		m02 = ai02 * b00 + ai12 * b10 + ai22 * b20;
+
+		m10 = ai00 * b01 + ai01 * b11 + ai02 * b21;
+		m11 = ai01 * b01 + ai11 * b11 + ai12 * b21;
+		m12 = ai02 * b01 + ai12 * b11 + ai22 * b21;
+
+		m20 = ai00 * b02 + ai01 * b12 + ai02 * b22;
+		m21 = ai01 * b02 + ai11 * b12 + ai12 * b22;
+		m22 = ai02 * b02 + ai12 * b12 + ai22 * b22;
+
+		final double pcx = moments.opx + dpcx, pcy = moments.opy + dpcy, pcz = moments.opz + dpcz;
+		final double qcx = moments.oqx + dqcx, qcy = moments.oqy + dqcy, qcz = moments.oqz + dqcz;
+
+		m03 = qcx - m00 * pcx - m01 * pcy - m02 * pcz;
+		m13 = qcy - m10 * pcx - m11 * pcy - m12 * pcz;
+		m23 = qcz - m20 * pcx - m21 * pcy - m22 * pcz;
+
+		invert();
+	}
+
 	@Override
 	public AffineModel3D copy()
 	{
@@ -0,0 +1,183 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Compact binary checkpoints of long running optimizations.
+ *
+ * A checkpoint is written to a temporary file next to the target that
+ * replaces the target only after it was written completely.  A crash while
+ * writing thus leaves the previous checkpoint intact.  Primitive state is
+ * written as raw data, {@link Model Models} are written as serialized
+ * objects and restored with {@link Model#set(Model)}.  Optimizations
+ * {@link #delete(File) delete} their checkpoint when they terminate
+ * normally such that a later optimization with the same file starts from
+ * scratch.
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+final public class Checkpoint
+{
+	final static protected int MAGIC = 0x4d504943;
+	final static protected int VERSION = 1;
+
+	public interface Writer
+	{
+		public void write( final ObjectOutputStream out ) throws IOException;
+	}
+
+	public interface Reader< T >
+	{
+		public T read( final ObjectInputStream in ) throws IOException, ClassNotFoundException;
+	}
+
+	private Checkpoint(){}
+
+	/**
+	 * Write a checkpoint of a given type.
+	 *
+	 * @param file
+	 * @param type identifies the kind of optimization
+	 * @param writer
+	 * @throws IOException
+	 */
+	final static public void write( final File file, final String type, final Writer writer ) throws IOException
+	{
+		final File tmp = new File( file.getPath() + ".tmp" );
+		final FileOutputStream fos = new FileOutputStream( tmp );
+		final ObjectOutputStream out = new ObjectOutputStream( new BufferedOutputStream( fos, 1 << 16 ) );
+		try
+		{
+			out.writeInt( MAGIC );
+			out.writeInt( VERSION );
+			out.writeUTF( type );
+			writer.write( out );
+			out.flush();
+			fos.getFD().sync();
+		}
+		finally
+		{
+			out.close();
+		}
+		Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+
+	/**
+	 * Delete a checkpoint and a temporary file left by an interrupted
+	 * {@link #write(File, String, Writer) write}.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	final static public void delete( final File file ) throws IOException
+	{
+		Files.deleteIfExists( new File( file.getPath() + ".tmp" ).toPath() );
+		Files.deleteIfExists( file.toPath() );
+	}
+
+	/**
+	 * Read a checkpoint of a given type.
+	 *
+	 * @param file
+	 * @param type identifies the kind of optimization
+	 * @param reader
+	 * @return what the reader returns
+	 * @throws IOException if the file is not a checkpoint of this type
+	 */
+	final static public < T > T read( final File file, final String type, final Reader< T > reader ) throws IOException
+	{
+		final ObjectInputStream in = new ObjectInputStream( new BufferedInputStream( new FileInputStream( file ), 1 << 16 ) );
+		try
+		{
+			if ( in.readInt() != MAGIC || in.readInt() != VERSION || !type.equals( in.readUTF() ) )
+				throw new IOException( file + " is not a " + type + " checkpoint." );
+			return reader.read( in );
+		}
+		catch ( final ClassNotFoundException e )
+		{
+			throw new IOException( e );
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	final static public void writeDoubles( final ObjectOutputStream out, final double[] a ) throws IOException
+	{
+		for ( final double x : a )
+			out.writeDouble( x );
+	}
+
+	final static public void readDoubles( final ObjectInputStream in, final double[] a ) throws IOException
+	{
+		for ( int i = 0; i < a.length; ++i )
+			a[ i ] = in.readDouble();
+	}
+
+	/**
+	 * Read a serialized copy of a {@link Model} without restoring it.
+	 *
+	 * @throws IOException if the serialized model is of another class
+	 */
+	final static public Model< ? > readModelCopy( final ObjectInputStream in, final Model< ? > model ) throws IOException, ClassNotFoundException
+	{
+		final Object copy = in.readObject();
+		if ( copy == null || copy.getClass() != model.getClass() )
+			throw new IOException( "Checkpoint does not match: expected " + model.getClass().getSimpleName() + "." );
+		return ( Model< ? > )copy;
+	}
+
+	/**
+	 * Restore an {@link ErrorStatistic}.  If reading fails, the
+	 * {@link ErrorStatistic} is reset to its previous state.
+	 */
+	final static public void readErrorStatistic( final ObjectInputStream in, final ErrorStatistic observer ) throws IOException
+	{
+		final ByteArrayOutputStream backup = new ByteArrayOutputStream();
+		observer.write( new DataOutputStream( backup ) );
+		try
+		{
+			observer.read( in );
+		}
+		catch ( final IOException | RuntimeException e )
+		{
+			observer.read( new DataInputStream( new ByteArrayInputStream( backup.toByteArray() ) ) );
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,408 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+
+/**
+ * A coarse level of a {@link TileConfiguration} for hierarchical
+ * optimization.
+ *
+ * Neighboring {@link Tile Tiles} of the fine configuration are aggregated
+ * into clusters.  Each cluster is represented by a coarse {@link Tile} whose
+ * model is a correction of the current world transformation of all its
+ * members.  The {@link PointMatch PointMatches} between members of
+ * different clusters become the matches of the coarse {@link Tile Tiles} at
+ * their current world coordinates, {@linkplain #reduce(List, List, List)
+ * reduced} to a few sigma points per pair of connected clusters.  Matches
+ * within a cluster are ignored, the coarse models are therefore restricted
+ * to transformations that do not change them, i.e. a
+ * {@link TranslationModel1D}, {@link TranslationModel2D} or
+ * {@link TranslationModel3D} for clusters of translation models and a
+ * {@link RigidModel2D} or {@link RigidModel3D} otherwise.  Local scaling
+ * and shear are left to the smoothing on the fine level.
+ * Clusters that contain a fixed {@link Tile} are fixed.  Clusters whose
+ * coarse {@link Tile} has too few matches for its model are not part of the
+ * coarse configuration and remain constant.
+ *
+ * The clusters and coarse {@link Tile Tiles} are created once such that a
+ * hierarchy of {@link CoarseTileConfiguration CoarseTileConfigurations} can
+ * be reused for many cycles.  {@link #update()} transfers the current world
+ * coordinates of the fine configuration into the coarse matches.  After
+ * optimizing the coarse configuration, {@link #prolongate()} transfers the
+ * corrections to the member {@link Tile Tiles}.
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+public class CoarseTileConfiguration extends TileConfiguration
+{
+	private static final long serialVersionUID = -2339066440342707281L;
+
+	final protected TileConfiguration fine;
+	final protected ArrayList< Tile< ? > > coarseTiles = new ArrayList< Tile< ? > >();
+	final protected ArrayList< List< Tile< ? > > > clusters = new ArrayList< List< Tile< ? > > >();
+
+	/* per pair of connected clusters, the fine matches and the coarse matches in both directions */
+	final protected ArrayList< List< PointMatch > > fineMatches = new ArrayList< List< PointMatch > >();
+	final protected ArrayList< List< PointMatch > > forwardMatches = new ArrayList< List< PointMatch > >();
+	final protected ArrayList< List< PointMatch > > backwardMatches = new ArrayList< List< PointMatch > >();
+
+	/**
+	 * Aggregate the {@link Tile Tiles} of a {@link TileConfiguration} into
+	 * clusters of all yet unassigned {@link Tile Tiles} within a graph
+	 * distance of <code>radius</code> from a seed {@link Tile}.
+	 *
+	 * @param fine
+	 * @param radius
+	 */
+	public CoarseTileConfiguration( final TileConfiguration fine, final int radius )
+	{
+		this.fine = fine;
+
+		final HashMap< Tile< ? >, Integer > clusterIndices = new HashMap< Tile< ? >, Integer >();
+		final HashMap< Tile< ? >, Integer > distances = new HashMap< Tile< ? >, Integer >();
+		final ArrayDeque< Tile< ? > > queue = new ArrayDeque< Tile< ? > >();
+		for ( final Tile< ? > seed : fine.getTiles() )
+		{
+			if ( clusterIndices.containsKey( seed ) ) continue;
+
+			final int c = clusters.size();
+			final ArrayList< Tile< ? > > cluster = new ArrayList< Tile< ? > >();
+			distances.clear();
+			distances.put( seed, 0 );
+			queue.add( seed );
+			while ( !queue.isEmpty() )
+			{
+				final Tile< ? > tile = queue.poll();
+				clusterIndices.put( tile, c );
+				cluster.add( tile );
+				final int d = distances.get( tile ) + 1;
+				if ( d > radius ) continue;
+				for ( final Tile< ? > t : tile.getConnectedTiles() )
+				{
+					if ( !clusterIndices.containsKey( t ) && !distances.containsKey( t ) && fine.getTiles().contains( t ) )
+					{
+						distances.put( t, d );
+						queue.add( t );
+					}
+				}
+			}
+			clusters.add( cluster );
+			coarseTiles.add( createCoarseTile( cluster ) );
+		}
+
+		/* collect all matches between members of different clusters */
+		final HashMap< Point, Integer > pointClusters = new HashMap< Point, Integer >();
+		for ( final Tile< ? > tile : fine.getTiles() )
+		{
+			final Integer c = clusterIndices.get( tile );
+			for ( final PointMatch pm : tile.getMatches() )
+				pointClusters.put( pm.getP1(), c );
+		}
+		final int n = clusters.size();
+		final HashMap< Long, ArrayList< PointMatch > > connections = new HashMap< Long, ArrayList< PointMatch > >();
+		for ( int c = 0; c < n; ++c )
+		{
+			for ( final Tile< ? > tile : clusters.get( c ) )
+			{
+				for ( final PointMatch pm : tile.getMatches() )
+				{
+					final Integer o = pointClusters.get( pm.getP2() );
+					if ( o == null || o <= c ) continue;
+					final Long key = ( long )c * n + o;
+					ArrayList< PointMatch > matches = connections.get( key );
+					if ( matches == null )
+					{
+						matches = new ArrayList< PointMatch >();
+						connections.put( key, matches );
+					}
+					matches.add( pm );
+				}
+			}
+		}
+
+		/* connect the coarse tiles */
+		for ( final Long key : connections.keySet() )
+		{
+			final Tile< ? > coarseTile = coarseTiles.get( ( int )( key / n ) );
+			final Tile< ? > otherCoarseTile = coarseTiles.get( ( int )( key % n ) );
+			final ArrayList< PointMatch > matches = connections.get( key );
+			final int numDimensions = matches.get( 0 ).getP1().getL().length;
+			final int numCoarseMatches = Math.min( matches.size(), 4 * numDimensions );
+			final ArrayList< PointMatch > forward = new ArrayList< PointMatch >( numCoarseMatches );
+			final ArrayList< PointMatch > backward = new ArrayList< PointMatch >( numCoarseMatches );
+			for ( int k = 0; k < numCoarseMatches; ++k )
+			{
+				final Point p = new Point( new double[ numDimensions ] );
+				final Point q = new Point( new double[ numDimensions ] );
+				forward.add( new PointMatch( p, q, 1.0 ) );
+				backward.add( new PointMatch( q, p, 1.0 ) );
+			}
+			coarseTile.addMatches( forward );
+			otherCoarseTile.addMatches( backward );
+			coarseTile.addConnectedTile( otherCoarseTile );
+			otherCoarseTile.addConnectedTile( coarseTile );
+			fineMatches.add( matches );
+			forwardMatches.add( forward );
+			backwardMatches.add( backward );
+		}
+
+		for ( int c = 0; c < n; ++c )
+		{
+			final Tile< ? > coarseTile = coarseTiles.get( c );
+			/* never applied, its matches remain constant at the fine world coordinates */
+			if ( coarseTile.getMatches().size() < coarseTile.getModel().getMinNumMatches() )
+				continue;
+			addTile( coarseTile );
+			for ( final Tile< ? > tile : clusters.get( c ) )
+			{
+				if ( fine.getFixedTiles().contains( tile ) )
+				{
+					fixTile( coarseTile );
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create the coarse {@link Tile} for a cluster with an identity model
+	 * that does not change the matches within the cluster.
+	 */
+	static protected Tile< ? > createCoarseTile( final List< Tile< ? > > cluster )
+	{
+		int n = 0;
+		boolean translation = true;
+		for ( final Tile< ? > tile : cluster )
+		{
+			final Model< ? > model = tile.getModel();
+			translation &=
+					model instanceof TranslationModel1D ||
+					model instanceof TranslationModel2D ||
+					model instanceof TranslationModel3D;
+			if ( n == 0 && tile.getMatches().size() > 0 )
+				n = tile.getMatches().iterator().next().getP1().getL().length;
+		}
+		switch ( n )
+		{
+		case 1:
+			return new Tile< TranslationModel1D >( new TranslationModel1D() );
+		case 3:
+			if ( translation )
+				return new Tile< TranslationModel3D >( new TranslationModel3D() );
+			return new Tile< RigidModel3D >( new RigidModel3D() );
+		default:
+			if ( translation )
+				return new Tile< TranslationModel2D >( new TranslationModel2D() );
+			return new Tile< RigidModel2D >( new RigidModel2D() );
+		}
+	}
+
+	/**
+	 * Set a model created by {@link #createCoarseTile(List)} to the
+	 * identity.
+	 */
+	static protected void setIdentity( final Model< ? > model )
+	{
+		if ( model instanceof TranslationModel1D )
+			( ( TranslationModel1D )model ).set( 0 );
+		else if ( model instanceof TranslationModel2D )
+			( ( TranslationModel2D )model ).set( 0, 0 );
+		else if ( model instanceof TranslationModel3D )
+			( ( TranslationModel3D )model ).set( 0, 0, 0 );
+		else if ( model instanceof RigidModel2D )
+			( ( RigidModel2D )model ).reset();
+		else if ( model instanceof RigidModel3D )
+			( ( RigidModel3D )model ).reset();
+	}
+
+	/**
+	 * @return the fine {@link Tile Tiles} aggregated by each coarse
+	 *   {@link Tile}, in the order of {@link #getCoarseTiles()}
+	 */
+	public List< List< Tile< ? > > > getClusters()
+	{
+		return clusters;
+	}
+
+	public List< Tile< ? > > getCoarseTiles()
+	{
+		return coarseTiles;
+	}
+
+	/**
+	 * Set the coarse matches to the current world coordinates of the fine
+	 * matches and all coarse models to the identity.  All
+	 * {@link Tile Tiles} of the fine configuration must be
+	 * {@linkplain TileConfiguration#apply() applied}.
+	 */
+	public void update()
+	{
+		for ( int i = 0; i < fineMatches.size(); ++i )
+			reduce( fineMatches.get( i ), forwardMatches.get( i ), backwardMatches.get( i ) );
+		for ( final Tile< ? > coarseTile : coarseTiles )
+			setIdentity( coarseTile.getModel() );
+	}
+
+	/**
+	 * Set the coarse matches to the world coordinates of the fine matches.
+	 * If there are more than 4<i>n</i> fine matches with <i>n</i> being the
+	 * number of dimensions, the coarse matches are the 4<i>n</i> sigma
+	 * points of the joint distribution of p<sub>1</sub>.w and
+	 * p<sub>2</sub>.w.  The sigma points have the same weight sum, weighted
+	 * mean and weighted covariance as the fine matches.  Least-squares fits
+	 * of affine models and their constrained subsets, in either direction,
+	 * depend on nothing else and are therefore not changed.
+	 *
+	 * @param matches fine matches
+	 * @param forward coarse matches, one per fine match or 4<i>n</i>
+	 * @param backward flipped coarse matches
+	 */
+	static protected void reduce(
+			final List< PointMatch > matches,
+			final List< PointMatch > forward,
+			final List< PointMatch > backward )
+	{
+		final int n = matches.get( 0 ).getP1().getW().length;
+		final int m = 2 * n;
+
+		if ( matches.size() == forward.size() )
+		{
+			for ( int k = 0; k < matches.size(); ++k )
+			{
+				final PointMatch pm = matches.get( k );
+				final PointMatch coarse = forward.get( k );
+				set( coarse.getP1(), pm.getP1().getW() );
+				set( coarse.getP2(), pm.getP2().getW() );
+				coarse.setWeight( 0, pm.getWeight() );
+				backward.get( k ).setWeight( 0, pm.getWeight() );
+			}
+			return;
+		}
+
+		double ws = 0;
+		final double[] mean = new double[ m ];
+		final double[] x = new double[ m ];
+		for ( final PointMatch pm : matches )
+		{
+			final double w = pm.getWeight();
+			ws += w;
+			System.arraycopy( pm.getP1().getW(), 0, x, 0, n );
+			System.arraycopy( pm.getP2().getW(), 0, x, n, n );
+			for ( int i = 0; i < m; ++i )
+				mean[ i ] += w * x[ i ];
+		}
+		if ( ws > 0 )
+			for ( int i = 0; i < m; ++i )
+				mean[ i ] /= ws;
+
+		final double[][] covariance = new double[ m ][ m ];
+		if ( ws > 0 )
+		{
+			for ( final PointMatch pm : matches )
+			{
+				final double w = pm.getWeight() / ws;
+				System.arraycopy( pm.getP1().getW(), 0, x, 0, n );
+				System.arraycopy( pm.getP2().getW(), 0, x, n, n );
+				for ( int i = 0; i < m; ++i )
+				{
+					final double di = x[ i ] - mean[ i ];
+					for ( int j = i; j < m; ++j )
+						covariance[ i ][ j ] += w * di * ( x[ j ] - mean[ j ] );
+				}
+			}
+			for ( int i = 0; i < m; ++i )
+				for ( int j = 0; j < i; ++j )
+					covariance[ i ][ j ] = covariance[ j ][ i ];
+		}
+
+		final EigenvalueDecomposition evd = new EigenvalueDecomposition( new Matrix( covariance ) );
+		final double[] lambda = evd.getRealEigenvalues();
+		final double[][] v = evd.getV().getArray();
+
+		final double w = ws / ( 2 * m );
+		final double[] p = new double[ n ];
+		final double[] q = new double[ n ];
+		for ( int k = 0; k < m; ++k )
+		{
+			final double s = Math.sqrt( m * Math.max( 0, lambda[ k ] ) );
+			for ( int sign = 0; sign < 2; ++sign )
+			{
+				final double ss = sign == 0 ? -s : s;
+				for ( int i = 0; i < n; ++i )
+				{
+					p[ i ] = mean[ i ] + ss * v[ i ][ k ];
+					q[ i ] = mean[ n + i ] + ss * v[ n + i ][ k ];
+				}
+				final PointMatch coarse = forward.get( 2 * k + sign );
+				set( coarse.getP1(), p );
+				set( coarse.getP2(), q );
+				coarse.setWeight( 0, w );
+				backward.get( 2 * k + sign ).setWeight( 0, w );
+			}
+		}
+	}
+
+	static private void set( final Point point, final double[] x )
+	{
+		System.arraycopy( x, 0, point.getL(), 0, x.length );
+		System.arraycopy( x, 0, point.getW(), 0, x.length );
+	}
+
+	/**
+	 * Transfer the corrections estimated for the non-fixed coarse
+	 * {@link Tile Tiles} to all their non-fixed members and apply them.  The
+	 * model of each member is fitted to its own match locations mapped by
+	 * its current model and the correction, which is exact if the member's
+	 * model class is closed under composition with the correction.
+	 *
+	 * @throws NotEnoughDataPointsException if a member cannot be refitted
+	 * @throws IllDefinedDataPointsException if a member cannot be refitted
+	 */
+	public void prolongate() throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		for ( int c = 0; c < clusters.size(); ++c )
+		{
+			final Tile< ? > coarseTile = coarseTiles.get( c );
+			if ( !tiles.contains( coarseTile ) || fixedTiles.contains( coarseTile ) ) continue;
+			final Model< ? > correction = coarseTile.getModel();
+			for ( final Tile< ? > tile : clusters.get( c ) )
+			{
+				if ( fine.getFixedTiles().contains( tile ) ) continue;
+				final ArrayList< PointMatch > matches = new ArrayList< PointMatch >();
+				for ( final PointMatch pm : tile.getMatches() )
+					matches.add(
+							new PointMatch(
+									new Point( pm.getP1().getL().clone() ),
+									new Point( correction.apply( pm.getP1().getW() ) ) ) );
+				tile.getModel().fit( matches );
+				tile.apply();
+			}
+		}
+	}
+}
@@ -0,0 +1,702 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+/**
+ * Compact, index-based representation of a {@link Collection} of connected
+ * {@link SpringMesh SpringMeshes} for allocation-free optimization.
+ *
+ * All {@link Vertex Vertices} are identified by their index.  The active
+ * {@link Vertex Vertices} of all meshes come first, then the passive
+ * {@link Vertex Vertices} and finally all other {@link Vertex Vertices}
+ * connected by {@link Spring Springs} that remain constant.  Positions are
+ * stored as {@code w[ d ][ i ]}, directions and forces of the active
+ * {@link Vertex Vertices} as {@code direction[ d ][ i ]} and
+ * {@code force[ d ][ i ]}.  The {@link Spring Springs} of active
+ * {@link Vertex} {@code i} are {@code springOffsets[ i ]} to
+ * {@code springOffsets[ i + 1 ] - 1} in compressed sparse rows of target
+ * vertex, rest length, weight and maximal stretch.
+ *
+ * A passive {@link Vertex} is transferred by the affine transformation of
+ * the triangle that contains it.  This transformation being fitted to the
+ * three corners of the triangle, the passive {@link Vertex} is the
+ * barycentric combination of the three corners with constant weights.
+ *
+ * The optimization reproduces
+ * {@link SpringMesh#optimizeMeshes(Collection, double, int, int, double, boolean)}.
+ * The results are identical up to rounding in the passive
+ * {@link Vertex Vertices}.
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+public class CompiledSpringMeshes
+{
+	final protected SpringMesh[] meshes;
+
+	final protected int numActive;
+	final protected int numPassive;
+	final protected int numVertices;
+
+	/* active vertices of mesh m are meshOffsets[ m ] to meshOffsets[ m + 1 ] - 1 */
+	final protected int[] meshOffsets;
+	final protected double[] meshDamps;
+	final protected double[] meshMaxSpeeds;
+
+	final protected Vertex[] vertices;
+
+	final protected double[][] w;
+	final protected double[][] direction;
+	final protected double[][] force;
+	final protected double[] forceAmplitudes;
+
+	/* CSR springs */
+	final protected int[] springOffsets;
+	final protected int[] springTargets;
+	final protected double[] springLengths;
+	final protected double[] springWeights;
+	final protected double[] springMaxStretches;
+
+	/* passive vertex numActive + k is the barycentric combination of the three corners 3k, 3k + 1, 3k + 2 */
+	final protected int[] passiveCorners;
+	final protected double[] passiveWeights;
+
+	protected double meanForce = 0.0;
+	protected double minForce = Double.MAX_VALUE;
+	protected double maxForce = 0.0;
+
+	public CompiledSpringMeshes( final Collection< SpringMesh > meshes )
+	{
+		this.meshes = meshes.toArray( new SpringMesh[ meshes.size() ] );
+
+		meshOffsets = new int[ this.meshes.length + 1 ];
+		meshDamps = new double[ this.meshes.length ];
+		meshMaxSpeeds = new double[ this.meshes.length ];
+
+		final HashMap< Vertex, Integer > indices = new HashMap< Vertex, Integer >();
+		final ArrayList< Vertex > vertexList = new ArrayList< Vertex >();
+		for ( int m = 0; m < this.meshes.length; ++m )
+		{
+			final SpringMesh mesh = this.meshes[ m ];
+			for ( final Vertex vertex : mesh.vertices )
+			{
+				indices.put( vertex, vertexList.size() );
+				vertexList.add( vertex );
+			}
+			meshOffsets[ m + 1 ] = vertexList.size();
+			meshDamps[ m ] = mesh.damp;
+			meshMaxSpeeds[ m ] = mesh.maxSpeed;
+		}
+		numActive = vertexList.size();
+
+		/* passive vertices */
+		final ArrayList< Vertex > passiveCornerList = new ArrayList< Vertex >();
+		final ArrayList< double[] > passiveWeightList = new ArrayList< double[] >();
+		for ( final SpringMesh mesh : this.meshes )
+		{
+			for ( final Entry< Vertex, AffineModel2D > entry : mesh.pva.entrySet() )
+			{
+				final Vertex vertex = entry.getKey();
+				if ( indices.containsKey( vertex ) )
+					continue;
+				final ArrayList< PointMatch > triangle = mesh.av.get( entry.getValue() );
+				passiveWeightList.add( barycentricWeights( triangle, vertex.getL() ) );
+				for ( final PointMatch pm : triangle )
+					passiveCornerList.add( mesh.pv.get( pm ) );
+				indices.put( vertex, vertexList.size() );
+				vertexList.add( vertex );
+			}
+		}
+		numPassive = vertexList.size() - numActive;
+
+		/* springs and constant vertices */
+		springOffsets = new int[ numActive + 1 ];
+		int numSprings = 0;
+		for ( int i = 0; i < numActive; ++i )
+		{
+			for ( final Vertex vertex : vertexList.get( i ).getConnectedVertices() )
+			{
+				if ( !indices.containsKey( vertex ) )
+				{
+					indices.put( vertex, vertexList.size() );
+					vertexList.add( vertex );
+				}
+			}
+			numSprings += vertexList.get( i ).springs.size();
+			springOffsets[ i + 1 ] = numSprings;
+		}
+		numVertices = vertexList.size();
+		vertices = vertexList.toArray( new Vertex[ numVertices ] );
+
+		springTargets = new int[ numSprings ];
+		springLengths = new double[ numSprings ];
+		springWeights = new double[ numSprings ];
+		springMaxStretches = new double[ numSprings ];
+		int s = 0;
+		for ( int i = 0; i < numActive; ++i )
+		{
+			for ( final Entry< Vertex, Spring > entry : vertices[ i ].springs.entrySet() )
+			{
+				final Spring spring = entry.getValue();
+				springTargets[ s ] = indices.get( entry.getKey() );
+				springLengths[ s ] = spring.getLength();
+				springWeights[ s ] = spring.getWeight();
+				springMaxStretches[ s ] = spring.maxStretch;
+				++s;
+			}
+		}
+
+		passiveCorners = new int[ 3 * numPassive ];
+		passiveWeights = new double[ 3 * numPassive ];
+		for ( int k = 0; k < numPassive; ++k )
+		{
+			final double[] b = passiveWeightList.get( k );
+			for ( int j = 0; j < 3; ++j )
+			{
+				passiveCorners[ 3 * k + j ] = indices.get( passiveCornerList.get( 3 * k + j ) );
+				passiveWeights[ 3 * k + j ] = b[ j ];
+			}
+		}
+
+		w = new double[ 2 ][ numVertices ];
+		direction = new double[ 2 ][ numActive ];
+		force = new double[ 2 ][ numActive ];
+		forceAmplitudes = new double[ numActive ];
+		for ( int i = 0; i < numVertices; ++i )
+		{
+			final double[] vw = vertices[ i ].getW();
+			w[ 0 ][ i ] = vw[ 0 ];
+			w[ 1 ][ i ] = vw[ 1 ];
+		}
+		for ( int i = 0; i < numActive; ++i )
+		{
+			final double[] vd = vertices[ i ].getDirection();
+			direction[ 0 ][ i ] = vd[ 0 ];
+			direction[ 1 ][ i ] = vd[ 1 ];
+		}
+	}
+
+	/**
+	 * Barycentric coordinates of a location in the source triangle of three
+	 * {@link PointMatch PointMatches}.
+	 */
+	static protected double[] barycentricWeights( final ArrayList< PointMatch > triangle, final double[] l )
+	{
+		final double[] a = triangle.get( 0 ).getP1().getL();
+		final double[] b = triangle.get( 1 ).getP1().getL();
+		final double[] c = triangle.get( 2 ).getP1().getL();
+
+		final double det = ( b[ 0 ] - a[ 0 ] ) * ( c[ 1 ] - a[ 1 ] ) - ( c[ 0 ] - a[ 0 ] ) * ( b[ 1 ] - a[ 1 ] );
+		final double wb = ( ( l[ 0 ] - a[ 0 ] ) * ( c[ 1 ] - a[ 1 ] ) - ( c[ 0 ] - a[ 0 ] ) * ( l[ 1 ] - a[ 1 ] ) ) / det;
+		final double wc = ( ( b[ 0 ] - a[ 0 ] ) * ( l[ 1 ] - a[ 1 ] ) - ( l[ 0 ] - a[ 0 ] ) * ( b[ 1 ] - a[ 1 ] ) ) / det;
+
+		return new double[]{ 1.0 - wb - wc, wb, wc };
+	}
+
+	public int getNumActiveVertices(){ return numActive; }
+	public int getNumPassiveVertices(){ return numPassive; }
+	public int getNumVertices(){ return numVertices; }
+	public int getNumSprings(){ return springTargets.length; }
+	public double getForce(){ return meanForce; }
+	public double getMinForce(){ return minForce; }
+	public double getMaxForce(){ return maxForce; }
+
+	/**
+	 * Calculate the force of all active vertices like
+	 * {@link Vertex#updateForce()} and the mean force per mesh like
+	 * {@link SpringMesh#updateForce(ErrorStatistic)}.
+	 *
+	 * @return sum of the mean forces of all meshes
+	 */
+	protected double updateForces()
+	{
+		final double[] wx = w[ 0 ];
+		final double[] wy = w[ 1 ];
+		final double[] fx = force[ 0 ];
+		final double[] fy = force[ 1 ];
+
+		double forceSum = 0;
+		minForce = Double.MAX_VALUE;
+		maxForce = 0.0;
+
+		for ( int m = 0; m < meshes.length; ++m )
+		{
+			double meshForce = 0;
+			for ( int i = meshOffsets[ m ]; i < meshOffsets[ m + 1 ]; ++i )
+			{
+				final double x1 = wx[ i ];
+				final double y1 = wy[ i ];
+				double sx = 0;
+				double sy = 0;
+				for ( int s = springOffsets[ i ]; s < springOffsets[ i + 1 ]; ++s )
+				{
+					final int j = springTargets[ s ];
+					final double dx = wx[ j ] - x1;
+					final double dy = wy[ j ] - y1;
+					final double lw = Math.sqrt( dx * dx + dy * dy );
+					final double d = lw - springLengths[ s ];
+
+					/* disrupted springs contribute nothing */
+					if ( Math.abs( d ) > springMaxStretches[ s ] )
+						continue;
+					else if ( lw == 0.0 )
+					{
+						if ( Spring.rnd.nextDouble() < 0.5 )
+							sx += d * springWeights[ s ];
+						else
+							sy += d * springWeights[ s ];
+					}
+					else
+					{
+						sx += dx / lw * d * springWeights[ s ];
+						sy += dy / lw * d * springWeights[ s ];
+					}
+				}
+				fx[ i ] = sx;
+				fy[ i ] = sy;
+				final double amplitude = Math.sqrt( sx * sx + sy * sy );
+				forceAmplitudes[ i ] = amplitude;
+				meshForce += amplitude;
+				if ( amplitude < minForce ) minForce = amplitude;
+				if ( amplitude > maxForce ) maxForce = amplitude;
+			}
+			forceSum += meshForce / ( meshOffsets[ m + 1 ] - meshOffsets[ m ] );
+		}
+		return forceSum;
+	}
+
+	/**
+	 * Update the directions of all active vertices like
+	 * {@link Vertex#updateDirection(double, double)}.
+	 *
+	 * @return maximal speed of all meshes ever
+	 */
+	protected double updateDirections( final double dt )
+	{
+		final double[] fx = force[ 0 ];
+		final double[] fy = force[ 1 ];
+		final double[] dx = direction[ 0 ];
+		final double[] dy = direction[ 1 ];
+
+		double maxSpeed = 0;
+		for ( int m = 0; m < meshes.length; ++m )
+		{
+			final double dampDt = Math.pow( meshDamps[ m ], dt );
+			double meshMaxSpeed = meshMaxSpeeds[ m ];
+			for ( int i = meshOffsets[ m ]; i < meshOffsets[ m + 1 ]; ++i )
+			{
+				final double x = ( dx[ i ] + fx[ i ] * dt ) * dampDt;
+				final double y = ( dy[ i ] + fy[ i ] * dt ) * dampDt;
+				dx[ i ] = x;
+				dy[ i ] = y;
+				final double speed = Math.sqrt( x * x + y * y );
+				if ( speed > meshMaxSpeed ) meshMaxSpeed = speed;
+			}
+			meshMaxSpeeds[ m ] = meshMaxSpeed;
+			if ( meshMaxSpeed > maxSpeed ) maxSpeed = meshMaxSpeed;
+		}
+		return maxSpeed;
+	}
+
+	/**
+	 * Move all active vertices for a given &Delta;t and update the passive
+	 * vertices.
+	 */
+	protected void move( final double dt )
+	{
+		final double[] wx = w[ 0 ];
+		final double[] wy = w[ 1 ];
+		final double[] dx = direction[ 0 ];
+		final double[] dy = direction[ 1 ];
+
+		for ( int i = 0; i < numActive; ++i )
+		{
+			wx[ i ] += dt * dx[ i ];
+			wy[ i ] += dt * dy[ i ];
+		}
+
+		updatePassiveVertices();
+	}
+
+	/**
+	 * Update the passive vertices from the corners of their triangles.
+	 */
+	protected void updatePassiveVertices()
+	{
+		final double[] wx = w[ 0 ];
+		final double[] wy = w[ 1 ];
+
+		for ( int k = 0, j = 0; k < numPassive; ++k, j += 3 )
+		{
+			final int a = passiveCorners[ j ], b = passiveCorners[ j + 1 ], c = passiveCorners[ j + 2 ];
+			final double ba = passiveWeights[ j ], bb = passiveWeights[ j + 1 ], bc = passiveWeights[ j + 2 ];
+			wx[ numActive + k ] = ba * wx[ a ] + bb * wx[ b ] + bc * wx[ c ];
+			wy[ numActive + k ] = ba * wy[ a ] + bb * wy[ b ] + bc * wy[ c ];
+		}
+	}
+
+	/**
+	 * Optimize like
+	 * {@link SpringMesh#optimizeMeshes(Collection, double, int, int, double, boolean)}
+	 * without visualization and logging.
+	 *
+	 * @param maxError do not accept convergence if error is &gt; max_error
+	 * @param maxIterations stop after that many iterations even if there was
+	 *   no minimum found
+	 * @param maxPlateauwidth convergence is reached if the average slope in
+	 *   an interval of this size is 0.0 (in double accuracy).  This prevents
+	 *   the algorithm from stopping at plateaus smaller than this value.
+	 * @return number of iterations
+	 */
+	public int optimize(
+			final ErrorStatistic observer,
+			final double maxError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double maxStepSize )
+	{
+		int i = 0;
+
+		boolean proceed = i < maxIterations;
+
+		/* initialize dt */
+		double force = updateForces();
+		double dt = Math.min( 1000, maxStepSize / maxForce );
+		double dt1 = dt;
+
+		while ( proceed )
+		{
+			force = updateForces();
+			meanForce = force / meshes.length;
+			observer.add( meanForce );
+
+			/* adjust step size to maximum force vector */
+			double dt0 = Math.min( 1000, maxStepSize / maxForce );
+			dt = Math.min( dt0, ( dt1 + dt0 ) / 2.0 );
+
+			final double maxSpeed = updateDirections( dt );
+
+			/* adjust step size to maximum motion vector */
+			dt0 = Math.min( dt0, maxStepSize / maxSpeed );
+			dt = Math.min( dt0, ( dt1 + dt0 ) / 2.0 );
+
+			dt1 = dt;
+
+			move( dt );
+
+			if ( i > maxPlateauwidth )
+			{
+				proceed = force > maxError;
+
+				int d = maxPlateauwidth;
+				while ( !proceed && d >= 1 )
+				{
+					try
+					{
+						proceed |= Math.abs( observer.getWideSlope( d ) ) > 0.0;
+					}
+					catch ( final Exception e ) { e.printStackTrace(); }
+					d /= 2;
+				}
+			}
+
+			proceed &= ++i < maxIterations;
+		}
+		return i;
+	}
+
+	/**
+	 * Calculate the elastic energy of all springs of active vertices and its
+	 * gradient with respect to the positions of the active vertices stored as
+	 * {@code x[ i ]}, {@code x[ numActive + i ]}.  Passive vertices are
+	 * updated first, their gradient is transferred to the corners of their
+	 * triangles.  A spring stretched by more than its maximal stretch is
+	 * disrupted, its energy is constant.
+	 *
+	 * @param x positions
+	 * @param g gradient
+	 * @return energy
+	 */
+	public double energy( final double[] x, final double[] g )
+	{
+		final double[] wx = w[ 0 ];
+		final double[] wy = w[ 1 ];
+		System.arraycopy( x, 0, wx, 0, numActive );
+		System.arraycopy( x, numActive, wy, 0, numActive );
+		updatePassiveVertices();
+
+		Arrays.fill( g, 0 );
+
+		double energy = 0;
+		for ( int i = 0; i < numActive; ++i )
+		{
+			final double x1 = wx[ i ];
+			final double y1 = wy[ i ];
+			for ( int s = springOffsets[ i ]; s < springOffsets[ i + 1 ]; ++s )
+			{
+				final int j = springTargets[ s ];
+				final double dx = wx[ j ] - x1;
+				final double dy = wy[ j ] - y1;
+				final double lw = Math.sqrt( dx * dx + dy * dy );
+				final double d = lw - springLengths[ s ];
+				final double weight = springWeights[ s ];
+
+				/* springs between active vertices are visited from both sides */
+				final double c = j < numActive ? 0.5 : 1.0;
+				final double maxStretch = springMaxStretches[ s ];
+				if ( Math.abs( d ) > maxStretch )
+				{
+					energy += c * 0.5 * weight * maxStretch * maxStretch;
+					continue;
+				}
+				energy += c * 0.5 * weight * d * d;
+
+				if ( lw == 0.0 )
+					continue;
+
+				final double fx = dx / lw * d * weight;
+				final double fy = dy / lw * d * weight;
+				g[ i ] -= fx;
+				g[ numActive + i ] -= fy;
+
+				/* reaction on passive vertices */
+				if ( j >= numActive && j < numActive + numPassive )
+				{
+					final int k = 3 * ( j - numActive );
+					for ( int corner = k; corner < k + 3; ++corner )
+					{
+						final int a = passiveCorners[ corner ];
+						if ( a < numActive )
+						{
+							g[ a ] += passiveWeights[ corner ] * fx;
+							g[ numActive + a ] += passiveWeights[ corner ] * fy;
+						}
+					}
+				}
+			}
+		}
+		return energy;
+	}
+
+	final static protected double dot( final double[] a, final double[] b )
+	{
+		double s = 0;
+		for ( int i = 0; i < a.length; ++i )
+			s += a[ i ] * b[ i ];
+		return s;
+	}
+
+	/**
+	 * Largest length of the vectors ( a[ i ], a[ n + i ] ) of all n active
+	 * vertices, e.g. the largest force on a vertex for a gradient.
+	 */
+	final protected double maxNorm( final double[] a )
+	{
+		double m = 0;
+		for ( int i = 0; i < numActive; ++i )
+		{
+			final double ax = a[ i ];
+			final double ay = a[ numActive + i ];
+			final double norm = Math.sqrt( ax * ax + ay * ay );
+			if ( norm > m ) m = norm;
+		}
+		return m;
+	}
+
+	/**
+	 * Find the equilibrium of the elastic energy of all springs as by
+	 * {@link #energy(double[], double[])} with the limited memory BFGS method
+	 * and a backtracking line search.
+	 *
+	 * @param maxForce convergence is reached if the length of the energy
+	 *   gradient at each active vertex is not larger than this value.  Unlike
+	 *   {@link Vertex#getForce()}, the gradient includes the reactions of
+	 *   passive vertices
+	 * @param maxIterations stop after that many iterations even if there was
+	 *   no minimum found
+	 * @param memory number of corrections to keep
+	 * @param maxStepSize maximal displacement of a vertex in the first step
+	 * @return number of energy and gradient evaluations
+	 */
+	public int optimizeLBFGS(
+			final ErrorStatistic observer,
+			final double maxForce,
+			final int maxIterations,
+			final int memory,
+			final double maxStepSize )
+	{
+		final int n = 2 * numActive;
+		final double[] x = new double[ n ];
+		final double[] g = new double[ n ];
+		final double[] xNew = new double[ n ];
+		final double[] gNew = new double[ n ];
+		final double[] d = new double[ n ];
+		final double[][] sk = new double[ memory ][ n ];
+		final double[][] yk = new double[ memory ][ n ];
+		final double[] rho = new double[ memory ];
+		final double[] alpha = new double[ memory ];
+		int numCorrections = 0;
+		int next = 0;
+
+		System.arraycopy( w[ 0 ], 0, x, 0, numActive );
+		System.arraycopy( w[ 1 ], 0, x, numActive, numActive );
+
+		double energy = energy( x, g );
+		int numEvaluations = 1;
+
+		for ( int it = 0; it < maxIterations && maxNorm( g ) > maxForce; ++it )
+		{
+			/* two-loop recursion */
+			for ( int i = 0; i < n; ++i )
+				d[ i ] = -g[ i ];
+			for ( int c = 0, k = next - 1; c < numCorrections; ++c, --k )
+			{
+				final int m = ( k + memory ) % memory;
+				alpha[ m ] = rho[ m ] * dot( sk[ m ], d );
+				final double[] y = yk[ m ];
+				for ( int i = 0; i < n; ++i )
+					d[ i ] -= alpha[ m ] * y[ i ];
+			}
+			double step = 1.0;
+			if ( numCorrections > 0 )
+			{
+				final int m = ( next - 1 + memory ) % memory;
+				final double gamma = 1.0 / ( rho[ m ] * dot( yk[ m ], yk[ m ] ) );
+				for ( int i = 0; i < n; ++i )
+					d[ i ] *= gamma;
+			}
+			else
+				step = Math.min( 1.0, maxStepSize / maxNorm( d ) );
+			for ( int c = 0, k = next - numCorrections; c < numCorrections; ++c, ++k )
+			{
+				final int m = ( k + memory ) % memory;
+				final double beta = rho[ m ] * dot( yk[ m ], d );
+				final double[] s = sk[ m ];
+				for ( int i = 0; i < n; ++i )
+					d[ i ] += ( alpha[ m ] - beta ) * s[ i ];
+			}
+
+			double slope = dot( g, d );
+			if ( slope >= 0 )
+			{
+				/* not a descent direction, restart with steepest descent */
+				numCorrections = 0;
+				for ( int i = 0; i < n; ++i )
+					d[ i ] = -g[ i ];
+				slope = dot( g, d );
+				step = Math.min( 1.0, maxStepSize / maxNorm( d ) );
+			}
+
+			/* backtracking line search with Armijo condition */
+			double energyNew;
+			int numBacktracks = 0;
+			while ( true )
+			{
+				for ( int i = 0; i < n; ++i )
+					xNew[ i ] = x[ i ] + step * d[ i ];
+				energyNew = energy( xNew, gNew );
+				++numEvaluations;
+				if ( energyNew <= energy + 1e-4 * step * slope || ++numBacktracks > 40 )
+					break;
+				step *= 0.5;
+			}
+			if ( !( energyNew < energy ) )
+			{
+				/* no progress, restore the last state */
+				energy( x, g );
+				++numEvaluations;
+				break;
+			}
+
+			/* update corrections if the curvature condition holds */
+			double sy = 0, ss = 0, yy = 0;
+			for ( int i = 0; i < n; ++i )
+			{
+				final double si = xNew[ i ] - x[ i ];
+				final double yi = gNew[ i ] - g[ i ];
+				sy += si * yi;
+				ss += si * si;
+				yy += yi * yi;
+			}
+			if ( sy > 1e-10 * Math.sqrt( ss * yy ) )
+			{
+				final double[] s = sk[ next ];
+				final double[] y = yk[ next ];
+				for ( int i = 0; i < n; ++i )
+				{
+					s[ i ] = xNew[ i ] - x[ i ];
+					y[ i ] = gNew[ i ] - g[ i ];
+				}
+				rho[ next ] = 1.0 / sy;
+				next = ( next + 1 ) % memory;
+				numCorrections = Math.min( numCorrections + 1, memory );
+			}
+
+			System.arraycopy( xNew, 0, x, 0, n );
+			System.arraycopy( gNew, 0, g, 0, n );
+			energy = energyNew;
+
+			observer.add( maxNorm( g ) );
+		}
+
+		/* at rest */
+		for ( final double[] dd : direction )
+			Arrays.fill( dd, 0 );
+		meanForce = updateForces() / meshes.length;
+
+		return numEvaluations;
+	}
+
+	/**
+	 * Write positions, directions and forces back into the
+	 * {@link Vertex Vertices} and update the affine transformations of all
+	 * meshes.
+	 */
+	public void writeBack()
+	{
+		for ( int i = 0; i < numActive; ++i )
+		{
+			final Vertex vertex = vertices[ i ];
+			final double[] vw = vertex.getW();
+			final double[] vd = vertex.getDirection();
+			final double[] vf = vertex.getForces();
+			vw[ 0 ] = w[ 0 ][ i ];
+			vw[ 1 ] = w[ 1 ][ i ];
+			vd[ 0 ] = direction[ 0 ][ i ];
+			vd[ 1 ] = direction[ 1 ][ i ];
+			vf[ 0 ] = force[ 0 ][ i ];
+			vf[ 1 ] = force[ 1 ][ i ];
+		}
+		for ( int m = 0; m < meshes.length; ++m )
+		{
+			final SpringMesh mesh = meshes[ m ];
+			mesh.maxSpeed = meshMaxSpeeds[ m ];
+			mesh.updateAffines();
+			mesh.updatePassiveVertices();
+		}
+	}
+}
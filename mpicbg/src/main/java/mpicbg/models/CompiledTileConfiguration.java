@@ -0,0 +1,436 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * Compact, index-based representation of a {@link TileConfiguration} for
+ * allocation-free optimization.
+ *
+ * {@link Tile Tiles} are identified by their index, their connections are
+ * stored as compressed sparse rows (CSR), i.e. the connected tiles of tile
+ * {@code i} are {@code adjacency[ adjacencyOffsets[ i ] ]} to
+ * {@code adjacency[ adjacencyOffsets[ i + 1 ] - 1 ]}.  The
+ * {@link PointMatch PointMatches} of tile {@code i} are the matches
+ * {@code matchOffsets[ i ]} to {@code matchOffsets[ i + 1 ] - 1} whose
+ * local and world coordinates of p1, weights and strengths are packed in
+ * primitive arrays in the layout of {@link PackedPointMatches}.  Each match
+ * references its partner, the match of the connected tile whose p1 is its
+ * p2, such that the world coordinates of p2 are those of the partner's p1
+ * just as in the object graph.  Matches without a partner, e.g. into
+ * {@link Tile Tiles} that were not compiled, have constant world
+ * coordinates of p2.
+ *
+ * Optimization fits the models of the {@link Tile Tiles} to
+ * {@link PointMatchMoments2D} or {@link PointMatchMoments3D} accumulated
+ * from the packed arrays, all models must therefore be
+ * {@link StatisticsModel StatisticsModels} of these, e.g.
+ * {@link TranslationModel2D}, {@link RigidModel2D},
+ * {@link SimilarityModel2D}, {@link AffineModel2D},
+ * {@link TranslationModel3D} or {@link AffineModel3D}.  The models are
+ * those of the {@link Tile Tiles} and are updated in place,
+ * {@link #writeBack()} transfers the world coordinates into the
+ * {@link PointMatch PointMatches}.
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+public class CompiledTileConfiguration
+{
+	final protected int numDimensions;
+	final protected int numTiles;
+	final protected int numMatches;
+
+	final protected Tile< ? >[] tiles;
+	final protected StatisticsModel< ? >[] models;
+	final protected boolean[] fixed;
+
+	/* CSR adjacency */
+	final protected int[] adjacencyOffsets;
+	final protected int[] adjacency;
+
+	/* CSR matches */
+	final protected int[] matchOffsets;
+
+	/**
+	 * Local coordinates of p1, {@code l[ d ][ k ]}
+	 */
+	final protected double[][] l;
+
+	/**
+	 * World coordinates of p1, {@code w[ d ][ k ]}
+	 */
+	final protected double[][] w;
+
+	/**
+	 * Constant world coordinates of p2 for matches without partner,
+	 * {@code q[ d ][ k ]}
+	 */
+	final protected double[][] q;
+
+	/**
+	 * Index of the partner match or -1, {@code partners[ k ]}
+	 */
+	final protected int[] partners;
+
+	final protected double[] weights;
+	final protected double[] strengths;
+
+	/* for writing back */
+	final protected Point[] points;
+
+	/* per tile mean distance */
+	final protected double[] distances;
+
+	/* scratch */
+	final protected double[] x;
+	final protected PointMatchStatistics< ? > moments;
+
+	protected double error = Double.MAX_VALUE;
+	protected double minError = Double.MAX_VALUE;
+	protected double maxError = 0.0;
+
+	/**
+	 * @param tiles
+	 * @param fixedTiles
+	 *
+	 * @throws IllegalArgumentException if a model is not supported or the
+	 *   matches have different numbers of dimensions
+	 */
+	public CompiledTileConfiguration(
+			final Collection< ? extends Tile< ? > > tiles,
+			final Set< ? extends Tile< ? > > fixedTiles )
+	{
+		numTiles = tiles.size();
+		this.tiles = new Tile< ? >[ numTiles ];
+		models = new StatisticsModel< ? >[ numTiles ];
+		fixed = new boolean[ numTiles ];
+		adjacencyOffsets = new int[ numTiles + 1 ];
+		matchOffsets = new int[ numTiles + 1 ];
+		distances = new double[ numTiles ];
+
+		final HashMap< Tile< ? >, Integer > indices = new HashMap< Tile< ? >, Integer >( 2 * numTiles );
+		int i = 0;
+		int n = 0;
+		for ( final Tile< ? > tile : tiles )
+		{
+			this.tiles[ i ] = tile;
+			fixed[ i ] = fixedTiles.contains( tile );
+			indices.put( tile, i );
+			matchOffsets[ i + 1 ] = matchOffsets[ i ] + tile.getMatches().size();
+			if ( n == 0 && tile.getMatches().size() > 0 )
+				n = tile.getMatches().iterator().next().getP1().getL().length;
+			++i;
+		}
+		numDimensions = n;
+		numMatches = matchOffsets[ numTiles ];
+
+		int numConnections = 0;
+		for ( i = 0; i < numTiles; ++i )
+		{
+			for ( final Tile< ? > t : this.tiles[ i ].getConnectedTiles() )
+				if ( indices.containsKey( t ) )
+					++numConnections;
+			adjacencyOffsets[ i + 1 ] = numConnections;
+		}
+		adjacency = new int[ numConnections ];
+		for ( i = 0; i < numTiles; ++i )
+		{
+			int c = adjacencyOffsets[ i ];
+			for ( final Tile< ? > t : this.tiles[ i ].getConnectedTiles() )
+			{
+				final Integer j = indices.get( t );
+				if ( j != null )
+					adjacency[ c++ ] = j;
+			}
+		}
+
+		l = new double[ numDimensions ][ numMatches ];
+		w = new double[ numDimensions ][ numMatches ];
+		q = new double[ numDimensions ][ numMatches ];
+		partners = new int[ numMatches ];
+		weights = new double[ numMatches ];
+		strengths = new double[ numMatches ];
+		points = new Point[ numMatches ];
+
+		final HashMap< Point, Integer > matchIndices = new HashMap< Point, Integer >( 2 * numMatches );
+		int k = 0;
+		for ( i = 0; i < numTiles; ++i )
+		{
+			final Model< ? > model = this.tiles[ i ].getModel();
+			if ( !( model instanceof StatisticsModel ) )
+				throw new IllegalArgumentException( "Model " + model.getClass().getSimpleName() + " does not support fitting to statistics." );
+			final Object statistics = ( ( StatisticsModel< ? > )model ).createStatistics();
+			if ( !( numDimensions == 2 && statistics instanceof PointMatchMoments2D || numDimensions == 3 && statistics instanceof PointMatchMoments3D ) )
+				throw new IllegalArgumentException( "Model " + model.getClass().getSimpleName() + " does not support fitting to " + numDimensions + "d moments." );
+			models[ i ] = ( StatisticsModel< ? > )model;
+
+			for ( final PointMatch pm : this.tiles[ i ].getMatches() )
+			{
+				final double[] pl = pm.getP1().getL();
+				final double[] pw = pm.getP1().getW();
+				final double[] qw = pm.getP2().getW();
+				if ( pl.length != numDimensions )
+					throw new IllegalArgumentException( "Matches have different numbers of dimensions." );
+				for ( int d = 0; d < numDimensions; ++d )
+				{
+					l[ d ][ k ] = pl[ d ];
+					w[ d ][ k ] = pw[ d ];
+					q[ d ][ k ] = qw[ d ];
+				}
+				weights[ k ] = pm.getWeight();
+				strengths[ k ] = pm.strength;
+				points[ k ] = pm.getP1();
+				matchIndices.put( pm.getP1(), k );
+				++k;
+			}
+		}
+
+		k = 0;
+		for ( i = 0; i < numTiles; ++i )
+		{
+			for ( final PointMatch pm : this.tiles[ i ].getMatches() )
+			{
+				final Integer partner = matchIndices.get( pm.getP2() );
+				partners[ k++ ] = partner == null ? -1 : partner;
+			}
+		}
+
+		x = new double[ numDimensions ];
+		moments = numDimensions == 3 ? new PointMatchMoments3D() : new PointMatchMoments2D();
+	}
+
+	public int getNumDimensions(){ return numDimensions; }
+	public int getNumTiles(){ return numTiles; }
+	public int getNumMatches(){ return numMatches; }
+	public Tile< ? > getTile( final int i ){ return tiles[ i ]; }
+	public boolean isFixed( final int i ){ return fixed[ i ]; }
+	public int[] getAdjacencyOffsets(){ return adjacencyOffsets; }
+	public int[] getAdjacency(){ return adjacency; }
+	public int[] getMatchOffsets(){ return matchOffsets; }
+	public double getError(){ return error; }
+	public double getMinError(){ return minError; }
+	public double getMaxError(){ return maxError; }
+
+	/**
+	 * Fit the model of tile i to its matches and apply it by a given amount.
+	 */
+	public void fitAndApply( final int i, final double amount ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		final int start = matchOffsets[ i ];
+		final int end = matchOffsets[ i + 1 ];
+		moments.clear();
+		if ( numDimensions == 2 )
+		{
+			final PointMatchMoments2D moments2D = ( PointMatchMoments2D )moments;
+			final double[] lx = l[ 0 ], ly = l[ 1 ];
+			for ( int k = start; k < end; ++k )
+			{
+				final int p = partners[ k ];
+				if ( p < 0 )
+					moments2D.add( lx[ k ], ly[ k ], q[ 0 ][ k ], q[ 1 ][ k ], weights[ k ] );
+				else
+					moments2D.add( lx[ k ], ly[ k ], w[ 0 ][ p ], w[ 1 ][ p ], weights[ k ] );
+			}
+		}
+		else
+		{
+			final PointMatchMoments3D moments3D = ( PointMatchMoments3D )moments;
+			final double[] lx = l[ 0 ], ly = l[ 1 ], lz = l[ 2 ];
+			for ( int k = start; k < end; ++k )
+			{
+				final int p = partners[ k ];
+				if ( p < 0 )
+					moments3D.add( lx[ k ], ly[ k ], lz[ k ], q[ 0 ][ k ], q[ 1 ][ k ], q[ 2 ][ k ], weights[ k ] );
+				else
+					moments3D.add( lx[ k ], ly[ k ], lz[ k ], w[ 0 ][ p ], w[ 1 ][ p ], w[ 2 ][ p ], weights[ k ] );
+			}
+		}
+		AbstractModel.fitStatistics( models[ i ], moments );
+		apply( i, amount );
+	}
+
+	/**
+	 * Apply the model of tile i to the local coordinates of its matches by a
+	 * given amount weighted by the match strength as by
+	 * {@link Tile#apply(double)}.
+	 */
+	public void apply( final int i, final double amount )
+	{
+		final CoordinateTransform model = ( CoordinateTransform )models[ i ];
+		for ( int k = matchOffsets[ i ]; k < matchOffsets[ i + 1 ]; ++k )
+		{
+			for ( int d = 0; d < numDimensions; ++d )
+				x[ d ] = l[ d ][ k ];
+			model.applyInPlace( x );
+			final double a = strengths[ k ] * amount;
+			for ( int d = 0; d < numDimensions; ++d )
+				w[ d ][ k ] += a * ( x[ d ] - w[ d ][ k ] );
+		}
+	}
+
+	/**
+	 * Apply the model of tile i to the local coordinates of its matches and
+	 * set their world coordinates as by {@link Tile#apply()}, i.e.
+	 * independent of the match strength.
+	 */
+	public void apply( final int i )
+	{
+		final CoordinateTransform model = ( CoordinateTransform )models[ i ];
+		for ( int k = matchOffsets[ i ]; k < matchOffsets[ i + 1 ]; ++k )
+		{
+			for ( int d = 0; d < numDimensions; ++d )
+				x[ d ] = l[ d ][ k ];
+			model.applyInPlace( x );
+			for ( int d = 0; d < numDimensions; ++d )
+				w[ d ][ k ] = x[ d ];
+		}
+	}
+
+	/**
+	 * Apply the models of all tiles.
+	 */
+	public void apply()
+	{
+		for ( int i = 0; i < numTiles; ++i )
+			apply( i );
+	}
+
+	/**
+	 * Update the mean distance of the matches of tile i as by
+	 * {@link Tile#updateCost()}.
+	 */
+	protected double updateDistance( final int i )
+	{
+		final int start = matchOffsets[ i ];
+		final int end = matchOffsets[ i + 1 ];
+		double sum = 0;
+		for ( int k = start; k < end; ++k )
+		{
+			final int p = partners[ k ];
+			final double[][] t = p < 0 ? q : w;
+			final int j = p < 0 ? k : p;
+			double s = 0;
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				final double dd = w[ d ][ k ] - t[ d ][ j ];
+				s += dd * dd;
+			}
+			sum += Math.sqrt( s );
+		}
+		final double distance = end > start ? sum / ( end - start ) : 0.0;
+		distances[ i ] = distance;
+		return distance;
+	}
+
+	/**
+	 * Estimate min/max/average displacement of all tiles.
+	 */
+	public void updateErrors()
+	{
+		double cd = 0.0;
+		minError = Double.MAX_VALUE;
+		maxError = 0.0;
+		for ( int i = 0; i < numTiles; ++i )
+		{
+			final double d = updateDistance( i );
+			if ( d < minError ) minError = d;
+			if ( d > maxError ) maxError = d;
+			cd += d;
+		}
+		error = cd / numTiles;
+	}
+
+	/**
+	 * Minimize the displacement of all matches of all non-fixed tiles as
+	 * {@link TileConfiguration#optimizeSilently(ErrorStatistic, double, int, int, double)}
+	 * does, without allocating.
+	 *
+	 * @param maxAllowedError do not accept convergence if error is &gt; max_error
+	 * @param maxIterations stop after that many iterations even if there was
+	 *   no minimum found
+	 * @param maxPlateauwidth convergence is reached if the average absolute
+	 *   slope in an interval of this size and half this size is smaller than
+	 *   0.0001 (in double accuracy).  This is assumed to prevent the algorithm
+	 *   from stopping at plateaus smaller than this value.
+	 */
+	public void optimize(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		int it = 0;
+
+		boolean proceed = it < maxIterations;
+
+		/* initialize the configuration with the current model of each tile */
+		apply();
+
+		while ( proceed )
+		{
+			for ( int i = 0; i < numTiles; ++i )
+			{
+				if ( fixed[ i ] ) continue;
+				fitAndApply( i, damp );
+			}
+			updateErrors();
+			observer.add( error );
+
+			if ( it > maxPlateauwidth )
+			{
+				proceed = error > maxAllowedError;
+
+				int d = maxPlateauwidth;
+				while ( !proceed && d >= 1 )
+				{
+					try
+					{
+						proceed |= Math.abs( observer.getWideSlope( d ) ) > 0.0001;
+					}
+					catch ( final Exception e ) { e.printStackTrace(); }
+					d /= 2;
+				}
+			}
+
+			proceed &= ++it < maxIterations;
+		}
+	}
+
+	/**
+	 * Write the world coordinates of all matches back into their
+	 * {@link Point Points}.  The models are shared with the
+	 * {@link Tile Tiles} and need not be written back.
+	 */
+	public void writeBack()
+	{
+		for ( int k = 0; k < numMatches; ++k )
+		{
+			final double[] pw = points[ k ].getW();
+			for ( int d = 0; d < numDimensions; ++d )
+				pw[ d ] = w[ d ][ k ];
+		}
+	}
+}
@@ -37,12 +37,20 @@
  */
 package mpicbg.models;
 
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * A {@link CoordinateTransform} that is saved as a LUT on integer coordinates.
+ * Use a {@link SampledCoordinateTransformMap2D} to store a transform on a
+ * subsampled grid.
  *
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
  */
@@ -50,6 +58,17 @@ public class CoordinateTransformMap2D implements CoordinateTransform
 {
 	private static final long serialVersionUID = 4762150526295594608L;
 
+	/**
+	 * Number of rows transformed by one task.
+	 */
+	final static protected int ROWS_PER_TASK = 16;
+
+	/**
+	 * Size of the header of the file format: width and height as unsigned
+	 * big endian 32 bit integers.
+	 */
+	final static public int HEADER_SIZE = 8;
+
 	/**
 	 * target coordinates addressed interleaved as
 	 * map[ row ][ 2 * column ] = x
@@ -89,87 +108,73 @@ public class CoordinateTransformMap2D implements CoordinateTransform
 		}
 	}
 
+	/**
+	 * Read a map of target coordinates as written by
+	 * {@link #export(FileOutputStream)}.  Rows are transferred in bulk.
+	 */
 	public CoordinateTransformMap2D( final FileInputStream fis ) throws IOException
 	{
-		final byte[] header = new byte[ 8 ];
-		fis.read( header );
+		final FileChannel channel = fis.getChannel();
+		final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+		readFully( channel, header );
+		header.flip();
 
 		/*
 		 * Unsigned integers have to be calculated as long thanks Java's lack
 		 * of unsigned basic types.
 		 */
-		final long longWidth = ( ( 0xffl & header[ 0 ] ) << 24 ) + ( ( 0xffl & header[ 1 ] ) << 16 ) + ( ( 0xffl & header[ 2 ] ) << 8 ) + ( 0xffl & header[ 3 ] );
+		final long longWidth = 0xffffffffL & header.getInt();
 		this.width = ( int )longWidth;
-		final long longHeight = ( ( 0xffL & header[ 4 ] ) << 24 ) + ( ( 0xffL & header[ 5 ] ) << 16 ) + ( ( 0xffL & header[ 6 ] ) << 8 ) + ( 0xffL & header[ 7 ] );
+		final long longHeight = 0xffffffffL & header.getInt();
 		this.height = ( int )longHeight;
 
 		map = new float[ height ][ 2 * width ];
 
-		final byte[] byteRow = new byte[ width * 8 ];
+		final ByteBuffer byteRow = ByteBuffer.allocateDirect( width * 8 );
+		final FloatBuffer floatRow = byteRow.asFloatBuffer();
 		for ( int y = 0; y < height; ++y )
 		{
-			fis.read( byteRow );
-
-			final float[] row = map[ y ];
-			for ( int i = 0; i < row.length; i += 2 )
-			{
-				final int j = 4 * i;
-				final int tx =
-					( ( 0xff & byteRow[ j ] ) << 24 ) |
-					( ( 0xff & byteRow[ j + 1 ] ) << 16 ) |
-					( ( 0xff & byteRow[ j + 2 ] ) << 8 ) |
-					( 0xff & byteRow[ j + 3 ] );
-				final int ty =
-					( ( 0xff & byteRow[ j + 4 ] ) << 24 ) |
-					( ( 0xff & byteRow[ j + 5 ] ) << 16 ) |
-					( ( 0xff & byteRow[ j + 6 ] ) << 8 ) |
-					( 0xff & byteRow[ j + 7 ] );
-
-				row[ i ] = Float.intBitsToFloat( tx );
-				row[ i + 1 ] = Float.intBitsToFloat( ty );
-			}
+			byteRow.clear();
+			readFully( channel, byteRow );
+			floatRow.clear();
+			floatRow.get( map[ y ] );
 		}
 	}
 
-	final public void export( final FileOutputStream fos ) throws IOException
+	final static protected void readFully( final ReadableByteChannel channel, final ByteBuffer buffer ) throws IOException
 	{
-		final byte[] header = new byte[ 8 ];
-
-		header[ 0 ] = ( byte )( width >> 24 );
-		header[ 1 ] = ( byte )( width >> 16 );
-		header[ 2 ] = ( byte )( width >> 8 );
-		header[ 3 ] = ( byte )width;
-
-		header[ 4 ] = ( byte )( height >> 24 );
-		header[ 5 ] = ( byte )( height >> 16 );
-		header[ 6 ] = ( byte )( height >> 8 );
-		header[ 7 ] = ( byte )height;
+		while ( buffer.hasRemaining() )
+			if ( channel.read( buffer ) < 0 )
+				throw new EOFException( "Unexpected end of map." );
+	}
 
-		fos.write( header );
+	final static protected void writeFully( final WritableByteChannel channel, final ByteBuffer buffer ) throws IOException
+	{
+		while ( buffer.hasRemaining() )
+			channel.write( buffer );
+	}
 
-		final byte[] byteRow = new byte[ width * 8 ];
+	/**
+	 * Export a map of target coordinates on integer locations.  Rows are
+	 * transferred in bulk.
+	 */
+	final public void export( final FileOutputStream fos ) throws IOException
+	{
+		final FileChannel channel = fos.getChannel();
+		final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+		header.putInt( width );
+		header.putInt( height );
+		header.flip();
+		writeFully( channel, header );
+
+		final ByteBuffer byteRow = ByteBuffer.allocateDirect( width * 8 );
+		final FloatBuffer floatRow = byteRow.asFloatBuffer();
 		for ( int y = 0; y < height; ++y )
 		{
-			final float[] row = map[ y ];
-			for ( int i = 0; i < row.length; i += 2 )
-			{
-				final int j = 4 * i;
-
-				final int tx = Float.floatToIntBits( row[ i ] );
-				final int ty = Float.floatToIntBits( row[ i + 1 ] );
-
-				byteRow[ j ] = ( byte )( tx >> 24 );
-				byteRow[ j + 1 ] = ( byte )( tx >> 16 );
-				byteRow[ j + 2 ] = ( byte )( tx >> 8 );
-				byteRow[ j + 3 ] = ( byte )tx;
-
-				byteRow[ j + 4 ] = ( byte )( ty >> 24 );
-				byteRow[ j + 5 ] = ( byte )( ty >> 16 );
-				byteRow[ j + 6 ] = ( byte )( ty >> 8 );
-				byteRow[ j + 7 ] = ( byte )ty;
-			}
-
-			fos.write( byteRow );
+			floatRow.clear();
+			floatRow.put( map[ y ] );
+			byteRow.clear();
+			writeFully( channel, byteRow );
 		}
 		fos.close();
 	}
@@ -21,6 +21,9 @@
  */
 package mpicbg.models;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Collections;
 import java.lang.IndexOutOfBoundsException;
 
@@ -119,4 +122,69 @@ public class ErrorStatistic
 		median = 0;
 		
 	}
+	
+	/**
+	 * Write the complete state including the ring buffers.
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write( final DataOutput out ) throws IOException
+	{
+		write( out, values );
+		write( out, slope );
+		write( out, sortedValues );
+		
+		out.writeDouble( var0 );
+		out.writeDouble( var );
+		out.writeDouble( std0 );
+		out.writeDouble( std );
+		out.writeDouble( mean );
+		out.writeDouble( median );
+		out.writeDouble( squareDifferences );
+		out.writeDouble( squares );
+		out.writeDouble( min );
+		out.writeDouble( max );
+	}
+	
+	/**
+	 * Restore the complete state as written by {@link #write(DataOutput)}.
+	 * 
+	 * @param in
+	 * @throws IOException
+	 */
+	public void read( final DataInput in ) throws IOException
+	{
+		read( in, values );
+		read( in, slope );
+		read( in, sortedValues );
+		
+		var0 = in.readDouble();
+		var = in.readDouble();
+		std0 = in.readDouble();
+		std = in.readDouble();
+		mean = in.readDouble();
+		median = in.readDouble();
+		squareDifferences = in.readDouble();
+		squares = in.readDouble();
+		min = in.readDouble();
+		max = in.readDouble();
+	}
+	
+	static protected void write( final DataOutput out, final RingBuffer< Double > buffer ) throws IOException
+	{
+		out.writeInt( buffer.nextIndex() );
+		out.writeInt( buffer.size() );
+		for ( int i = buffer.nextIndex() - buffer.size(); i < buffer.nextIndex(); ++i )
+			out.writeDouble( buffer.get( i ) );
+	}
+	
+	static protected void read( final DataInput in, final RingBuffer< Double > buffer ) throws IOException
+	{
+		final int nextIndex = in.readInt();
+		final int size = in.readInt();
+		buffer.clear( nextIndex - size );
+		for ( int i = 0; i < size; ++i )
+			buffer.add( in.readDouble() );
+	}
 }
@@ -40,6 +40,7 @@ package mpicbg.models;
 import java.util.Collection;
 
 import mpicbg.util.Matrix3x3;
+import Jama.EigenvalueDecomposition;
 import Jama.Matrix;
 import Jama.SingularValueDecomposition;
 
@@ -72,7 +73,7 @@ import Jama.SingularValueDecomposition;
  *
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
  */
-public class HomographyModel2D extends AbstractModel< HomographyModel2D > implements InvertibleBoundable
+public class HomographyModel2D extends AbstractModel< HomographyModel2D > implements InvertibleBoundable, StatisticsModel< HomographyNormalEquations2D >
 {
 	private static final long serialVersionUID = -6363462467119993852L;
 
@@ -398,6 +399,84 @@ public class HomographyModel2D extends AbstractModel< HomographyModel2D > implem
 		}
 	}
 
+	@Override
+	public HomographyNormalEquations2D createStatistics()
+	{
+		return new HomographyNormalEquations2D();
+	}
+
+	/**
+	 * Least squares solution of the accumulated
+	 * {@link HomographyNormalEquations2D normal equations} of the direct
+	 * linear transformation in
+	 * {@link HomographyNormalEquations2D#normalize(double[], double[], double[]) normalized}
+	 * coordinates.  This is not the same estimate as that of
+	 * {@link #fit(Collection)}, {@link AbstractModel#filter(Collection, Collection, double, int)}
+	 * therefore does not use it.
+	 *
+	 * @param normalEquations
+	 * @throws NotEnoughDataPointsException
+	 */
+	@Override
+	final public void fit( final HomographyNormalEquations2D normalEquations ) throws NotEnoughDataPointsException
+	{
+		if ( normalEquations.n < MIN_NUM_MATCHES ) throw new NotEnoughDataPointsException( normalEquations.n + " data points are not enough to estimate a 2d homography model, at least " + MIN_NUM_MATCHES + " data points required." );
+
+		final double[] normalized = new double[ 81 ];
+		final double[] tp = new double[ 9 ];
+		final double[] tqInverse = new double[ 9 ];
+		normalEquations.normalize( normalized, tp, tqInverse );
+
+		final double[][] a = new double[ 9 ][ 9 ];
+		for ( int i = 0; i < 9; ++i )
+			for ( int j = i; j < 9; ++j )
+				a[ i ][ j ] = a[ j ][ i ] = normalized[ i * 9 + j ];
+
+		final EigenvalueDecomposition evd = new EigenvalueDecomposition( new Matrix( a ) );
+		final double[] eigenvalues = evd.getRealEigenvalues();
+		final Matrix v = evd.getV();
+
+		int index = 0;
+		for ( int i = 1; i < 9; ++i )
+			if ( eigenvalues[ i ] < eigenvalues[ index ] )
+				index = i;
+
+		cost = Math.sqrt( Math.max( 0, eigenvalues[ index ] ) );
+
+		/* H = tqInverse H_n tp */
+		final double[] h = new double[ 9 ];
+		for ( int i = 0; i < 9; ++i )
+			h[ i ] = v.get( i, index );
+
+		final double[] hTp = new double[ 9 ];
+		for ( int r = 0; r < 3; ++r )
+			for ( int c = 0; c < 3; ++c )
+				hTp[ r * 3 + c ] = h[ r * 3 ] * tp[ c ] + h[ r * 3 + 1 ] * tp[ 3 + c ] + h[ r * 3 + 2 ] * tp[ 6 + c ];
+
+		double norm = 0;
+		for ( int r = 0; r < 3; ++r )
+			for ( int c = 0; c < 3; ++c )
+			{
+				final double x = tqInverse[ r * 3 ] * hTp[ c ] + tqInverse[ r * 3 + 1 ] * hTp[ 3 + c ] + tqInverse[ r * 3 + 2 ] * hTp[ 6 + c ];
+				h[ r * 3 + c ] = x;
+				norm += x * x;
+			}
+		norm = Math.sqrt( norm );
+
+		/* unit norm as the singular vector in fit( Collection ) */
+		m00 = h[ 0 ] / norm;
+		m01 = h[ 1 ] / norm;
+		m02 = h[ 2 ] / norm;
+		m10 = h[ 3 ] / norm;
+		m11 = h[ 4 ] / norm;
+		m12 = h[ 5 ] / norm;
+		m20 = h[ 6 ] / norm;
+		m21 = h[ 7 ] / norm;
+		m22 = h[ 8 ] / norm;
+
+		invert();
+	}
+
 	@Override
 	public String toString()
 	{
@@ -0,0 +1,395 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.util.Collection;
+
+/**
+ * Normal equations A<sup>T</sup>A of the direct linear transformation
+ * (DLT) of 2d {@link PointMatch PointMatches} for the estimation of a
+ * {@link HomographyModel2D}.  Each match contributes the two rows
+ * <pre>
+ * ( -x, -y, -1,  0,  0,  0, u x, u y, u )
+ * (  0,  0,  0, -x, -y, -1, v x, v y, v )
+ * </pre>
+ * of A, with (x, y) the local coordinates of {@link PointMatch#getP1() p1}
+ * and (u, v) the world coordinates of {@link PointMatch#getP2() p2}.  As in
+ * {@link HomographyModel2D#fit(Collection)}, the weights of the matches are
+ * ignored.
+ * <p>
+ * Coordinates are accumulated relative to a local origin, the coordinates
+ * of the first accumulated match, which keeps the entries of
+ * A<sup>T</sup>A small.  A change of the coordinate frames of the source
+ * and target points is a linear map K of the homography parameters, the
+ * normal equations in the new frames are K<sup>T</sup>A<sup>T</sup>AK.
+ * This is used to {@link #merge(HomographyNormalEquations2D) merge}
+ * normal equations with different local origins and to express the normal
+ * equations in normalized coordinates as suggested by \citet{Hartley97}
+ * (centroid at the origin, RMS distance from the origin &radic;2) before
+ * solving them.  For data that are not exactly explained by a homography,
+ * the result therefore differs from that of the unnormalized
+ * {@link HomographyModel2D#fit(Collection)}.
+ * </p>
+ *
+ * BibTeX:
+ * <pre>
+ * &#64;article{Hartley97,
+ *   author    = {Richard I. Hartley},
+ *   title     = {In defense of the eight-point algorithm},
+ *   journal   = {IEEE Transactions on Pattern Analysis and Machine Intelligence},
+ *   volume    = {19},
+ *   number    = {6},
+ *   year      = {1997},
+ *   pages     = {580--593},
+ * }
+ * </pre>
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+public class HomographyNormalEquations2D implements PointMatchStatistics< HomographyNormalEquations2D >
+{
+	final static private int[] ROW1 = new int[]{ 0, 1, 2, 6, 7, 8 };
+	final static private int[] ROW2 = new int[]{ 3, 4, 5, 6, 7, 8 };
+
+	protected int n = 0;
+
+	/* local origin */
+	protected double opx = 0, opy = 0;
+	protected double oqx = 0, oqy = 0;
+
+	/* sums of coordinates and squared coordinates relative to the local origin */
+	protected double spx = 0, spy = 0, spp = 0;
+	protected double sqx = 0, sqy = 0, sqq = 0;
+
+	/**
+	 * Upper triangle of the symmetric 9&times;9 matrix A<sup>T</sup>A in
+	 * row-major order, the lower triangle is not used.
+	 */
+	final protected double[] ata = new double[ 81 ];
+
+	/* non-zero entries of the two rows of A for a single match */
+	final private double[] r = new double[ 6 ];
+
+	@Override
+	public int getNumMatches()
+	{
+		return n;
+	}
+
+	@Override
+	public void clear()
+	{
+		n = 0;
+		opx = opy = oqx = oqy = 0;
+		spx = spy = spp = sqx = sqy = sqq = 0;
+		for ( int i = 0; i < ata.length; ++i )
+			ata[ i ] = 0;
+	}
+
+	/**
+	 * Add the outer product of the non-zero entries {@link #r} of a row of A
+	 * at columns idx scaled by s to {@link #ata}.
+	 */
+	final private void accumulate( final int[] idx, final double s )
+	{
+		for ( int i = 0; i < 6; ++i )
+		{
+			final int k = idx[ i ] * 9;
+			final double ri = s * r[ i ];
+			for ( int j = i; j < 6; ++j )
+				ata[ k + idx[ j ] ] += ri * r[ j ];
+		}
+	}
+
+	/**
+	 * Replace non-finite coordinates the same way as
+	 * {@link HomographyModel2D#fit(Collection)} does.
+	 */
+	final static private double finite( final double x )
+	{
+		return Double.isInfinite( x ) || Double.isNaN( x ) ? 1 : x;
+	}
+
+	final private void accumulate(
+			final double px,
+			final double py,
+			final double qx,
+			final double qy,
+			final double s )
+	{
+		final double x = finite( px ) - opx;
+		final double y = finite( py ) - opy;
+		final double u = finite( qx ) - oqx;
+		final double v = finite( qy ) - oqy;
+
+		spx += s * x;
+		spy += s * y;
+		spp += s * ( x * x + y * y );
+		sqx += s * u;
+		sqy += s * v;
+		sqq += s * ( u * u + v * v );
+
+		r[ 0 ] = -x;
+		r[ 1 ] = -y;
+		r[ 2 ] = -1;
+		r[ 3 ] = u * x;
+		r[ 4 ] = u * y;
+		r[ 5 ] = u;
+		accumulate( ROW1, s );
+
+		r[ 3 ] = v * x;
+		r[ 4 ] = v * y;
+		r[ 5 ] = v;
+		accumulate( ROW2, s );
+	}
+
+	/**
+	 * Accumulate a match from p to q.
+	 *
+	 * @param px
+	 * @param py
+	 * @param qx
+	 * @param qy
+	 */
+	final public void add(
+			final double px,
+			final double py,
+			final double qx,
+			final double qy )
+	{
+		if ( n == 0 )
+		{
+			opx = finite( px );
+			opy = finite( py );
+			oqx = finite( qx );
+			oqy = finite( qy );
+		}
+		++n;
+		accumulate( px, py, qx, qy, 1 );
+	}
+
+	/**
+	 * Remove a previously accumulated match from p to q.
+	 *
+	 * @param px
+	 * @param py
+	 * @param qx
+	 * @param qy
+	 */
+	final public void remove(
+			final double px,
+			final double py,
+			final double qx,
+			final double qy )
+	{
+		if ( --n == 0 )
+			clear();
+		else
+			accumulate( px, py, qx, qy, -1 );
+	}
+
+	@Override
+	final public void add( final PointMatch match )
+	{
+		final double[] p = match.getP1().getL();
+		final double[] q = match.getP2().getW();
+		add( p[ 0 ], p[ 1 ], q[ 0 ], q[ 1 ] );
+	}
+
+	@Override
+	final public void remove( final PointMatch match )
+	{
+		final double[] p = match.getP1().getL();
+		final double[] q = match.getP2().getW();
+		remove( p[ 0 ], p[ 1 ], q[ 0 ], q[ 1 ] );
+	}
+
+	@Override
+	final public void add( final Collection< ? extends PointMatch > matches )
+	{
+		for ( final PointMatch match : matches )
+			add( match );
+	}
+
+	@Override
+	final public void remove( final Collection< ? extends PointMatch > matches )
+	{
+		for ( final PointMatch match : matches )
+			remove( match );
+	}
+
+	/**
+	 * Express normal equations in different coordinate frames.  With
+	 * H<sub>src</sub> = a H<sub>dst</sub> b, the parameters are related by
+	 * h<sub>src</sub> = K h<sub>dst</sub>, and
+	 * K<sup>T</sup>N<sub>src</sub>K is added to nDst.
+	 *
+	 * @param nSrc upper triangle of the normal equations in the source frame
+	 * @param a row-major 3&times;3 matrix
+	 * @param b row-major 3&times;3 matrix
+	 * @param nDst upper triangle of the normal equations in the destination
+	 *   frame
+	 */
+	final static protected void addTransformed(
+			final double[] nSrc,
+			final double[] a,
+			final double[] b,
+			final double[] nDst )
+	{
+		final double[] k = new double[ 81 ];
+		for ( int r = 0; r < 3; ++r )
+			for ( int c = 0; c < 3; ++c )
+				for ( int i = 0; i < 3; ++i )
+					for ( int j = 0; j < 3; ++j )
+						k[ ( i * 3 + j ) * 9 + r * 3 + c ] = a[ i * 3 + r ] * b[ c * 3 + j ];
+
+		/* N K with N the full symmetric matrix */
+		final double[] nk = new double[ 81 ];
+		for ( int i = 0; i < 9; ++i )
+			for ( int j = 0; j < 9; ++j )
+			{
+				double s = 0;
+				for ( int l = 0; l < 9; ++l )
+					s += ( l < i ? nSrc[ l * 9 + i ] : nSrc[ i * 9 + l ] ) * k[ l * 9 + j ];
+				nk[ i * 9 + j ] = s;
+			}
+
+		/* K^T N K */
+		for ( int i = 0; i < 9; ++i )
+			for ( int j = i; j < 9; ++j )
+			{
+				double s = 0;
+				for ( int l = 0; l < 9; ++l )
+					s += k[ l * 9 + i ] * nk[ l * 9 + j ];
+				nDst[ i * 9 + j ] += s;
+			}
+	}
+
+	/**
+	 * Accumulate all matches of another {@link HomographyNormalEquations2D}.
+	 * If the local origins differ, the other's normal equations are
+	 * transformed into this local origin.
+	 *
+	 * @param other
+	 */
+	@Override
+	final public void merge( final HomographyNormalEquations2D other )
+	{
+		if ( other.n == 0 )
+			return;
+
+		if ( n == 0 )
+		{
+			set( other );
+			return;
+		}
+
+		final double dpx = other.opx - opx, dpy = other.opy - opy;
+		final double dqx = other.oqx - oqx, dqy = other.oqy - oqy;
+
+		/* H_other = T( -dq ) H T( dp ) */
+		addTransformed(
+				other.ata,
+				new double[]{ 1, 0, -dqx, 0, 1, -dqy, 0, 0, 1 },
+				new double[]{ 1, 0, dpx, 0, 1, dpy, 0, 0, 1 },
+				ata );
+
+		spp += other.spp + 2 * ( dpx * other.spx + dpy * other.spy ) + other.n * ( dpx * dpx + dpy * dpy );
+		sqq += other.sqq + 2 * ( dqx * other.sqx + dqy * other.sqy ) + other.n * ( dqx * dqx + dqy * dqy );
+		spx += other.spx + other.n * dpx;
+		spy += other.spy + other.n * dpy;
+		sqx += other.sqx + other.n * dqx;
+		sqy += other.sqy + other.n * dqy;
+
+		n += other.n;
+	}
+
+	/**
+	 * Express the normal equations in normalized coordinates, centroid at
+	 * the origin and RMS distance from the origin &radic;2, for source and
+	 * target points.  A homography H<sub>n</sub> estimated in normalized
+	 * coordinates maps the original coordinates as
+	 * H = tqInverse H<sub>n</sub> tp.
+	 *
+	 * @param normalized upper triangle of the normalized normal equations,
+	 *   9&times;9, row-major
+	 * @param tp row-major 3&times;3 normalization of source coordinates
+	 * @param tqInverse row-major 3&times;3 inverse normalization of target
+	 *   coordinates
+	 */
+	final public void normalize(
+			final double[] normalized,
+			final double[] tp,
+			final double[] tqInverse )
+	{
+		final double cpx = spx / n, cpy = spy / n;
+		final double cqx = sqx / n, cqy = sqy / n;
+
+		final double vp = spp / n - cpx * cpx - cpy * cpy;
+		final double vq = sqq / n - cqx * cqx - cqy * cqy;
+
+		final double sp = vp > 0 ? Math.sqrt( 2 / vp ) : 1;
+		final double sq = vq > 0 ? Math.sqrt( 2 / vq ) : 1;
+
+		/* normalization relative to the local origin, H_local = a H_n b */
+		final double[] a = new double[]{ 1 / sq, 0, cqx, 0, 1 / sq, cqy, 0, 0, 1 };
+		final double[] b = new double[]{ sp, 0, -sp * cpx, 0, sp, -sp * cpy, 0, 0, 1 };
+
+		for ( int i = 0; i < 81; ++i )
+			normalized[ i ] = 0;
+		addTransformed( ata, a, b, normalized );
+
+		/* H = T( oq ) H_local T( -op ) */
+		tp[ 0 ] = sp; tp[ 1 ] = 0; tp[ 2 ] = -sp * ( cpx + opx );
+		tp[ 3 ] = 0; tp[ 4 ] = sp; tp[ 5 ] = -sp * ( cpy + opy );
+		tp[ 6 ] = 0; tp[ 7 ] = 0; tp[ 8 ] = 1;
+
+		tqInverse[ 0 ] = 1 / sq; tqInverse[ 1 ] = 0; tqInverse[ 2 ] = cqx + oqx;
+		tqInverse[ 3 ] = 0; tqInverse[ 4 ] = 1 / sq; tqInverse[ 5 ] = cqy + oqy;
+		tqInverse[ 6 ] = 0; tqInverse[ 7 ] = 0; tqInverse[ 8 ] = 1;
+	}
+
+	@Override
+	public void set( final HomographyNormalEquations2D other )
+	{
+		n = other.n;
+		opx = other.opx;
+		opy = other.opy;
+		oqx = other.oqx;
+		oqy = other.oqy;
+		spx = other.spx;
+		spy = other.spy;
+		spp = other.spp;
+		sqx = other.sqx;
+		sqy = other.sqy;
+		sqq = other.sqq;
+		System.arraycopy( other.ata, 0, ata, 0, ata.length );
+	}
+
+	@Override
+	public HomographyNormalEquations2D copy()
+	{
+		final HomographyNormalEquations2D c = new HomographyNormalEquations2D();
+		c.set( this );
+		return c;
+	}
+}
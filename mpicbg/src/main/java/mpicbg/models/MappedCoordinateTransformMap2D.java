@@ -0,0 +1,290 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link CoordinateTransform} that is saved as a LUT on integer coordinates
+ * in a memory mapped file.  The file format is that of
+ * {@link CoordinateTransformMap2D#export(FileOutputStream)}, i.e. maps can
+ * be exchanged between both classes.  The file is mapped in chunks of rows
+ * that are accessed through direct {@link FloatBuffer FloatBuffers}, such
+ * that opening a map is instantaneous and its data is paged in on demand
+ * instead of occupying the heap.
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+public class MappedCoordinateTransformMap2D implements CoordinateTransform
+{
+	private static final long serialVersionUID = -2311563264810851823L;
+
+	/**
+	 * Maximal size of one mapped chunk in bytes, a chunk contains at least
+	 * one row.
+	 */
+	final static public long CHUNK_SIZE = 1L << 28;
+
+	final protected File file;
+
+	final protected int width;
+	final protected int height;
+	final protected int rowsPerChunk;
+
+	/**
+	 * target coordinates of chunk c addressed interleaved as
+	 * chunks[ c ].get( 2 * ( row * width + column ) ) = x
+	 * chunks[ c ].get( 2 * ( row * width + column ) + 1 ) = y
+	 * with row relative to the first row c * rowsPerChunk of the chunk
+	 */
+	transient protected FloatBuffer[] chunks;
+
+	final public int getWidth(){ return width; }
+	final public int getHeight(){ return height; }
+	final public File getFile(){ return file; }
+
+	final static protected int rowsPerChunk( final int width, final int height )
+	{
+		return ( int )Math.max( 1, Math.min( height, CHUNK_SIZE / ( 8L * width ) ) );
+	}
+
+	final static protected MappedByteBuffer[] map(
+			final FileChannel channel,
+			final MapMode mode,
+			final int width,
+			final int height,
+			final int rowsPerChunk ) throws IOException
+	{
+		final int numChunks = ( height + rowsPerChunk - 1 ) / rowsPerChunk;
+		final MappedByteBuffer[] buffers = new MappedByteBuffer[ numChunks ];
+		for ( int c = 0; c < numChunks; ++c )
+		{
+			final long firstRow = ( long )c * rowsPerChunk;
+			final long numRows = Math.min( rowsPerChunk, height - firstRow );
+			buffers[ c ] = channel.map(
+					mode,
+					CoordinateTransformMap2D.HEADER_SIZE + 8L * width * firstRow,
+					8L * width * numRows );
+		}
+		return buffers;
+	}
+
+	final static protected FloatBuffer[] asFloatBuffers( final MappedByteBuffer[] buffers )
+	{
+		final FloatBuffer[] floatBuffers = new FloatBuffer[ buffers.length ];
+		for ( int c = 0; c < buffers.length; ++c )
+			floatBuffers[ c ] = buffers[ c ].asFloatBuffer();
+		return floatBuffers;
+	}
+
+	protected MappedCoordinateTransformMap2D(
+			final File file,
+			final int width,
+			final int height,
+			final FloatBuffer[] chunks )
+	{
+		this.file = file;
+		this.width = width;
+		this.height = height;
+		rowsPerChunk = rowsPerChunk( width, height );
+		this.chunks = chunks;
+	}
+
+	/**
+	 * Open a map for reading.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public MappedCoordinateTransformMap2D( final File file ) throws IOException
+	{
+		this.file = file;
+		try ( final RandomAccessFile raf = new RandomAccessFile( file, "r" ) )
+		{
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer header = ByteBuffer.allocate( CoordinateTransformMap2D.HEADER_SIZE );
+			CoordinateTransformMap2D.readFully( channel, header );
+			header.flip();
+			width = ( int )( 0xffffffffL & header.getInt() );
+			height = ( int )( 0xffffffffL & header.getInt() );
+			if ( channel.size() < CoordinateTransformMap2D.HEADER_SIZE + 8L * width * height )
+				throw new IOException( "Map " + file + " is truncated." );
+			rowsPerChunk = rowsPerChunk( width, height );
+			chunks = asFloatBuffers( map( channel, MapMode.READ_ONLY, width, height, rowsPerChunk ) );
+		}
+	}
+
+	/**
+	 * Create a map of a {@link CoordinateTransform} on integer coordinates
+	 * in a file.  Blocks of rows are written concurrently into the mapped
+	 * file and flushed to the storage device before returning.
+	 *
+	 * @param t the transform, must be concurrency safe if an
+	 *   <em>executor</em> is passed
+	 * @param width
+	 * @param height
+	 * @param file existing files will be overwritten
+	 * @param executor if null, rows are written in the calling thread
+	 * @throws IOException
+	 */
+	static public MappedCoordinateTransformMap2D create(
+			final CoordinateTransform t,
+			final int width,
+			final int height,
+			final File file,
+			final ExecutorService executor ) throws IOException
+	{
+		final int rowsPerChunk = rowsPerChunk( width, height );
+		final MappedByteBuffer[] buffers;
+		try ( final RandomAccessFile raf = new RandomAccessFile( file, "rw" ) )
+		{
+			raf.setLength( CoordinateTransformMap2D.HEADER_SIZE + 8L * width * height );
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer header = ByteBuffer.allocate( CoordinateTransformMap2D.HEADER_SIZE );
+			header.putInt( width );
+			header.putInt( height );
+			header.flip();
+			channel.position( 0 );
+			CoordinateTransformMap2D.writeFully( channel, header );
+			buffers = map( channel, MapMode.READ_WRITE, width, height, rowsPerChunk );
+		}
+
+		final FloatBuffer[] chunks = asFloatBuffers( buffers );
+		final MappedCoordinateTransformMap2D map = new MappedCoordinateTransformMap2D( file, width, height, chunks );
+
+		final ArrayList< Future< ? > > tasks = new ArrayList< Future< ? > >();
+		for ( int y = 0; y < height; y += CoordinateTransformMap2D.ROWS_PER_TASK )
+		{
+			final int firstRow = y;
+			final int lastRow = Math.min( height, y + CoordinateTransformMap2D.ROWS_PER_TASK );
+			if ( executor == null )
+				map.writeRows( t, firstRow, lastRow );
+			else
+				tasks.add( executor.submit( () -> map.writeRows( t, firstRow, lastRow ) ) );
+		}
+		for ( final Future< ? > task : tasks )
+		{
+			try
+			{
+				task.get();
+			}
+			catch ( final InterruptedException | ExecutionException e )
+			{
+				throw new RuntimeException( e );
+			}
+		}
+
+		for ( final MappedByteBuffer buffer : buffers )
+			buffer.force();
+
+		return map;
+	}
+
+	final protected void writeRows( final CoordinateTransform t, final int firstRow, final int lastRow )
+	{
+		final double[] l = new double[ 2 ];
+		final float[] row = new float[ 2 * width ];
+		for ( int y = firstRow; y < lastRow; ++y )
+		{
+			for ( int x = 0; x < width; ++x )
+			{
+				l[ 0 ] = x;
+				l[ 1 ] = y;
+				t.applyInPlace( l );
+				row[ 2 * x ] = ( float )l[ 0 ];
+				row[ 2 * x + 1 ] = ( float )l[ 1 ];
+			}
+			final FloatBuffer chunk = chunks[ y / rowsPerChunk ].duplicate();
+			chunk.position( 2 * ( y % rowsPerChunk ) * width );
+			chunk.put( row );
+		}
+	}
+
+	/**
+	 * Copy the interleaved target coordinates of a row in bulk.
+	 *
+	 * @param y
+	 * @param row at least 2 * width floats
+	 */
+	final public void getRow( final int y, final float[] row )
+	{
+		final FloatBuffer chunk = chunks[ y / rowsPerChunk ].duplicate();
+		chunk.position( 2 * ( y % rowsPerChunk ) * width );
+		chunk.get( row, 0, 2 * width );
+	}
+
+	/**
+	 * Load the complete map into a {@link CoordinateTransformMap2D} on the
+	 * heap.
+	 */
+	public CoordinateTransformMap2D toCoordinateTransformMap2D()
+	{
+		final float[][] map = new float[ height ][ 2 * width ];
+		for ( int y = 0; y < height; ++y )
+			getRow( y, map[ y ] );
+		return new CoordinateTransformMap2D( map );
+	}
+
+	@Override
+	final public double[] apply( final double[] location )
+	{
+		final double[] t = location.clone();
+		applyInPlace( t );
+		return t;
+	}
+
+	@Override
+	final public void applyInPlace( final double[] location )
+	{
+		final int ix = ( int )location[ 0 ];
+		final int iy = ( int )location[ 1 ];
+		final FloatBuffer chunk = chunks[ iy / rowsPerChunk ];
+		final int i = 2 * ( ( iy % rowsPerChunk ) * width + ix );
+		location[ 0 ] = chunk.get( i );
+		location[ 1 ] = chunk.get( i + 1 );
+	}
+
+	/**
+	 * Serialized maps store the file only, deserialization maps it again.
+	 */
+	private void readObject( final ObjectInputStream in ) throws IOException, ClassNotFoundException
+	{
+		in.defaultReadObject();
+		try ( final RandomAccessFile raf = new RandomAccessFile( file, "r" ) )
+		{
+			chunks = asFloatBuffers( map( raf.getChannel(), MapMode.READ_ONLY, width, height, rowsPerChunk ) );
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.util.Collection;
+
+/**
+ * Packed, structure-of-arrays representation of a {@link Collection} of
+ * {@link PointMatch PointMatches}.  The local coordinates of all
+ * {@link PointMatch#getP1() p1}, the world coordinates of all
+ * {@link PointMatch#getP2() p2} and the weights are copied into contiguous
+ * arrays in the layout expected by
+ * {@link Model#fit(double[][], double[][], double[])}, e.g. four 2d matches
+ * as:
+ * <pre><code>
+ * double[][]{
+ *   {x<sub>1</sub>, x<sub>2</sub>, x<sub>3</sub>, x<sub>4</sub>},
+ *   {y<sub>1</sub>, y<sub>2</sub>, y<sub>3</sub>, y<sub>4</sub>} }
+ * </code></pre>
+ * <p>
+ * The i-th element of each array corresponds to the i-th
+ * {@link PointMatch} in iteration order of the packed {@link Collection}.
+ * Transfer errors can be calculated for all matches at once without
+ * modifying the {@link PointMatch PointMatches}.  For {@link Affine2D} and
+ * {@link Affine3D} transformations, this is a tight loop over primitive
+ * arrays.  Instances are not modified after construction and can be shared
+ * by concurrent threads.
+ * </p>
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+public class PackedPointMatches
+{
+	final protected int numDimensions;
+	final protected int size;
+
+	/**
+	 * Local coordinates of p1, {@code p[ d ][ i ]}
+	 */
+	final protected double[][] p;
+
+	/**
+	 * World coordinates of p2, {@code q[ d ][ i ]}
+	 */
+	final protected double[][] q;
+
+	/**
+	 * Weights, {@code w[ i ]}
+	 */
+	final protected double[] w;
+
+	public PackedPointMatches( final Collection< ? extends PointMatch > matches )
+	{
+		size = matches.size();
+		numDimensions = size == 0 ? 0 : matches.iterator().next().getP1().getL().length;
+
+		p = new double[ numDimensions ][ size ];
+		q = new double[ numDimensions ][ size ];
+		w = new double[ size ];
+
+		int i = 0;
+		for ( final PointMatch match : matches )
+		{
+			final double[] l = match.getP1().getL();
+			final double[] t = match.getP2().getW();
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				p[ d ][ i ] = l[ d ];
+				q[ d ][ i ] = t[ d ];
+			}
+			w[ i ] = match.getWeight();
+			++i;
+		}
+	}
+
+	/**
+	 * Wrap existing arrays, they are referenced, not copied.
+	 *
+	 * @param p local coordinates of p1, {@code p[ d ][ i ]}
+	 * @param q world coordinates of p2, {@code q[ d ][ i ]}
+	 * @param w weights, {@code w[ i ]}
+	 */
+	public PackedPointMatches( final double[][] p, final double[][] q, final double[] w )
+	{
+		this.p = p;
+		this.q = q;
+		this.w = w;
+
+		numDimensions = p.length;
+		size = w.length;
+	}
+
+	public int numDimensions(){ return numDimensions; }
+	public int size(){ return size; }
+	public double[][] getP(){ return p; }
+	public double[][] getQ(){ return q; }
+	public double[] getW(){ return w; }
+
+	/**
+	 * Calculate the transfer error, i.e. the Euclidean distance between the
+	 * transferred p1 and p2, of all matches.  Each call allocates a single
+	 * small array for the affine matrix or the transferred location,
+	 * independent of {@link #size()}, such that concurrent threads can
+	 * share this instance.
+	 *
+	 * @param t transfers p1 into the space of p2
+	 * @param distances receives the transfer errors, at least {@link #size()}
+	 *   elements
+	 */
+	public void distances( final CoordinateTransform t, final double[] distances )
+	{
+		if ( numDimensions == 2 && t instanceof Affine2D )
+		{
+			final double[] m = new double[ 6 ];
+			( ( Affine2D< ? > )t ).toArray( m );
+			final double m00 = m[ 0 ], m10 = m[ 1 ], m01 = m[ 2 ], m11 = m[ 3 ], m02 = m[ 4 ], m12 = m[ 5 ];
+			final double[] px = p[ 0 ], py = p[ 1 ], qx = q[ 0 ], qy = q[ 1 ];
+			for ( int i = 0; i < size; ++i )
+			{
+				final double dx = px[ i ] * m00 + py[ i ] * m01 + m02 - qx[ i ];
+				final double dy = px[ i ] * m10 + py[ i ] * m11 + m12 - qy[ i ];
+				distances[ i ] = Math.sqrt( dx * dx + dy * dy );
+			}
+		}
+		else if ( numDimensions == 3 && t instanceof Affine3D )
+		{
+			final double[] m = new double[ 12 ];
+			( ( Affine3D< ? > )t ).toArray( m );
+			final double
+					m00 = m[ 0 ], m10 = m[ 1 ], m20 = m[ 2 ],
+					m01 = m[ 3 ], m11 = m[ 4 ], m21 = m[ 5 ],
+					m02 = m[ 6 ], m12 = m[ 7 ], m22 = m[ 8 ],
+					m03 = m[ 9 ], m13 = m[ 10 ], m23 = m[ 11 ];
+			final double[] px = p[ 0 ], py = p[ 1 ], pz = p[ 2 ], qx = q[ 0 ], qy = q[ 1 ], qz = q[ 2 ];
+			for ( int i = 0; i < size; ++i )
+			{
+				final double dx = px[ i ] * m00 + py[ i ] * m01 + pz[ i ] * m02 + m03 - qx[ i ];
+				final double dy = px[ i ] * m10 + py[ i ] * m11 + pz[ i ] * m12 + m13 - qy[ i ];
+				final double dz = px[ i ] * m20 + py[ i ] * m21 + pz[ i ] * m22 + m23 - qz[ i ];
+				distances[ i ] = Math.sqrt( dx * dx + dy * dy + dz * dz );
+			}
+		}
+		else
+		{
+			final double[] location = new double[ numDimensions ];
+			for ( int i = 0; i < size; ++i )
+			{
+				for ( int d = 0; d < numDimensions; ++d )
+					location[ d ] = p[ d ][ i ];
+				t.applyInPlace( location );
+				double sum = 0.0;
+				for ( int d = 0; d < numDimensions; ++d )
+				{
+					final double dd = location[ d ] - q[ d ][ i ];
+					sum += dd * dd;
+				}
+				distances[ i ] = Math.sqrt( sum );
+			}
+		}
+	}
+
+	/**
+	 * Collect the indices of all matches whose transfer error is smaller than
+	 * epsilon.
+	 *
+	 * @param distances transfer errors as calculated by
+	 *   {@link #distances(CoordinateTransform, double[])}
+	 * @param epsilon maximal allowed transfer error
+	 * @param inliers receives the indices of all inliers in increasing
+	 *   order, at least {@link #size()} elements
+	 *
+	 * @return number of inliers
+	 */
+	public int inliers( final double[] distances, final double epsilon, final int[] inliers )
+	{
+		int numInliers = 0;
+		for ( int i = 0; i < size; ++i )
+			if ( distances[ i ] < epsilon )
+				inliers[ numInliers++ ] = i;
+		return numInliers;
+	}
+
+	/**
+	 * Fit a {@link Model} to all matches using
+	 * {@link Model#fit(double[][], double[][], double[])}.
+	 *
+	 * @param model
+	 * @throws NotEnoughDataPointsException
+	 * @throws IllDefinedDataPointsException
+	 */
+	public void fit( final Model< ? > model ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		model.fit( p, q, w );
+	}
+}
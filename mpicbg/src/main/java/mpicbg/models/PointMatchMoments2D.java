@@ -0,0 +1,359 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.util.Collection;
+
+/**
+ * Streaming weighted moments of 2d {@link PointMatch PointMatches} that are
+ * sufficient to estimate all 2d affine-family models in closed form.
+ * Matches are accumulated in a single pass, either one by one, from
+ * {@link Collection Collections} of {@link PointMatch PointMatches} or
+ * from packed arrays in the layout expected by
+ * {@link Model#fit(double[][], double[][], double[])}.  Accumulators that
+ * were filled independently, e.g. by concurrent threads over disjoint
+ * subsets of the matches, can be {@link #merge(PointMatchMoments2D) merged}
+ * and previously accumulated matches can be
+ * {@link #remove(PointMatch) removed}.
+ * <p>
+ * Sums are taken relative to a local origin, the coordinates of the first
+ * accumulated match, such that the centered moments do not suffer from
+ * cancellation when the coordinates are large relative to their spread.
+ * </p>
+ * <p>
+ * Models that can be estimated from these moments implement
+ * {@link StatisticsModel StatisticsModel&lt;PointMatchMoments2D&gt;}, e.g.
+ * {@link AffineModel2D#fit(PointMatchMoments2D)}.
+ * </p>
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+public class PointMatchMoments2D implements PointMatchStatistics< PointMatchMoments2D >
+{
+	protected int n = 0;
+
+	/* local origin */
+	protected double opx = 0, opy = 0;
+	protected double oqx = 0, oqy = 0;
+
+	/* weighted sums relative to the local origin */
+	protected double ws = 0;
+	protected double spx = 0, spy = 0;
+	protected double sqx = 0, sqy = 0;
+	protected double spxpx = 0, spxpy = 0, spypy = 0;
+	protected double spxqx = 0, spxqy = 0, spyqx = 0, spyqy = 0;
+
+	/**
+	 * @return number of accumulated matches
+	 */
+	@Override
+	public int getNumMatches()
+	{
+		return n;
+	}
+
+	/**
+	 * @return sum of the weights of all accumulated matches
+	 */
+	public double getWeightSum()
+	{
+		return ws;
+	}
+
+	/**
+	 * Reset to the empty state.
+	 */
+	@Override
+	public void clear()
+	{
+		n = 0;
+		opx = opy = oqx = oqy = 0;
+		ws = 0;
+		spx = spy = sqx = sqy = 0;
+		spxpx = spxpy = spypy = 0;
+		spxqx = spxqy = spyqx = spyqy = 0;
+	}
+
+	/**
+	 * Accumulate a match from p to q with weight w.
+	 *
+	 * @param px
+	 * @param py
+	 * @param qx
+	 * @param qy
+	 * @param w
+	 */
+	final public void add(
+			final double px,
+			final double py,
+			final double qx,
+			final double qy,
+			final double w )
+	{
+		if ( n == 0 )
+		{
+			opx = px;
+			opy = py;
+			oqx = qx;
+			oqy = qy;
+		}
+		++n;
+
+		final double dpx = px - opx, dpy = py - opy;
+		final double dqx = qx - oqx, dqy = qy - oqy;
+		final double wpx = w * dpx, wpy = w * dpy;
+
+		ws += w;
+		spx += wpx;
+		spy += wpy;
+		sqx += w * dqx;
+		sqy += w * dqy;
+		spxpx += wpx * dpx;
+		spxpy += wpx * dpy;
+		spypy += wpy * dpy;
+		spxqx += wpx * dqx;
+		spxqy += wpx * dqy;
+		spyqx += wpy * dqx;
+		spyqy += wpy * dqy;
+	}
+
+	/**
+	 * Accumulate a {@link PointMatch}, the local coordinates of
+	 * {@link PointMatch#getP1() p1} mapping to the world coordinates of
+	 * {@link PointMatch#getP2() p2}.
+	 *
+	 * @param match
+	 */
+	@Override
+	final public void add( final PointMatch match )
+	{
+		final double[] p = match.getP1().getL();
+		final double[] q = match.getP2().getW();
+		add( p[ 0 ], p[ 1 ], q[ 0 ], q[ 1 ], match.getWeight() );
+	}
+
+	/**
+	 * Accumulate a {@link Collection} of {@link PointMatch PointMatches}.
+	 *
+	 * @param matches
+	 */
+	@Override
+	final public void add( final Collection< ? extends PointMatch > matches )
+	{
+		for ( final PointMatch match : matches )
+			add( match );
+	}
+
+	/**
+	 * Remove a previously accumulated match from p to q with weight w.
+	 *
+	 * @param px
+	 * @param py
+	 * @param qx
+	 * @param qy
+	 * @param w
+	 */
+	final public void remove(
+			final double px,
+			final double py,
+			final double qx,
+			final double qy,
+			final double w )
+	{
+		if ( --n == 0 )
+		{
+			clear();
+			return;
+		}
+
+		final double dpx = px - opx, dpy = py - opy;
+		final double dqx = qx - oqx, dqy = qy - oqy;
+		final double wpx = w * dpx, wpy = w * dpy;
+
+		ws -= w;
+		spx -= wpx;
+		spy -= wpy;
+		sqx -= w * dqx;
+		sqy -= w * dqy;
+		spxpx -= wpx * dpx;
+		spxpy -= wpx * dpy;
+		spypy -= wpy * dpy;
+		spxqx -= wpx * dqx;
+		spxqy -= wpx * dqy;
+		spyqx -= wpy * dqx;
+		spyqy -= wpy * dqy;
+	}
+
+	@Override
+	final public void remove( final PointMatch match )
+	{
+		final double[] p = match.getP1().getL();
+		final double[] q = match.getP2().getW();
+		remove( p[ 0 ], p[ 1 ], q[ 0 ], q[ 1 ], match.getWeight() );
+	}
+
+	@Override
+	final public void remove( final Collection< ? extends PointMatch > matches )
+	{
+		for ( final PointMatch match : matches )
+			remove( match );
+	}
+
+	/**
+	 * Accumulate the first <em>l</em> of a set of packed matches in the
+	 * layout expected by {@link Model#fit(double[][], double[][], double[])}.
+	 *
+	 * @param p source points {@code p[ d ][ i ]}
+	 * @param q target points {@code q[ d ][ i ]}
+	 * @param w weights {@code w[ i ]}
+	 * @param l number of matches
+	 */
+	final public void add(
+			final double[][] p,
+			final double[][] q,
+			final double[] w,
+			final int l )
+	{
+		final double[] pX = p[ 0 ];
+		final double[] pY = p[ 1 ];
+		final double[] qX = q[ 0 ];
+		final double[] qY = q[ 1 ];
+
+		for ( int i = 0; i < l; ++i )
+			add( pX[ i ], pY[ i ], qX[ i ], qY[ i ], w[ i ] );
+	}
+
+	/**
+	 * Accumulate a set of packed matches in the layout expected by
+	 * {@link Model#fit(double[][], double[][], double[])}.
+	 *
+	 * @param p source points {@code p[ d ][ i ]}
+	 * @param q target points {@code q[ d ][ i ]}
+	 * @param w weights {@code w[ i ]}
+	 */
+	final public void add(
+			final double[][] p,
+			final double[][] q,
+			final double[] w )
+	{
+		add( p, q, w, w.length );
+	}
+
+	/**
+	 * Accumulate a set of packed matches in the layout expected by
+	 * {@link Model#fit(float[][], float[][], float[])}.
+	 *
+	 * @param p source points {@code p[ d ][ i ]}
+	 * @param q target points {@code q[ d ][ i ]}
+	 * @param w weights {@code w[ i ]}
+	 */
+	final public void add(
+			final float[][] p,
+			final float[][] q,
+			final float[] w )
+	{
+		final float[] pX = p[ 0 ];
+		final float[] pY = p[ 1 ];
+		final float[] qX = q[ 0 ];
+		final float[] qY = q[ 1 ];
+
+		for ( int i = 0; i < w.length; ++i )
+			add( pX[ i ], pY[ i ], qX[ i ], qY[ i ], w[ i ] );
+	}
+
+	/**
+	 * Accumulate all matches of another {@link PointMatchMoments2D}.  The
+	 * result is the same as if all of them had been added to this instance
+	 * directly up to rounding.
+	 *
+	 * @param other
+	 */
+	@Override
+	final public void merge( final PointMatchMoments2D other )
+	{
+		if ( other.n == 0 )
+			return;
+
+		if ( n == 0 )
+		{
+			set( other );
+			return;
+		}
+
+		/* shift the other's sums into this local origin */
+		final double dpx = other.opx - opx, dpy = other.opy - opy;
+		final double dqx = other.oqx - oqx, dqy = other.oqy - oqy;
+		final double w = other.ws;
+
+		spxpx += other.spxpx + 2 * dpx * other.spx + w * dpx * dpx;
+		spxpy += other.spxpy + dpx * other.spy + other.spx * dpy + w * dpx * dpy;
+		spypy += other.spypy + 2 * dpy * other.spy + w * dpy * dpy;
+
+		spxqx += other.spxqx + dpx * other.sqx + other.spx * dqx + w * dpx * dqx;
+		spxqy += other.spxqy + dpx * other.sqy + other.spx * dqy + w * dpx * dqy;
+		spyqx += other.spyqx + dpy * other.sqx + other.spy * dqx + w * dpy * dqx;
+		spyqy += other.spyqy + dpy * other.sqy + other.spy * dqy + w * dpy * dqy;
+
+		spx += other.spx + w * dpx;
+		spy += other.spy + w * dpy;
+		sqx += other.sqx + w * dqx;
+		sqy += other.sqy + w * dqy;
+
+		ws += w;
+		n += other.n;
+	}
+
+	/**
+	 * Copy the state of another {@link PointMatchMoments2D}.
+	 *
+	 * @param other
+	 */
+	@Override
+	public void set( final PointMatchMoments2D other )
+	{
+		n = other.n;
+		opx = other.opx;
+		opy = other.opy;
+		oqx = other.oqx;
+		oqy = other.oqy;
+		ws = other.ws;
+		spx = other.spx;
+		spy = other.spy;
+		sqx = other.sqx;
+		sqy = other.sqy;
+		spxpx = other.spxpx;
+		spxpy = other.spxpy;
+		spypy = other.spypy;
+		spxqx = other.spxqx;
+		spxqy = other.spxqy;
+		spyqx = other.spyqx;
+		spyqy = other.spyqy;
+	}
+
+	@Override
+	public PointMatchMoments2D copy()
+	{
+		final PointMatchMoments2D c = new PointMatchMoments2D();
+		c.set( this );
+		return c;
+	}
+}
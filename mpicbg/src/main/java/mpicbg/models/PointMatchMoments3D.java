@@ -0,0 +1,392 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.util.Collection;
+
+/**
+ * Streaming weighted moments of 3d {@link PointMatch PointMatches} that are
+ * sufficient to estimate 3d translation and affine models in closed form.
+ * See {@link PointMatchMoments2D} for details.
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+public class PointMatchMoments3D implements PointMatchStatistics< PointMatchMoments3D >
+{
+	protected int n = 0;
+
+	/* local origin */
+	protected double opx = 0, opy = 0, opz = 0;
+	protected double oqx = 0, oqy = 0, oqz = 0;
+
+	/* weighted sums relative to the local origin */
+	protected double ws = 0;
+	protected double spx = 0, spy = 0, spz = 0;
+	protected double sqx = 0, sqy = 0, sqz = 0;
+	protected double
+		spxpx = 0, spxpy = 0, spxpz = 0,
+		           spypy = 0, spypz = 0,
+		                      spzpz = 0;
+	protected double
+		spxqx = 0, spxqy = 0, spxqz = 0,
+		spyqx = 0, spyqy = 0, spyqz = 0,
+		spzqx = 0, spzqy = 0, spzqz = 0;
+
+	/**
+	 * @return number of accumulated matches
+	 */
+	@Override
+	public int getNumMatches()
+	{
+		return n;
+	}
+
+	/**
+	 * @return sum of the weights of all accumulated matches
+	 */
+	public double getWeightSum()
+	{
+		return ws;
+	}
+
+	/**
+	 * Reset to the empty state.
+	 */
+	@Override
+	public void clear()
+	{
+		n = 0;
+		opx = opy = opz = oqx = oqy = oqz = 0;
+		ws = 0;
+		spx = spy = spz = sqx = sqy = sqz = 0;
+		spxpx = spxpy = spxpz = spypy = spypz = spzpz = 0;
+		spxqx = spxqy = spxqz = spyqx = spyqy = spyqz = spzqx = spzqy = spzqz = 0;
+	}
+
+	/**
+	 * Accumulate a match from p to q with weight w.
+	 */
+	final public void add(
+			final double px,
+			final double py,
+			final double pz,
+			final double qx,
+			final double qy,
+			final double qz,
+			final double w )
+	{
+		if ( n == 0 )
+		{
+			opx = px;
+			opy = py;
+			opz = pz;
+			oqx = qx;
+			oqy = qy;
+			oqz = qz;
+		}
+		++n;
+
+		final double dpx = px - opx, dpy = py - opy, dpz = pz - opz;
+		final double dqx = qx - oqx, dqy = qy - oqy, dqz = qz - oqz;
+		final double wpx = w * dpx, wpy = w * dpy, wpz = w * dpz;
+
+		ws += w;
+		spx += wpx;
+		spy += wpy;
+		spz += wpz;
+		sqx += w * dqx;
+		sqy += w * dqy;
+		sqz += w * dqz;
+
+		spxpx += wpx * dpx;
+		spxpy += wpx * dpy;
+		spxpz += wpx * dpz;
+		spypy += wpy * dpy;
+		spypz += wpy * dpz;
+		spzpz += wpz * dpz;
+
+		spxqx += wpx * dqx;
+		spxqy += wpx * dqy;
+		spxqz += wpx * dqz;
+		spyqx += wpy * dqx;
+		spyqy += wpy * dqy;
+		spyqz += wpy * dqz;
+		spzqx += wpz * dqx;
+		spzqy += wpz * dqy;
+		spzqz += wpz * dqz;
+	}
+
+	/**
+	 * Accumulate a {@link PointMatch}, the local coordinates of
+	 * {@link PointMatch#getP1() p1} mapping to the world coordinates of
+	 * {@link PointMatch#getP2() p2}.
+	 *
+	 * @param match
+	 */
+	@Override
+	final public void add( final PointMatch match )
+	{
+		final double[] p = match.getP1().getL();
+		final double[] q = match.getP2().getW();
+		add( p[ 0 ], p[ 1 ], p[ 2 ], q[ 0 ], q[ 1 ], q[ 2 ], match.getWeight() );
+	}
+
+	/**
+	 * Accumulate a {@link Collection} of {@link PointMatch PointMatches}.
+	 *
+	 * @param matches
+	 */
+	@Override
+	final public void add( final Collection< ? extends PointMatch > matches )
+	{
+		for ( final PointMatch match : matches )
+			add( match );
+	}
+
+	/**
+	 * Remove a previously accumulated match from p to q with weight w.
+	 */
+	final public void remove(
+			final double px,
+			final double py,
+			final double pz,
+			final double qx,
+			final double qy,
+			final double qz,
+			final double w )
+	{
+		if ( --n == 0 )
+		{
+			clear();
+			return;
+		}
+
+		final double dpx = px - opx, dpy = py - opy, dpz = pz - opz;
+		final double dqx = qx - oqx, dqy = qy - oqy, dqz = qz - oqz;
+		final double wpx = w * dpx, wpy = w * dpy, wpz = w * dpz;
+
+		ws -= w;
+		spx -= wpx;
+		spy -= wpy;
+		spz -= wpz;
+		sqx -= w * dqx;
+		sqy -= w * dqy;
+		sqz -= w * dqz;
+
+		spxpx -= wpx * dpx;
+		spxpy -= wpx * dpy;
+		spxpz -= wpx * dpz;
+		spypy -= wpy * dpy;
+		spypz -= wpy * dpz;
+		spzpz -= wpz * dpz;
+
+		spxqx -= wpx * dqx;
+		spxqy -= wpx * dqy;
+		spxqz -= wpx * dqz;
+		spyqx -= wpy * dqx;
+		spyqy -= wpy * dqy;
+		spyqz -= wpy * dqz;
+		spzqx -= wpz * dqx;
+		spzqy -= wpz * dqy;
+		spzqz -= wpz * dqz;
+	}
+
+	@Override
+	final public void remove( final PointMatch match )
+	{
+		final double[] p = match.getP1().getL();
+		final double[] q = match.getP2().getW();
+		remove( p[ 0 ], p[ 1 ], p[ 2 ], q[ 0 ], q[ 1 ], q[ 2 ], match.getWeight() );
+	}
+
+	@Override
+	final public void remove( final Collection< ? extends PointMatch > matches )
+	{
+		for ( final PointMatch match : matches )
+			remove( match );
+	}
+
+	/**
+	 * Accumulate the first <em>l</em> of a set of packed matches in the
+	 * layout expected by {@link Model#fit(double[][], double[][], double[])}.
+	 *
+	 * @param p source points {@code p[ d ][ i ]}
+	 * @param q target points {@code q[ d ][ i ]}
+	 * @param w weights {@code w[ i ]}
+	 * @param l number of matches
+	 */
+	final public void add(
+			final double[][] p,
+			final double[][] q,
+			final double[] w,
+			final int l )
+	{
+		final double[] pX = p[ 0 ];
+		final double[] pY = p[ 1 ];
+		final double[] pZ = p[ 2 ];
+		final double[] qX = q[ 0 ];
+		final double[] qY = q[ 1 ];
+		final double[] qZ = q[ 2 ];
+
+		for ( int i = 0; i < l; ++i )
+			add( pX[ i ], pY[ i ], pZ[ i ], qX[ i ], qY[ i ], qZ[ i ], w[ i ] );
+	}
+
+	/**
+	 * Accumulate a set of packed matches in the layout expected by
+	 * {@link Model#fit(double[][], double[][], double[])}.
+	 *
+	 * @param p source points {@code p[ d ][ i ]}
+	 * @param q target points {@code q[ d ][ i ]}
+	 * @param w weights {@code w[ i ]}
+	 */
+	final public void add(
+			final double[][] p,
+			final double[][] q,
+			final double[] w )
+	{
+		add( p, q, w, w.length );
+	}
+
+	/**
+	 * Accumulate a set of packed matches in the layout expected by
+	 * {@link Model#fit(float[][], float[][], float[])}.
+	 *
+	 * @param p source points {@code p[ d ][ i ]}
+	 * @param q target points {@code q[ d ][ i ]}
+	 * @param w weights {@code w[ i ]}
+	 */
+	final public void add(
+			final float[][] p,
+			final float[][] q,
+			final float[] w )
+	{
+		final float[] pX = p[ 0 ];
+		final float[] pY = p[ 1 ];
+		final float[] pZ = p[ 2 ];
+		final float[] qX = q[ 0 ];
+		final float[] qY = q[ 1 ];
+		final float[] qZ = q[ 2 ];
+
+		for ( int i = 0; i < w.length; ++i )
+			add( pX[ i ], pY[ i ], pZ[ i ], qX[ i ], qY[ i ], qZ[ i ], w[ i ] );
+	}
+
+	/**
+	 * Accumulate all matches of another {@link PointMatchMoments3D}.  The
+	 * result is the same as if all of them had been added to this instance
+	 * directly up to rounding.
+	 *
+	 * @param other
+	 */
+	@Override
+	final public void merge( final PointMatchMoments3D other )
+	{
+		if ( other.n == 0 )
+			return;
+
+		if ( n == 0 )
+		{
+			set( other );
+			return;
+		}
+
+		/* shift the other's sums into this local origin */
+		final double dpx = other.opx - opx, dpy = other.opy - opy, dpz = other.opz - opz;
+		final double dqx = other.oqx - oqx, dqy = other.oqy - oqy, dqz = other.oqz - oqz;
+		final double w = other.ws;
+
+		spxpx += other.spxpx + 2 * dpx * other.spx + w * dpx * dpx;
+		spxpy += other.spxpy + dpx * other.spy + other.spx * dpy + w * dpx * dpy;
+		spxpz += other.spxpz + dpx * other.spz + other.spx * dpz + w * dpx * dpz;
+		spypy += other.spypy + 2 * dpy * other.spy + w * dpy * dpy;
+		spypz += other.spypz + dpy * other.spz + other.spy * dpz + w * dpy * dpz;
+		spzpz += other.spzpz + 2 * dpz * other.spz + w * dpz * dpz;
+
+		spxqx += other.spxqx + dpx * other.sqx + other.spx * dqx + w * dpx * dqx;
+		spxqy += other.spxqy + dpx * other.sqy + other.spx * dqy + w * dpx * dqy;
+		spxqz += other.spxqz + dpx * other.sqz + other.spx * dqz + w * dpx * dqz;
+		spyqx += other.spyqx + dpy * other.sqx + other.spy * dqx + w * dpy * dqx;
+		spyqy += other.spyqy + dpy * other.sqy + other.spy * dqy + w * dpy * dqy;
+		spyqz += other.spyqz + dpy * other.sqz + other.spy * dqz + w * dpy * dqz;
+		spzqx += other.spzqx + dpz * other.sqx + other.spz * dqx + w * dpz * dqx;
+		spzqy += other.spzqy + dpz * other.sqy + other.spz * dqy + w * dpz * dqy;
+		spzqz += other.spzqz + dpz * other.sqz + other.spz * dqz + w * dpz * dqz;
+
+		spx += other.spx + w * dpx;
+		spy += other.spy + w * dpy;
+		spz += other.spz + w * dpz;
+		sqx += other.sqx + w * dqx;
+		sqy += other.sqy + w * dqy;
+		sqz += other.sqz + w * dqz;
+
+		ws += w;
+		n += other.n;
+	}
+
+	/**
+	 * Copy the state of another {@link PointMatchMoments3D}.
+	 *
+	 * @param other
+	 */
+	@Override
+	public void set( final PointMatchMoments3D other )
+	{
+		n = other.n;
+		opx = other.opx;
+		opy = other.opy;
+		opz = other.opz;
+		oqx = other.oqx;
+		oqy = other.oqy;
+		oqz = other.oqz;
+		ws = other.ws;
+		spx = other.spx;
+		spy = other.spy;
+		spz = other.spz;
+		sqx = other.sqx;
+		sqy = other.sqy;
+		sqz = other.sqz;
+		spxpx = other.spxpx;
+		spxpy = other.spxpy;
+		spxpz = other.spxpz;
+		spypy = other.spypy;
+		spypz = other.spypz;
+		spzpz = other.spzpz;
+		spxqx = other.spxqx;
+		spxqy = other.spxqy;
+		spxqz = other.spxqz;
+		spyqx = other.spyqx;
+		spyqy = other.spyqy;
+		spyqz = other.spyqz;
+		spzqx = other.spzqx;
+		spzqy = other.spzqy;
+		spzqz = other.spzqz;
+	}
+
+	@Override
+	public PointMatchMoments3D copy()
+	{
+		final PointMatchMoments3D c = new PointMatchMoments3D();
+		c.set( this );
+		return c;
+	}
+}
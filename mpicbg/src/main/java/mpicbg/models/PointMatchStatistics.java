@@ -0,0 +1,98 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.util.Collection;
+
+/**
+ * Sufficient statistics of a set of {@link PointMatch PointMatches} for the
+ * estimation of a {@link StatisticsModel}.  Matches can be added and removed
+ * at constant cost each and statistics accumulated independently, e.g. by
+ * concurrent threads over disjoint subsets of the matches, can be merged.
+ * Refitting a {@link StatisticsModel} after a change of <em>k</em> matches
+ * therefore costs O(<em>k</em>) instead of O(<em>n</em>).
+ * <p>
+ * Removing a match that has not been added before leaves the statistics in
+ * an undefined state.
+ * </p>
+ *
+ * @param <S> the statistics type itself
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+public interface PointMatchStatistics< S extends PointMatchStatistics< S > >
+{
+	/**
+	 * @return number of accumulated matches
+	 */
+	public int getNumMatches();
+
+	/**
+	 * Accumulate a {@link PointMatch}, the local coordinates of
+	 * {@link PointMatch#getP1() p1} mapping to the world coordinates of
+	 * {@link PointMatch#getP2() p2}.
+	 *
+	 * @param match
+	 */
+	public void add( final PointMatch match );
+
+	/**
+	 * Remove a previously accumulated {@link PointMatch}.  The local
+	 * coordinates of {@link PointMatch#getP1() p1}, the world coordinates
+	 * of {@link PointMatch#getP2() p2} and the weight must not have changed
+	 * since it was added.
+	 *
+	 * @param match
+	 */
+	public void remove( final PointMatch match );
+
+	/**
+	 * Accumulate a {@link Collection} of {@link PointMatch PointMatches}.
+	 *
+	 * @param matches
+	 */
+	public void add( final Collection< ? extends PointMatch > matches );
+
+	/**
+	 * Remove a {@link Collection} of previously accumulated
+	 * {@link PointMatch PointMatches}.
+	 *
+	 * @param matches
+	 */
+	public void remove( final Collection< ? extends PointMatch > matches );
+
+	/**
+	 * Accumulate all matches of another instance.
+	 *
+	 * @param other
+	 */
+	public void merge( final S other );
+
+	/**
+	 * Reset to the empty state.
+	 */
+	public void clear();
+
+	public void set( final S other );
+
+	public S copy();
+}
@@ -63,7 +63,7 @@ import java.util.Collection;
  *
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
  */
-public class RigidModel2D extends AbstractAffineModel2D< RigidModel2D >
+public class RigidModel2D extends AbstractAffineModel2D< RigidModel2D > implements StatisticsModel< PointMatchMoments2D >
 {
 	private static final long serialVersionUID = 294104229960804720L;
 
@@ -356,6 +356,54 @@ public class RigidModel2D extends AbstractAffineModel2D< RigidModel2D >
 		invert();
 	}
 
+	@Override
+	public PointMatchMoments2D createStatistics()
+	{
+		return new PointMatchMoments2D();
+	}
+
+	/**
+	 * Closed form weighted least squares solution as described by
+	 * \citet{SchaeferAl06} from accumulated
+	 * {@link PointMatchMoments2D moments}.
+	 *
+	 * @param moments
+	 * @throws NotEnoughDataPointsException
+	 */
+	@Override
+	final public void fit( final PointMatchMoments2D moments ) throws NotEnoughDataPointsException
+	{
+		if ( moments.n < MIN_NUM_MATCHES ) throw new NotEnoughDataPointsException( moments.n + " data points are not enough to estimate a 2d rigid model, at least " + MIN_NUM_MATCHES + " data points required." );
+
+		final double ws = moments.ws;
+
+		/* centers of mass relative to the local origin */
+		final double dpcx = moments.spx / ws, dpcy = moments.spy / ws;
+		final double dqcx = moments.sqx / ws, dqcy = moments.sqy / ws;
+
+		final double b00 = moments.spxqx - moments.spx * dqcx;
+		final double b01 = moments.spxqy - moments.spx * dqcy;
+		final double b10 = moments.spyqx - moments.spy * dqcx;
+		final double b11 = moments.spyqy - moments.spy * dqcy;
+
+		double cosd = b00 + b11;
+		double sind = b01 - b10;
+		final double norm = Math.sqrt( cosd * cosd + sind * sind );
+		cosd /= norm;
+		sind /= norm;
+
+		cos = cosd;
+		sin = sind;
+
+		final double pcx = moments.opx + dpcx, pcy = moments.opy + dpcy;
+		final double qcx = moments.oqx + dqcx, qcy = moments.oqy + dqcy;
+
+		tx = qcx - cosd * pcx + sind * pcy;
+		ty = qcy - sind * pcx - cosd * pcy;
+
+		invert();
+	}
+
 	@Override
 	public RigidModel2D copy()
 	{
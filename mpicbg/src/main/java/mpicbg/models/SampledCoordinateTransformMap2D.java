@@ -0,0 +1,233 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * A {@link CoordinateTransform} baked on a subsampled grid over a
+ * rectangle.  The map stores the displacement at each sample and
+ * interpolates it bilinearly, locations outside of the rectangle use the
+ * displacement of the closest location inside.  Unlike a
+ * {@link CoordinateTransformMap2D}, it is defined on real coordinates and
+ * does not require a sample per pixel.
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+public class SampledCoordinateTransformMap2D implements CoordinateTransform
+{
+	private static final long serialVersionUID = -3011716236465436325L;
+
+	/**
+	 * displacements addressed interleaved as
+	 * map[ row ][ 2 * column ] = x
+	 * map[ row ][ 2 * column + 1 ] = y
+	 */
+	final protected float[][] map;
+
+	final protected int width;
+	final protected int height;
+
+	/**
+	 * location of sample map[ 0 ][ 0 ] and distance between samples
+	 */
+	final protected int minX;
+	final protected int minY;
+	final protected int step;
+
+	final public int getWidth(){ return width; }
+	final public int getHeight(){ return height; }
+	final public int getMinX(){ return minX; }
+	final public int getMinY(){ return minY; }
+	final public int getStep(){ return step; }
+
+	/**
+	 * @return number of bytes used by the map
+	 */
+	final public long getSizeInBytes()
+	{
+		return sizeInBytes( map[ 0 ].length / 2, map.length );
+	}
+
+	final static protected long sizeInBytes( final int numX, final int numY )
+	{
+		return 8L * numX * numY;
+	}
+
+	/**
+	 * Number of samples required to cover <em>size</em> pixels with a
+	 * distance of <em>step</em> pixels between samples.
+	 */
+	final static protected int numSamples( final int size, final int step )
+	{
+		return ( size + step - 2 ) / step + 1;
+	}
+
+	/**
+	 * Bake a {@link CoordinateTransform} on a grid of samples every
+	 * <em>step</em> pixels over the rectangle
+	 * [<em>minX</em>, <em>minX</em> + <em>width</em> - 1]&times;[<em>minY</em>, <em>minY</em> + <em>height</em> - 1].
+	 * The last column and row of samples are clamped to the rectangle such
+	 * that the transform is not evaluated outside of it.
+	 * Blocks of rows are baked concurrently, each with its own
+	 * {@link CoordinateTransform} from <em>transforms</em> such that
+	 * transforms that are not concurrency safe, e.g.
+	 * {@link MovingLeastSquaresTransform2}, can provide a copy per task.
+	 *
+	 * @param transforms provides the transform to be baked
+	 * @param minX
+	 * @param minY
+	 * @param width
+	 * @param height
+	 * @param step distance between samples in pixels
+	 * @param executor if null, the map is baked in the calling thread
+	 */
+	public SampledCoordinateTransformMap2D(
+			final Supplier< ? extends CoordinateTransform > transforms,
+			final int minX,
+			final int minY,
+			final int width,
+			final int height,
+			final int step,
+			final ExecutorService executor )
+	{
+		this.width = width;
+		this.height = height;
+		this.minX = minX;
+		this.minY = minY;
+		this.step = Math.max( 1, step );
+
+		final int numX = numSamples( width, this.step );
+		final int numY = numSamples( height, this.step );
+		map = new float[ numY ][ 2 * numX ];
+
+		final ArrayList< Future< ? > > tasks = new ArrayList< Future< ? > >();
+		for ( int y = 0; y < numY; y += CoordinateTransformMap2D.ROWS_PER_TASK )
+		{
+			final int firstRow = y;
+			final int lastRow = Math.min( numY, y + CoordinateTransformMap2D.ROWS_PER_TASK );
+			if ( executor == null )
+				bakeRows( transforms.get(), firstRow, lastRow );
+			else
+				tasks.add( executor.submit( () -> bakeRows( transforms.get(), firstRow, lastRow ) ) );
+		}
+		for ( final Future< ? > task : tasks )
+		{
+			try
+			{
+				task.get();
+			}
+			catch ( final InterruptedException | ExecutionException e )
+			{
+				throw new RuntimeException( e );
+			}
+		}
+	}
+
+	/**
+	 * Bake a concurrency safe {@link CoordinateTransform}, e.g. a
+	 * {@link TransformMesh}.
+	 *
+	 * @see #SampledCoordinateTransformMap2D(Supplier, int, int, int, int, int, ExecutorService)
+	 */
+	public SampledCoordinateTransformMap2D(
+			final CoordinateTransform t,
+			final int minX,
+			final int minY,
+			final int width,
+			final int height,
+			final int step,
+			final ExecutorService executor )
+	{
+		this( () -> t, minX, minY, width, height, step, executor );
+	}
+
+	final protected void bakeRows( final CoordinateTransform t, final int firstRow, final int lastRow )
+	{
+		final double[] l = new double[ 2 ];
+		for ( int y = firstRow; y < lastRow; ++y )
+		{
+			final float[] row = map[ y ];
+			final double sy = minY + sample( y, height );
+			for ( int x = 0; x < row.length; x += 2 )
+			{
+				final double sx = minX + sample( x / 2, width );
+				l[ 0 ] = sx;
+				l[ 1 ] = sy;
+				t.applyInPlace( l );
+				row[ x ] = ( float )( l[ 0 ] - sx );
+				row[ x + 1 ] = ( float )( l[ 1 ] - sy );
+			}
+		}
+	}
+
+	/**
+	 * Location of sample <em>i</em> relative to the first sample.  Samples
+	 * are {@link #step} apart except for the last that is clamped to
+	 * <em>size</em> - 1.
+	 */
+	final protected double sample( final int i, final int size )
+	{
+		return Math.min( ( long )i * step, size - 1 );
+	}
+
+	@Override
+	final public double[] apply( final double[] location )
+	{
+		final double[] t = location.clone();
+		applyInPlace( t );
+		return t;
+	}
+
+	@Override
+	final public void applyInPlace( final double[] location )
+	{
+		final int numX = map[ 0 ].length / 2;
+		final int numY = map.length;
+		final double rx = Math.max( 0, Math.min( width - 1, location[ 0 ] - minX ) );
+		final double ry = Math.max( 0, Math.min( height - 1, location[ 1 ] - minY ) );
+		final int x0 = Math.max( 0, Math.min( numX - 2, ( int )( rx / step ) ) );
+		final int y0 = Math.max( 0, Math.min( numY - 2, ( int )( ry / step ) ) );
+		final int x1 = Math.min( x0 + 1, numX - 1 );
+		final int y1 = Math.min( y0 + 1, numY - 1 );
+
+		/* the last cell may be shorter than step */
+		final double sx0 = sample( x0, width );
+		final double sy0 = sample( y0, height );
+		final double dx = x1 == x0 ? 0 : ( rx - sx0 ) / ( sample( x1, width ) - sx0 );
+		final double dy = y1 == y0 ? 0 : ( ry - sy0 ) / ( sample( y1, height ) - sy0 );
+
+		final float[] row0 = map[ y0 ];
+		final float[] row1 = map[ y1 ];
+		final double ux0 = row0[ 2 * x0 ] + dx * ( row0[ 2 * x1 ] - row0[ 2 * x0 ] );
+		final double uy0 = row0[ 2 * x0 + 1 ] + dx * ( row0[ 2 * x1 + 1 ] - row0[ 2 * x0 + 1 ] );
+		final double ux1 = row1[ 2 * x0 ] + dx * ( row1[ 2 * x1 ] - row1[ 2 * x0 ] );
+		final double uy1 = row1[ 2 * x0 + 1 ] + dx * ( row1[ 2 * x1 + 1 ] - row1[ 2 * x0 + 1 ] );
+
+		location[ 0 ] += ux0 + dy * ( ux1 - ux0 );
+		location[ 1 ] += uy0 + dy * ( uy1 - uy0 );
+	}
+}
@@ -0,0 +1,266 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+
+/**
+ * A least recently used cache of {@link SampledCoordinateTransformMap2D maps}
+ * baked from {@link CoordinateTransform CoordinateTransforms}, such that
+ * rendering the same transformed section several times, e.g. into
+ * different channels or with different intensity ranges, transforms each
+ * location only once.
+ *
+ * Maps are identified by the identity of the transform, the bounds and the
+ * distance between samples.  The cache holds maps up to a total size in
+ * bytes and evicts the least recently used maps beyond that.  A transform
+ * that was modified after it was baked must be {@link #invalidate(CoordinateTransform) invalidated}.
+ *
+ * Concurrent requests for the same map bake it only once.
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+public class SampledCoordinateTransformMap2DCache
+{
+	final static protected class Key
+	{
+		final protected CoordinateTransform transform;
+		final protected int minX, minY, width, height, step;
+
+		protected Key(
+				final CoordinateTransform transform,
+				final int minX,
+				final int minY,
+				final int width,
+				final int height,
+				final int step )
+		{
+			this.transform = transform;
+			this.minX = minX;
+			this.minY = minY;
+			this.width = width;
+			this.height = height;
+			this.step = step;
+		}
+
+		@Override
+		public boolean equals( final Object o )
+		{
+			if ( !( o instanceof Key ) )
+				return false;
+			final Key k = ( Key )o;
+			return
+					transform == k.transform &&
+					minX == k.minX &&
+					minY == k.minY &&
+					width == k.width &&
+					height == k.height &&
+					step == k.step;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int h = System.identityHashCode( transform );
+			h = 31 * h + minX;
+			h = 31 * h + minY;
+			h = 31 * h + width;
+			h = 31 * h + height;
+			return 31 * h + step;
+		}
+	}
+
+	final static protected class Entry
+	{
+		final protected FutureTask< SampledCoordinateTransformMap2D > task;
+		final protected long sizeInBytes;
+
+		protected Entry( final FutureTask< SampledCoordinateTransformMap2D > task, final long sizeInBytes )
+		{
+			this.task = task;
+			this.sizeInBytes = sizeInBytes;
+		}
+	}
+
+	/* access ordered */
+	final protected LinkedHashMap< Key, Entry > entries = new LinkedHashMap< Key, Entry >( 16, 0.75f, true );
+
+	final protected long maxSizeInBytes;
+	protected long sizeInBytes = 0;
+
+	/**
+	 * @param maxSizeInBytes maximal total size of all cached maps, the most
+	 *   recently used map is kept even if it is larger
+	 */
+	public SampledCoordinateTransformMap2DCache( final long maxSizeInBytes )
+	{
+		this.maxSizeInBytes = maxSizeInBytes;
+	}
+
+	final public long getMaxSizeInBytes(){ return maxSizeInBytes; }
+	synchronized final public long getSizeInBytes(){ return sizeInBytes; }
+	synchronized final public int size(){ return entries.size(); }
+
+	/**
+	 * Get the map of a concurrency safe {@link CoordinateTransform}, e.g. a
+	 * {@link TransformMesh}, over a rectangle, baking it if it is not cached.
+	 *
+	 * @param t the transform, must be concurrency safe if an
+	 *   <em>executor</em> is passed
+	 * @param minX
+	 * @param minY
+	 * @param width
+	 * @param height
+	 * @param step distance between samples in pixels
+	 * @param executor bakes blocks of rows concurrently, if null, the map
+	 *   is baked in the calling thread
+	 *
+	 * @see #get(CoordinateTransform, Supplier, int, int, int, int, int, ExecutorService)
+	 */
+	public SampledCoordinateTransformMap2D get(
+			final CoordinateTransform t,
+			final int minX,
+			final int minY,
+			final int width,
+			final int height,
+			final int step,
+			final ExecutorService executor )
+	{
+		return get( t, () -> t, minX, minY, width, height, step, executor );
+	}
+
+	/**
+	 * Get the map of a {@link CoordinateTransform} over a rectangle, baking
+	 * it if it is not cached.  Blocks of rows are baked concurrently, each
+	 * with its own transform from <em>transforms</em> such that transforms
+	 * that are not concurrency safe, e.g.
+	 * {@link MovingLeastSquaresTransform2}, can provide a copy per task.
+	 *
+	 * @param t identifies the map, it is not evaluated
+	 * @param transforms provides copies of <em>t</em> for baking
+	 * @param minX
+	 * @param minY
+	 * @param width
+	 * @param height
+	 * @param step distance between samples in pixels
+	 * @param executor bakes blocks of rows concurrently, if null, the map
+	 *   is baked in the calling thread
+	 */
+	public SampledCoordinateTransformMap2D get(
+			final CoordinateTransform t,
+			final Supplier< ? extends CoordinateTransform > transforms,
+			final int minX,
+			final int minY,
+			final int width,
+			final int height,
+			final int step,
+			final ExecutorService executor )
+	{
+		final Key key = new Key( t, minX, minY, width, height, Math.max( 1, step ) );
+		final Entry entry;
+		boolean bake = false;
+		synchronized ( this )
+		{
+			Entry e = entries.get( key );
+			if ( e == null )
+			{
+				e = new Entry(
+						new FutureTask< SampledCoordinateTransformMap2D >(
+								() -> new SampledCoordinateTransformMap2D( transforms, minX, minY, width, height, key.step, executor ) ),
+						SampledCoordinateTransformMap2D.sizeInBytes(
+								SampledCoordinateTransformMap2D.numSamples( width, key.step ),
+								SampledCoordinateTransformMap2D.numSamples( height, key.step ) ) );
+				entries.put( key, e );
+				sizeInBytes += e.sizeInBytes;
+				evict();
+				bake = true;
+			}
+			entry = e;
+		}
+
+		if ( bake )
+			entry.task.run();
+
+		try
+		{
+			return entry.task.get();
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			/* do not cache failures */
+			synchronized ( this )
+			{
+				if ( entries.get( key ) == entry )
+				{
+					entries.remove( key );
+					sizeInBytes -= entry.sizeInBytes;
+				}
+			}
+			throw new RuntimeException( e );
+		}
+	}
+
+	/**
+	 * Remove least recently used maps until the total size is within
+	 * bounds, but keep the most recently used map.
+	 */
+	synchronized protected void evict()
+	{
+		final Iterator< Map.Entry< Key, Entry > > i = entries.entrySet().iterator();
+		while ( sizeInBytes > maxSizeInBytes && entries.size() > 1 )
+		{
+			final Entry e = i.next().getValue();
+			i.remove();
+			sizeInBytes -= e.sizeInBytes;
+		}
+	}
+
+	/**
+	 * Remove all maps of a {@link CoordinateTransform}.  Call this after
+	 * modifying the transform.
+	 */
+	synchronized public void invalidate( final CoordinateTransform t )
+	{
+		final Iterator< Map.Entry< Key, Entry > > i = entries.entrySet().iterator();
+		while ( i.hasNext() )
+		{
+			final Map.Entry< Key, Entry > e = i.next();
+			if ( e.getKey().transform == t )
+			{
+				i.remove();
+				sizeInBytes -= e.getValue().sizeInBytes;
+			}
+		}
+	}
+
+	synchronized public void clear()
+	{
+		entries.clear();
+		sizeInBytes = 0;
+	}
+}
@@ -63,7 +63,7 @@ import java.util.Collection;
  *
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
  */
-public class SimilarityModel2D extends AbstractAffineModel2D< SimilarityModel2D >
+public class SimilarityModel2D extends AbstractAffineModel2D< SimilarityModel2D > implements StatisticsModel< PointMatchMoments2D >
 {
 	private static final long serialVersionUID = -2002621576568975203L;
 
@@ -368,6 +368,54 @@ public class SimilarityModel2D extends AbstractAffineModel2D< SimilarityModel2D
 		invert();
 	}
 
+	@Override
+	public PointMatchMoments2D createStatistics()
+	{
+		return new PointMatchMoments2D();
+	}
+
+	/**
+	 * Closed form weighted least squares solution as described by
+	 * \citet{SchaeferAl06} from accumulated
+	 * {@link PointMatchMoments2D moments}.
+	 *
+	 * @param moments
+	 * @throws NotEnoughDataPointsException
+	 */
+	@Override
+	final public void fit( final PointMatchMoments2D moments ) throws NotEnoughDataPointsException
+	{
+		if ( moments.n < MIN_NUM_MATCHES ) throw new NotEnoughDataPointsException( moments.n + " data points are not enough to estimate a 2d similarity model, at least " + MIN_NUM_MATCHES + " data points required." );
+
+		final double ws = moments.ws;
+
+		/* centers of mass relative to the local origin */
+		final double dpcx = moments.spx / ws, dpcy = moments.spy / ws;
+		final double dqcx = moments.sqx / ws, dqcy = moments.sqy / ws;
+
+		final double a00 = moments.spxpx - moments.spx * dpcx;
+		final double a11 = moments.spypy - moments.spy * dpcy;
+		final double b00 = moments.spxqx - moments.spx * dqcx;
+		final double b01 = moments.spxqy - moments.spx * dqcy;
+		final double b10 = moments.spyqx - moments.spy * dqcx;
+		final double b11 = moments.spyqy - moments.spy * dqcy;
+
+		final double a = a00 + a11;
+		final double scosd = ( b00 + b11 ) / a;
+		final double ssind = ( b01 - b10 ) / a;
+
+		scos = scosd;
+		ssin = ssind;
+
+		final double pcx = moments.opx + dpcx, pcy = moments.opy + dpcy;
+		final double qcx = moments.oqx + dqcx, qcy = moments.oqy + dqcy;
+
+		tx = qcx - scosd * pcx + ssind * pcy;
+		ty = qcy - ssind * pcx - scosd * pcy;
+
+		invert();
+	}
+
 	@Override
 	public SimilarityModel2D copy()
 	{
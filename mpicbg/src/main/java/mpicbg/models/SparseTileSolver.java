@@ -0,0 +1,725 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Global linear least-squares solver for the models of a set of
+ * {@link Tile Tiles}.
+ *
+ * All {@link PointMatch PointMatches} of all free {@link Tile Tiles} are
+ * assembled into one block-sparse system of normal equations with one block
+ * row per {@link Tile} that minimizes
+ *
+ * <pre>sum w |T<sub>i</sub>(p<sub>1</sub>.l) - T<sub>j</sub>(p<sub>2</sub>.l)|<sup>2</sup></pre>
+ *
+ * for all matches of all pairs of connected free tiles i, j at once.  Matches
+ * into {@link Tile Tiles} that are not free (e.g. fixed tiles) are constant
+ * targets at their current world coordinates p<sub>2</sub>.w, so these
+ * tiles have to be {@linkplain Tile#apply() applied} before
+ * {@link #solve(int, double)} is called.  The system is solved with a
+ * conjugate gradient method preconditioned with the inverse diagonal blocks.
+ *
+ * Supported are {@link TranslationModel2D}, {@link SimilarityModel2D} and
+ * {@link AffineModel2D} whose transfer is linear in their parameters, and
+ * {@link RigidModel2D} whose rotation is linearized at the current model and
+ * which is therefore solved by repeated linearization (Gauss-Newton).
+ *
+ * The conjugate gradient method starts at the current models.  If the
+ * system is singular because a connected graph contains no constant target,
+ * the solution closest to the current configuration is found, i.e. the
+ * common transformation of the graph remains untouched.
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+public class SparseTileSolver
+{
+	/**
+	 * A {@link Tile Tile's} model as a linear function of its parameters
+	 * <code>T(l) = J(l) x + c(l)</code>.
+	 */
+	static abstract protected class LinearizedModel
+	{
+		/**
+		 * @return the number of parameters
+		 */
+		abstract public int size();
+
+		/**
+		 * Write the current parameters into x starting at offset.
+		 */
+		abstract public void get( final double[] x, final int offset );
+
+		/**
+		 * Set the model to the parameters in x starting at offset.
+		 */
+		abstract public void set( final double[] x, final int offset );
+
+		/**
+		 * Write the row-major 2&times;{@link #size()} Jacobian j and the
+		 * constant part c at location l.
+		 */
+		abstract public void linearize( final double[] l, final double[] j, final double[] c );
+
+		/**
+		 * @return true if the linearization is only an approximation and
+		 *   has to be repeated after {@link #set(double[], int)}
+		 */
+		public boolean isNonlinear()
+		{
+			return false;
+		}
+
+		/**
+		 * Create a {@link LinearizedModel} for a supported model.
+		 *
+		 * @throws IllegalArgumentException for unsupported models
+		 */
+		static public LinearizedModel create( final Model< ? > model )
+		{
+			if ( model instanceof TranslationModel2D )
+				return new LinearizedTranslationModel2D( ( TranslationModel2D )model );
+			if ( model instanceof RigidModel2D )
+				return new LinearizedRigidModel2D( ( RigidModel2D )model );
+			if ( model instanceof SimilarityModel2D )
+				return new LinearizedSimilarityModel2D( ( SimilarityModel2D )model );
+			if ( model instanceof AffineModel2D )
+				return new LinearizedAffineModel2D( ( AffineModel2D )model );
+			throw new IllegalArgumentException( "Model " + model.getClass().getSimpleName() + " is not supported by " + SparseTileSolver.class.getSimpleName() + "." );
+		}
+	}
+
+	static protected class LinearizedTranslationModel2D extends LinearizedModel
+	{
+		final protected TranslationModel2D model;
+
+		public LinearizedTranslationModel2D( final TranslationModel2D model )
+		{
+			this.model = model;
+		}
+
+		@Override
+		public int size()
+		{
+			return 2;
+		}
+
+		@Override
+		public void get( final double[] x, final int offset )
+		{
+			final double[] t = model.getTranslation();
+			x[ offset ] = t[ 0 ];
+			x[ offset + 1 ] = t[ 1 ];
+		}
+
+		@Override
+		public void set( final double[] x, final int offset )
+		{
+			model.set( x[ offset ], x[ offset + 1 ] );
+		}
+
+		@Override
+		public void linearize( final double[] l, final double[] j, final double[] c )
+		{
+			j[ 0 ] = 1; j[ 1 ] = 0;
+			j[ 2 ] = 0; j[ 3 ] = 1;
+			c[ 0 ] = l[ 0 ];
+			c[ 1 ] = l[ 1 ];
+		}
+	}
+
+	/**
+	 * Parameters are the rotation increment d&theta; and the translation, the
+	 * rotation is linearized at the current model.
+	 */
+	static protected class LinearizedRigidModel2D extends LinearizedModel
+	{
+		final protected RigidModel2D model;
+		final protected double cos, sin, theta;
+		final protected double[] m = new double[ 6 ];
+
+		public LinearizedRigidModel2D( final RigidModel2D model )
+		{
+			this.model = model;
+			model.toArray( m );
+			cos = m[ 0 ];
+			sin = m[ 1 ];
+			theta = Math.atan2( sin, cos );
+		}
+
+		@Override
+		public int size()
+		{
+			return 3;
+		}
+
+		@Override
+		public void get( final double[] x, final int offset )
+		{
+			x[ offset ] = 0;
+			x[ offset + 1 ] = m[ 4 ];
+			x[ offset + 2 ] = m[ 5 ];
+		}
+
+		@Override
+		public void set( final double[] x, final int offset )
+		{
+			model.set( theta + x[ offset ], x[ offset + 1 ], x[ offset + 2 ] );
+		}
+
+		@Override
+		public void linearize( final double[] l, final double[] j, final double[] c )
+		{
+			final double qx = cos * l[ 0 ] - sin * l[ 1 ];
+			final double qy = sin * l[ 0 ] + cos * l[ 1 ];
+			j[ 0 ] = -qy; j[ 1 ] = 1; j[ 2 ] = 0;
+			j[ 3 ] = qx;  j[ 4 ] = 0; j[ 5 ] = 1;
+			c[ 0 ] = qx;
+			c[ 1 ] = qy;
+		}
+
+		@Override
+		public boolean isNonlinear()
+		{
+			return true;
+		}
+	}
+
+	/**
+	 * Parameters are s&middot;cos&theta;, s&middot;sin&theta; and the
+	 * translation.
+	 */
+	static protected class LinearizedSimilarityModel2D extends LinearizedModel
+	{
+		final protected SimilarityModel2D model;
+
+		public LinearizedSimilarityModel2D( final SimilarityModel2D model )
+		{
+			this.model = model;
+		}
+
+		@Override
+		public int size()
+		{
+			return 4;
+		}
+
+		@Override
+		public void get( final double[] x, final int offset )
+		{
+			final double[] m = new double[ 6 ];
+			model.toArray( m );
+			x[ offset ] = m[ 0 ];
+			x[ offset + 1 ] = m[ 1 ];
+			x[ offset + 2 ] = m[ 4 ];
+			x[ offset + 3 ] = m[ 5 ];
+		}
+
+		@Override
+		public void set( final double[] x, final int offset )
+		{
+			model.set( x[ offset ], x[ offset + 1 ], x[ offset + 2 ], x[ offset + 3 ] );
+		}
+
+		@Override
+		public void linearize( final double[] l, final double[] j, final double[] c )
+		{
+			j[ 0 ] = l[ 0 ]; j[ 1 ] = -l[ 1 ]; j[ 2 ] = 1; j[ 3 ] = 0;
+			j[ 4 ] = l[ 1 ]; j[ 5 ] = l[ 0 ];  j[ 6 ] = 0; j[ 7 ] = 1;
+			c[ 0 ] = 0;
+			c[ 1 ] = 0;
+		}
+	}
+
+	/**
+	 * Parameters are m00, m01, m02, m10, m11, m12.
+	 */
+	static protected class LinearizedAffineModel2D extends LinearizedModel
+	{
+		final protected AffineModel2D model;
+
+		public LinearizedAffineModel2D( final AffineModel2D model )
+		{
+			this.model = model;
+		}
+
+		@Override
+		public int size()
+		{
+			return 6;
+		}
+
+		@Override
+		public void get( final double[] x, final int offset )
+		{
+			final double[] m = new double[ 6 ];
+			model.toArray( m );
+			x[ offset ] = m[ 0 ];
+			x[ offset + 1 ] = m[ 2 ];
+			x[ offset + 2 ] = m[ 4 ];
+			x[ offset + 3 ] = m[ 1 ];
+			x[ offset + 4 ] = m[ 3 ];
+			x[ offset + 5 ] = m[ 5 ];
+		}
+
+		@Override
+		public void set( final double[] x, final int offset )
+		{
+			model.set( x[ offset ], x[ offset + 3 ], x[ offset + 1 ], x[ offset + 4 ], x[ offset + 2 ], x[ offset + 5 ] );
+		}
+
+		@Override
+		public void linearize( final double[] l, final double[] j, final double[] c )
+		{
+			j[ 0 ] = l[ 0 ]; j[ 1 ] = l[ 1 ]; j[ 2 ] = 1; j[ 3 ] = 0;      j[ 4 ] = 0;      j[ 5 ] = 0;
+			j[ 6 ] = 0;      j[ 7 ] = 0;      j[ 8 ] = 0; j[ 9 ] = l[ 0 ]; j[ 10 ] = l[ 1 ]; j[ 11 ] = 1;
+			c[ 0 ] = 0;
+			c[ 1 ] = 0;
+		}
+	}
+
+	final protected List< Tile< ? > > tiles;
+	final protected HashMap< Point, Integer > pointTiles = new HashMap< Point, Integer >();
+	final protected LinearizedModel[] models;
+	final protected int[] offsets;
+	final protected int size;
+
+	/* block-sparse normal equations, one block row per tile */
+	final protected int[][] columns;
+	final protected double[][][] blocks;
+	final protected double[][] inverseDiagonalBlocks;
+	final protected double[] b;
+	final protected double[] x;
+
+	protected int numIterations = 0;
+	protected double residual = 0;
+
+	/**
+	 * @param freeTiles the {@link Tile Tiles} whose models are estimated,
+	 *   all other {@link Tile Tiles} are constant
+	 */
+	public SparseTileSolver( final Collection< ? extends Tile< ? > > freeTiles )
+	{
+		tiles = new ArrayList< Tile< ? > >( freeTiles );
+		final int n = tiles.size();
+		models = new LinearizedModel[ n ];
+		offsets = new int[ n + 1 ];
+		for ( int i = 0; i < n; ++i )
+		{
+			final Tile< ? > tile = tiles.get( i );
+			models[ i ] = LinearizedModel.create( tile.getModel() );
+			offsets[ i + 1 ] = offsets[ i ] + models[ i ].size();
+			for ( final PointMatch pm : tile.getMatches() )
+				pointTiles.put( pm.getP1(), i );
+		}
+		size = offsets[ n ];
+		columns = new int[ n ][];
+		blocks = new double[ n ][][];
+		inverseDiagonalBlocks = new double[ n ][];
+		b = new double[ size ];
+		x = new double[ size ];
+	}
+
+	/**
+	 * @return the number of conjugate gradient iterations of the last
+	 *   linear solve
+	 */
+	public int getNumIterations()
+	{
+		return numIterations;
+	}
+
+	/**
+	 * @return the residual of the normal equations relative to the initial
+	 *   residual after the last linear solve
+	 */
+	public double getResidual()
+	{
+		return residual;
+	}
+
+	/**
+	 * Assemble the block row of tile i.
+	 */
+	protected void assembleRow( final int i )
+	{
+		final LinearizedModel model = models[ i ];
+		final int k = model.size();
+		final int offset = offsets[ i ];
+		final double[] ji = new double[ 2 * k ];
+		final double[] ci = new double[ 2 ];
+		final double[] jj = new double[ 2 * 6 ];
+		final double[] cj = new double[ 2 ];
+		final double[] target = new double[ 2 ];
+		final HashMap< Integer, double[] > rowBlocks = new HashMap< Integer, double[] >();
+		final double[] diagonal = new double[ k * k ];
+		rowBlocks.put( i, diagonal );
+		Arrays.fill( b, offset, offset + k, 0 );
+
+		for ( final PointMatch pm : tiles.get( i ).getMatches() )
+		{
+			final double w = pm.getWeight();
+			model.linearize( pm.getP1().getL(), ji, ci );
+			final Integer j = pointTiles.get( pm.getP2() );
+			if ( j == null )
+			{
+				final double[] q = pm.getP2().getW();
+				target[ 0 ] = q[ 0 ];
+				target[ 1 ] = q[ 1 ];
+			}
+			else
+			{
+				final LinearizedModel other = models[ j ];
+				final int kj = other.size();
+				other.linearize( pm.getP2().getL(), jj, cj );
+				target[ 0 ] = cj[ 0 ];
+				target[ 1 ] = cj[ 1 ];
+				double[] block = rowBlocks.get( j );
+				if ( block == null )
+				{
+					block = new double[ k * kj ];
+					rowBlocks.put( j, block );
+				}
+				for ( int r = 0; r < k; ++r )
+					for ( int c = 0; c < kj; ++c )
+						block[ r * kj + c ] -= w * ( ji[ r ] * jj[ c ] + ji[ k + r ] * jj[ kj + c ] );
+			}
+			for ( int r = 0; r < k; ++r )
+			{
+				for ( int c = 0; c < k; ++c )
+					diagonal[ r * k + c ] += w * ( ji[ r ] * ji[ c ] + ji[ k + r ] * ji[ k + c ] );
+				b[ offset + r ] += w * ( ji[ r ] * ( target[ 0 ] - ci[ 0 ] ) + ji[ k + r ] * ( target[ 1 ] - ci[ 1 ] ) );
+			}
+		}
+
+		final int[] rowColumns = new int[ rowBlocks.size() ];
+		int c = 0;
+		for ( final Integer j : rowBlocks.keySet() )
+			rowColumns[ c++ ] = j;
+		Arrays.sort( rowColumns );
+		final double[][] rowBlockArray = new double[ rowColumns.length ][];
+		for ( c = 0; c < rowColumns.length; ++c )
+			rowBlockArray[ c ] = rowBlocks.get( rowColumns[ c ] );
+		columns[ i ] = rowColumns;
+		blocks[ i ] = rowBlockArray;
+		inverseDiagonalBlocks[ i ] = invert( diagonal, k );
+	}
+
+	/**
+	 * Invert a symmetric k&times;k block by Gauss-Jordan elimination.  Falls
+	 * back to the inverse of its diagonal if the block is singular.
+	 */
+	static protected double[] invert( final double[] a, final int k )
+	{
+		final double[] m = a.clone();
+		final double[] inverse = new double[ k * k ];
+		for ( int r = 0; r < k; ++r )
+			inverse[ r * k + r ] = 1;
+
+		double scale = 0;
+		for ( int r = 0; r < k; ++r )
+			scale = Math.max( scale, Math.abs( a[ r * k + r ] ) );
+
+		boolean singular = scale == 0;
+		for ( int col = 0; col < k && !singular; ++col )
+		{
+			int pivot = col;
+			for ( int r = col + 1; r < k; ++r )
+				if ( Math.abs( m[ r * k + col ] ) > Math.abs( m[ pivot * k + col ] ) )
+					pivot = r;
+			if ( Math.abs( m[ pivot * k + col ] ) <= 1e-12 * scale )
+				singular = true;
+			else
+			{
+				if ( pivot != col )
+				{
+					for ( int c = 0; c < k; ++c )
+					{
+						final double t = m[ col * k + c ];
+						m[ col * k + c ] = m[ pivot * k + c ];
+						m[ pivot * k + c ] = t;
+						final double s = inverse[ col * k + c ];
+						inverse[ col * k + c ] = inverse[ pivot * k + c ];
+						inverse[ pivot * k + c ] = s;
+					}
+				}
+				final double d = 1.0 / m[ col * k + col ];
+				for ( int c = 0; c < k; ++c )
+				{
+					m[ col * k + c ] *= d;
+					inverse[ col * k + c ] *= d;
+				}
+				for ( int r = 0; r < k; ++r )
+				{
+					if ( r == col ) continue;
+					final double f = m[ r * k + col ];
+					if ( f == 0 ) continue;
+					for ( int c = 0; c < k; ++c )
+					{
+						m[ r * k + c ] -= f * m[ col * k + c ];
+						inverse[ r * k + c ] -= f * inverse[ col * k + c ];
+					}
+				}
+			}
+		}
+
+		if ( singular )
+		{
+			Arrays.fill( inverse, 0 );
+			for ( int r = 0; r < k; ++r )
+			{
+				final double d = a[ r * k + r ];
+				inverse[ r * k + r ] = d > 0 ? 1.0 / d : 0;
+			}
+		}
+		return inverse;
+	}
+
+	/**
+	 * y = A x for the block rows [start, end).
+	 */
+	protected Void multiply( final double[] v, final double[] y, final int start, final int end )
+	{
+		for ( int i = start; i < end; ++i )
+		{
+			final int offset = offsets[ i ];
+			final int k = offsets[ i + 1 ] - offset;
+			Arrays.fill( y, offset, offset + k, 0 );
+			final int[] rowColumns = columns[ i ];
+			final double[][] rowBlocks = blocks[ i ];
+			for ( int c = 0; c < rowColumns.length; ++c )
+			{
+				final int j = rowColumns[ c ];
+				final int offsetJ = offsets[ j ];
+				final int kj = offsets[ j + 1 ] - offsetJ;
+				final double[] block = rowBlocks[ c ];
+				for ( int r = 0; r < k; ++r )
+				{
+					double s = 0;
+					for ( int l = 0; l < kj; ++l )
+						s += block[ r * kj + l ] * v[ offsetJ + l ];
+					y[ offset + r ] += s;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * z = M<sup>-1</sup> r for the block rows [start, end).
+	 */
+	protected Void precondition( final double[] r, final double[] z, final int start, final int end )
+	{
+		for ( int i = start; i < end; ++i )
+		{
+			final int offset = offsets[ i ];
+			final int k = offsets[ i + 1 ] - offset;
+			final double[] inverse = inverseDiagonalBlocks[ i ];
+			for ( int row = 0; row < k; ++row )
+			{
+				double s = 0;
+				for ( int l = 0; l < k; ++l )
+					s += inverse[ row * k + l ] * r[ offset + l ];
+				z[ offset + row ] = s;
+			}
+		}
+		return null;
+	}
+
+	static protected double dot( final double[] a, final double[] b )
+	{
+		double s = 0;
+		for ( int i = 0; i < a.length; ++i )
+			s += a[ i ] * b[ i ];
+		return s;
+	}
+
+	/**
+	 * An operation on the block rows [start, end).
+	 */
+	protected interface RangeOperation
+	{
+		public Void run( final int start, final int end );
+	}
+
+	protected void runRows( final RangeOperation operation, final ThreadPoolExecutor executor )
+	{
+		final int n = tiles.size();
+		if ( executor == null )
+		{
+			operation.run( 0, n );
+			return;
+		}
+		final int nThreads = executor.getMaximumPoolSize();
+		final int tilesPerThread = n / nThreads + ( n % nThreads == 0 ? 0 : 1 );
+		final ArrayList< Future< Void > > tasks = new ArrayList< Future< Void > >( nThreads );
+		for ( int t = 0; t < nThreads; ++t )
+		{
+			final int start = t * tilesPerThread;
+			final int end = Math.min( ( t + 1 ) * tilesPerThread, n );
+			tasks.add( executor.submit( () -> operation.run( start, end ) ) );
+		}
+		for ( final Future< Void > task : tasks )
+		{
+			try
+			{
+				task.get();
+			}
+			catch ( final InterruptedException | ExecutionException e )
+			{
+				throw new RuntimeException( e );
+			}
+		}
+	}
+
+	/**
+	 * Assemble the normal equations at the current models.
+	 */
+	protected void assemble( final ThreadPoolExecutor executor )
+	{
+		for ( int i = 0; i < models.length; ++i )
+		{
+			if ( models[ i ].isNonlinear() )
+				models[ i ] = LinearizedModel.create( tiles.get( i ).getModel() );
+			models[ i ].get( x, offsets[ i ] );
+		}
+		runRows( ( start, end ) -> {
+			for ( int i = start; i < end; ++i )
+				assembleRow( i );
+			return null;
+		}, executor );
+	}
+
+	/**
+	 * Solve the assembled normal equations with the block-Jacobi
+	 * preconditioned conjugate gradient method starting at x.
+	 */
+	protected void conjugateGradient( final int maxIterations, final double maxResidual, final ThreadPoolExecutor executor )
+	{
+		final double[] r = new double[ size ];
+		final double[] z = new double[ size ];
+		final double[] p = new double[ size ];
+		final double[] ap = new double[ size ];
+
+		runRows( ( start, end ) -> multiply( x, ap, start, end ), executor );
+		for ( int l = 0; l < size; ++l )
+			r[ l ] = b[ l ] - ap[ l ];
+		runRows( ( start, end ) -> precondition( r, z, start, end ), executor );
+		System.arraycopy( z, 0, p, 0, size );
+
+		double rz = dot( r, z );
+		final double r0 = Math.sqrt( dot( r, r ) );
+		residual = r0 == 0 ? 0 : 1;
+		numIterations = 0;
+		while ( numIterations < maxIterations && residual > maxResidual )
+		{
+			runRows( ( start, end ) -> multiply( p, ap, start, end ), executor );
+			final double pap = dot( p, ap );
+			if ( !( pap > 0 ) )
+				break;
+			final double alpha = rz / pap;
+			for ( int l = 0; l < size; ++l )
+			{
+				x[ l ] += alpha * p[ l ];
+				r[ l ] -= alpha * ap[ l ];
+			}
+			++numIterations;
+			residual = Math.sqrt( dot( r, r ) ) / r0;
+
+			runRows( ( start, end ) -> precondition( r, z, start, end ), executor );
+			final double rzNew = dot( r, z );
+			final double beta = rzNew / rz;
+			rz = rzNew;
+			for ( int l = 0; l < size; ++l )
+				p[ l ] = z[ l ] + beta * p[ l ];
+		}
+	}
+
+	/**
+	 * Estimate the models of all free {@link Tile Tiles} and apply them.
+	 *
+	 * @param maxIterations maximal number of conjugate gradient iterations
+	 *   per linear solve
+	 * @param maxResidual stop if the residual of the normal equations
+	 *   relative to the initial residual is smaller than this
+	 * @param maxLinearizations maximal number of linear solves for
+	 *   linearized models, stops earlier if the largest parameter update of
+	 *   the last solve was smaller than maxResidual
+	 * @param executor executes assembly, matrix products and preconditioning
+	 *   concurrently, may be null
+	 */
+	public void solve(
+			final int maxIterations,
+			final double maxResidual,
+			final int maxLinearizations,
+			final ThreadPoolExecutor executor )
+	{
+		boolean nonlinear = false;
+		for ( final LinearizedModel model : models )
+			nonlinear |= model.isNonlinear();
+
+		final double[] x0 = new double[ size ];
+		for ( int linearization = 0; linearization < ( nonlinear ? maxLinearizations : 1 ); ++linearization )
+		{
+			assemble( executor );
+			System.arraycopy( x, 0, x0, 0, size );
+			conjugateGradient( maxIterations, maxResidual, executor );
+
+			double maxUpdate = 0;
+			for ( int l = 0; l < size; ++l )
+				maxUpdate = Math.max( maxUpdate, Math.abs( x[ l ] - x0[ l ] ) );
+			for ( int i = 0; i < models.length; ++i )
+				models[ i ].set( x, offsets[ i ] );
+
+			if ( maxUpdate < maxResidual )
+				break;
+		}
+
+		runRows( ( start, end ) -> {
+			for ( int i = start; i < end; ++i )
+				tiles.get( i ).apply();
+			return null;
+		}, executor );
+	}
+
+	/**
+	 * Estimate the models of all free {@link Tile Tiles} with at most 16
+	 * linearizations and apply them.
+	 *
+	 * @param maxIterations maximal number of conjugate gradient iterations
+	 * @param maxResidual stop if the residual of the normal equations
+	 *   relative to the initial residual is smaller than this
+	 */
+	public void solve( final int maxIterations, final double maxResidual )
+	{
+		solve( maxIterations, maxResidual, 16, null );
+	}
+}
@@ -48,14 +48,22 @@ import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import mpicbg.ij.util.Util;
 
@@ -234,23 +242,8 @@ public class SpringMesh extends TransformMesh
 	 */
 	final public Vertex findClosestTargetVertex( final double[] there )
 	{
-		final Set< Vertex > vs = vp.keySet();
-
-		Vertex closest = null;
-		double cd = Double.MAX_VALUE;
-		for ( final Vertex v : vs )
-		{
-			final double[] here = v.getW();
-			final double dx = here[ 0 ] - there[ 0 ];
-			final double dy = here[ 1 ] - there[ 1 ];
-			final double d = dx * dx + dy * dy;
-			if ( d < cd )
-			{
-				cd = d;
-				closest = v;
-			}
-		}
-		return closest;
+		final PointMatch closest = findClosestTargetPoint( there );
+		return closest == null ? null : pv.get( closest );
 	}
 
 	/**
@@ -262,23 +255,8 @@ public class SpringMesh extends TransformMesh
 	 */
 	final public Vertex findClosestSourceVertex( final double[] there )
 	{
-		final Set< Vertex > vs = vp.keySet();
-
-		Vertex closest = null;
-		double cd = Double.MAX_VALUE;
-		for ( final Vertex v : vs )
-		{
-			final double[] here = v.getL();
-			final double dx = here[ 0 ] - there[ 0 ];
-			final double dy = here[ 1 ] - there[ 1 ];
-			final double d = dx * dx + dy * dy;
-			if ( d < cd )
-			{
-				cd = d;
-				closest = v;
-			}
-		}
-		return closest;
+		final PointMatch closest = findClosestSourcePoint( there );
+		return closest == null ? null : pv.get( closest );
 	}
 
 	/**
@@ -704,9 +682,128 @@ public class SpringMesh extends TransformMesh
 			final double maxStepSize,
 			final boolean visualize ) throws NotEnoughDataPointsException
 	{
+		try
+		{
+			optimizeMeshes( meshes, maxError, maxIterations, maxPlateauwidth, maxStepSize, visualize, null, 0 );
+		}
+		catch ( final IOException e )
+		{
+			/* cannot happen without checkpoint */
+			throw new RuntimeException( e );
+		}
+	}
+
+	/**
+	 * Optimize a {@link Collection} of connected {@link SpringMesh SpringMeshes}
+	 * and write a checkpoint every checkpointInterval iterations.  If the
+	 * checkpoint file exists, the optimization resumes from there.  Resuming
+	 * gives identical results if the meshes were built in the same order.
+	 * The checkpoint file is deleted when the optimization terminates
+	 * normally.
+	 *
+	 * @param maxError do not accept convergence if error is &gt; max_error
+	 * @param maxIterations stop after that many iterations even if there was
+	 *   no minimum found
+	 * @param maxPlateauwidth convergence is reached if the average slope in
+	 *   an interval of this size is 0.0 (in double accuracy).  This prevents
+	 *   the algorithm from stopping at plateaus smaller than this value.
+	 * @param checkpoint checkpoint file or null
+	 * @param checkpointInterval must be positive if a checkpoint file is
+	 *   passed
+	 *
+	 * @see #writeCheckpoint(Collection, File, int, double, ErrorStatistic)
+	 * @see #readCheckpoint(Collection, File, ErrorStatistic)
+	 */
+	public static void optimizeMeshes(
+			final Collection< SpringMesh > meshes,
+			final double maxError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double maxStepSize,
+			final boolean visualize,
+			final File checkpoint,
+			final int checkpointInterval ) throws NotEnoughDataPointsException, IOException
+	{
+		optimizeMeshes( meshes, maxError, maxIterations, maxPlateauwidth, maxStepSize, visualize, checkpoint, checkpointInterval, null );
+	}
+
+	/**
+	 * Optimize a {@link Collection} of connected {@link SpringMesh SpringMeshes}
+	 * using an {@link ExecutorService}.  The force, direction and update
+	 * phases of each iteration are executed concurrently for all meshes,
+	 * each phase is completed before the next starts.  Maximum force and
+	 * speed are reduced in the order of the meshes such that the result is
+	 * identical to that of the sequential optimization.
+	 *
+	 * @param maxError do not accept convergence if error is &gt; max_error
+	 * @param maxIterations stop after that many iterations even if there was
+	 *   no minimum found
+	 * @param maxPlateauwidth convergence is reached if the average slope in
+	 *   an interval of this size is 0.0 (in double accuracy).  This prevents
+	 *   the algorithm from stopping at plateaus smaller than this value.
+	 * @param executor
+	 */
+	public static void optimizeMeshes(
+			final Collection< SpringMesh > meshes,
+			final double maxError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double maxStepSize,
+			final boolean visualize,
+			final ExecutorService executor ) throws NotEnoughDataPointsException
+	{
+		try
+		{
+			optimizeMeshes( meshes, maxError, maxIterations, maxPlateauwidth, maxStepSize, visualize, null, 0, executor );
+		}
+		catch ( final IOException e )
+		{
+			/* cannot happen without checkpoint */
+			throw new RuntimeException( e );
+		}
+	}
+
+	/**
+	 * Optimize a {@link Collection} of connected {@link SpringMesh SpringMeshes}
+	 * with checkpoints, concurrently if an {@link ExecutorService} is given.
+	 *
+	 * @param maxError do not accept convergence if error is &gt; max_error
+	 * @param maxIterations stop after that many iterations even if there was
+	 *   no minimum found
+	 * @param maxPlateauwidth convergence is reached if the average slope in
+	 *   an interval of this size is 0.0 (in double accuracy).  This prevents
+	 *   the algorithm from stopping at plateaus smaller than this value.
+	 * @param checkpoint checkpoint file or null
+	 * @param checkpointInterval must be positive if a checkpoint file is
+	 *   passed
+	 * @param executor or null for sequential optimization
+	 *
+	 * @see #optimizeMeshes(Collection, double, int, int, double, boolean, File, int)
+	 * @see #optimizeMeshes(Collection, double, int, int, double, boolean, ExecutorService)
+	 */
+	public static void optimizeMeshes(
+			final Collection< SpringMesh > meshes,
+			final double maxError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double maxStepSize,
+			final boolean visualize,
+			final File checkpoint,
+			final int checkpointInterval,
+			final ExecutorService executor ) throws NotEnoughDataPointsException, IOException
+	{
+		if ( checkpoint != null && checkpointInterval < 1 )
+			throw new IllegalArgumentException( "checkpointInterval must be positive." );
+
 		final ErrorStatistic observer = new ErrorStatistic( maxPlateauwidth + 1 );
 		final ErrorStatistic singleMeshObserver = new ErrorStatistic( maxPlateauwidth + 1 );
 
+		/* the single mesh observers are not evaluated, concurrent updates need one each */
+		final ArrayList< SpringMesh > meshList = new ArrayList< SpringMesh >( meshes );
+		final ErrorStatistic[] singleMeshObservers = new ErrorStatistic[ meshList.size() ];
+		for ( int k = 0; k < singleMeshObservers.length; ++k )
+			singleMeshObservers[ k ] = executor == null ? singleMeshObserver : new ErrorStatistic( 1 );
+
 		int i = 0;
 
 		double force = 0;
@@ -734,9 +831,9 @@ public class SpringMesh extends TransformMesh
 
 		/* initialize dt */
 		maxForce = 0;
-		for ( final SpringMesh mesh : meshes )
+		forEachMesh( meshList, ( mesh, k ) -> mesh.updateForce( singleMeshObservers[ k ] ), executor );
+		for ( final SpringMesh mesh : meshList )
 		{
-			mesh.updateForce( singleMeshObserver );
 			force += mesh.getForce();
 
 			final double meshMaxForce = mesh.maxForce;
@@ -747,6 +844,14 @@ public class SpringMesh extends TransformMesh
 		double dt = Math.min( 1000, maxStepSize / maxForce );
 		double dt1 = dt;
 
+		if ( checkpoint != null && checkpoint.exists() )
+		{
+			final double[] iterationAndDt = readCheckpoint( meshes, checkpoint, observer );
+			i = ( int )iterationAndDt[ 0 ];
+			dt1 = iterationAndDt[ 1 ];
+			proceed = i < maxIterations;
+		}
+
 		while ( proceed )
 		{
 			force = 0;
@@ -770,9 +875,9 @@ public class SpringMesh extends TransformMesh
 			/* </visualization> */
 
 			/* update force vectors */
-			for ( final SpringMesh mesh : meshes )
+			forEachMesh( meshList, ( mesh, k ) -> mesh.updateForce( singleMeshObservers[ k ] ), executor );
+			for ( final SpringMesh mesh : meshList )
 			{
-				mesh.updateForce( singleMeshObserver );
 				force += mesh.getForce();
 
 				final double meshMaxForce = mesh.maxForce;
@@ -787,9 +892,10 @@ public class SpringMesh extends TransformMesh
 			dt = Math.min( dt0, ( dt1 + dt0 ) / 2.0 );
 
 			/* update motion vectors */
-			for ( final SpringMesh mesh : meshes )
+			final double dtDirection = dt;
+			forEachMesh( meshList, ( mesh, k ) -> mesh.updateDirection( dtDirection ), executor );
+			for ( final SpringMesh mesh : meshList )
 			{
-				mesh.updateDirection( dt );
 				if ( mesh.maxSpeed > maxSpeed )
 					maxSpeed = mesh.maxSpeed;
 			}
@@ -801,10 +907,8 @@ public class SpringMesh extends TransformMesh
 			dt1 = dt;
 
 
-			for ( final SpringMesh mesh : meshes )
-			{
-				mesh.update( dt );
-			}
+			final double dtUpdate = dt;
+			forEachMesh( meshList, ( mesh, k ) -> mesh.update( dtUpdate ), executor );
 
 			println( new StringBuffer( i + " " ).append( force / meshes.size() ).append( " " ).append( minForce ).append( " " ).append( maxForce ).append( " " ).append( dt ).toString() );
 
@@ -825,8 +929,15 @@ public class SpringMesh extends TransformMesh
 			}
 
 			proceed &= ++i < maxIterations;
+
+			if ( proceed && checkpoint != null && i % checkpointInterval == 0 )
+				writeCheckpoint( meshes, checkpoint, i, dt1, observer );
 		}
 
+		/* the checkpoint is stale once the optimization terminated */
+		if ( checkpoint != null )
+			Checkpoint.delete( checkpoint );
+
 		for ( final SpringMesh mesh : meshes )
 		{
 			mesh.updateAffines();
@@ -839,6 +950,213 @@ public class SpringMesh extends TransformMesh
 		System.out.println( "  maximal force: " + decimalFormat.format( maxForce ) + "N" );
 	}
 
+	/**
+	 * Optimize a {@link Collection} of connected {@link SpringMesh SpringMeshes}
+	 * like {@link #optimizeMeshes(Collection, double, int, int, double, boolean)}
+	 * on a {@link CompiledSpringMeshes compiled} representation of all
+	 * vertices and springs.  Iterations run without allocation, vertices and
+	 * affine transformations are updated at the end.
+	 *
+	 * @param maxError do not accept convergence if error is &gt; max_error
+	 * @param maxIterations stop after that many iterations even if there was
+	 *   no minimum found
+	 * @param maxPlateauwidth convergence is reached if the average slope in
+	 *   an interval of this size is 0.0 (in double accuracy).  This prevents
+	 *   the algorithm from stopping at plateaus smaller than this value.
+	 */
+	public static void optimizeMeshesCompiled(
+			final Collection< SpringMesh > meshes,
+			final double maxError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double maxStepSize )
+	{
+		final ErrorStatistic observer = new ErrorStatistic( maxPlateauwidth + 1 );
+		final CompiledSpringMeshes compiled = new CompiledSpringMeshes( meshes );
+		final int i = compiled.optimize( observer, maxError, maxIterations, maxPlateauwidth, maxStepSize );
+		compiled.writeBack();
+
+		System.out.println( "Successfully optimized " + meshes.size() + " meshes after " + i + " iterations:" );
+		System.out.println( "  average force: " + decimalFormat.format( compiled.getForce() ) + "N" );
+		System.out.println( "  minimal force: " + decimalFormat.format( compiled.getMinForce() ) + "N" );
+		System.out.println( "  maximal force: " + decimalFormat.format( compiled.getMaxForce() ) + "N" );
+	}
+
+	/**
+	 * Find the equilibrium of a {@link Collection} of connected
+	 * {@link SpringMesh SpringMeshes} by minimizing the elastic energy of
+	 * all {@link Spring Springs} with the limited memory BFGS method on a
+	 * {@link CompiledSpringMeshes compiled} representation.  This typically
+	 * requires far fewer evaluations than the damped integration in
+	 * {@link #optimizeMeshes(Collection, double, int, int, double, boolean)}.
+	 * Vertices and affine transformations are updated at the end.
+	 *
+	 * @param maxForce convergence is reached if the length of the energy
+	 *   gradient at each active vertex is not larger than this value
+	 * @param maxIterations stop after that many iterations even if there was
+	 *   no minimum found
+	 *
+	 * @see CompiledSpringMeshes#optimizeLBFGS(ErrorStatistic, double, int, int, double)
+	 */
+	public static void optimizeMeshesLBFGS(
+			final Collection< SpringMesh > meshes,
+			final double maxForce,
+			final int maxIterations )
+	{
+		final ErrorStatistic observer = new ErrorStatistic( 2 );
+		final CompiledSpringMeshes compiled = new CompiledSpringMeshes( meshes );
+		final int numEvaluations = compiled.optimizeLBFGS( observer, maxForce, maxIterations, 7, 0.5 );
+		compiled.writeBack();
+
+		System.out.println( "Successfully optimized " + meshes.size() + " meshes after " + observer.n() + " iterations (" + numEvaluations + " evaluations):" );
+		System.out.println( "  average force: " + decimalFormat.format( compiled.getForce() ) + "N" );
+		System.out.println( "  minimal force: " + decimalFormat.format( compiled.getMinForce() ) + "N" );
+		System.out.println( "  maximal force: " + decimalFormat.format( compiled.getMaxForce() ) + "N" );
+	}
+
+	protected interface MeshOperation
+	{
+		public void run( final SpringMesh mesh, final int index );
+	}
+
+	/**
+	 * Run an operation for all meshes, concurrently if an
+	 * {@link ExecutorService} is given, and wait until all are done.
+	 */
+	static protected void forEachMesh(
+			final List< SpringMesh > meshes,
+			final MeshOperation operation,
+			final ExecutorService executor )
+	{
+		if ( executor == null )
+		{
+			for ( int k = 0; k < meshes.size(); ++k )
+				operation.run( meshes.get( k ), k );
+		}
+		else
+		{
+			final ArrayList< Future< ? > > tasks = new ArrayList< Future< ? > >( meshes.size() );
+			for ( int k = 0; k < meshes.size(); ++k )
+			{
+				final SpringMesh mesh = meshes.get( k );
+				final int index = k;
+				tasks.add( executor.submit( () -> operation.run( mesh, index ) ) );
+			}
+			for ( final Future< ? > task : tasks )
+			{
+				try
+				{
+					task.get();
+				}
+				catch ( final InterruptedException | ExecutionException e )
+				{
+					throw new RuntimeException( e );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the world coordinates and directions of all active
+	 * {@link Vertex Vertices}, the iteration, the step size and the
+	 * {@link ErrorStatistic} of an optimization of a {@link Collection} of
+	 * {@link SpringMesh SpringMeshes} to a checkpoint file.
+	 *
+	 * @param meshes
+	 * @param file
+	 * @param iteration
+	 * @param dt
+	 * @param observer
+	 * @throws IOException
+	 */
+	public static void writeCheckpoint(
+			final Collection< SpringMesh > meshes,
+			final File file,
+			final int iteration,
+			final double dt,
+			final ErrorStatistic observer ) throws IOException
+	{
+		Checkpoint.write( file, "SpringMesh", ( final ObjectOutputStream out ) ->
+		{
+			out.writeInt( iteration );
+			out.writeDouble( dt );
+			out.writeInt( meshes.size() );
+			for ( final SpringMesh mesh : meshes )
+			{
+				out.writeDouble( mesh.maxSpeed );
+				out.writeInt( mesh.vertices.size() );
+				for ( final Vertex vertex : mesh.vertices )
+				{
+					Checkpoint.writeDoubles( out, vertex.getW() );
+					Checkpoint.writeDoubles( out, vertex.getDirection() );
+				}
+			}
+			observer.write( out );
+		} );
+	}
+
+	/**
+	 * Restore an optimization of a {@link Collection} of
+	 * {@link SpringMesh SpringMeshes} from a checkpoint written by
+	 * {@link #writeCheckpoint(Collection, File, int, double, ErrorStatistic)}.
+	 * The meshes must have been built in the same order.  If the checkpoint
+	 * does not match, the meshes and the observer remain unchanged.
+	 *
+	 * @param meshes
+	 * @param file
+	 * @param observer
+	 * @return {iteration, dt}
+	 * @throws IOException if the checkpoint does not match the meshes
+	 */
+	public static double[] readCheckpoint(
+			final Collection< SpringMesh > meshes,
+			final File file,
+			final ErrorStatistic observer ) throws IOException
+	{
+		return Checkpoint.read( file, "SpringMesh", ( final ObjectInputStream in ) ->
+		{
+			/* read everything before restoring anything such that a mismatch leaves the meshes untouched */
+			final double[] iterationAndDt = new double[]{ in.readInt(), in.readDouble() };
+			if ( in.readInt() != meshes.size() )
+				throw new IOException( "Checkpoint does not match: number of meshes." );
+			final double[] maxSpeeds = new double[ meshes.size() ];
+			final ArrayList< double[] > coordinates = new ArrayList< double[] >();
+			int i = 0;
+			for ( final SpringMesh mesh : meshes )
+			{
+				maxSpeeds[ i++ ] = in.readDouble();
+				if ( in.readInt() != mesh.vertices.size() )
+					throw new IOException( "Checkpoint does not match: number of vertices." );
+				for ( final Vertex vertex : mesh.vertices )
+				{
+					final double[] w = new double[ vertex.getW().length ];
+					final double[] direction = new double[ vertex.getDirection().length ];
+					Checkpoint.readDoubles( in, w );
+					Checkpoint.readDoubles( in, direction );
+					coordinates.add( w );
+					coordinates.add( direction );
+				}
+			}
+			Checkpoint.readErrorStatistic( in, observer );
+
+			i = 0;
+			int k = 0;
+			for ( final SpringMesh mesh : meshes )
+			{
+				mesh.maxSpeed = maxSpeeds[ i++ ];
+				for ( final Vertex vertex : mesh.vertices )
+				{
+					final double[] w = coordinates.get( k++ );
+					final double[] direction = coordinates.get( k++ );
+					System.arraycopy( w, 0, vertex.getW(), 0, w.length );
+					System.arraycopy( direction, 0, vertex.getDirection(), 0, direction.length );
+				}
+				mesh.updateAffines();
+				mesh.updatePassiveVertices();
+			}
+			return iterationAndDt;
+		} );
+	}
 
 	/* LEGACY OPTIMIZER */
 
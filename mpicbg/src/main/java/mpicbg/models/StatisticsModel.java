@@ -0,0 +1,56 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+/**
+ * A {@link Model} that can be estimated from the accumulated
+ * {@link PointMatchStatistics sufficient statistics} of its
+ * {@link PointMatch PointMatches} instead of the matches themselves.
+ *
+ * @param <S> the statistics type
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+public interface StatisticsModel< S extends PointMatchStatistics< S > >
+{
+	/**
+	 * Create empty statistics to be accumulated and passed to
+	 * {@link #fit(PointMatchStatistics)}.
+	 *
+	 * @return empty statistics
+	 */
+	public S createStatistics();
+
+	/**
+	 * Fit the {@link Model} to accumulated statistics.  Unless documented
+	 * otherwise by the implementation, the result is the same as that of
+	 * {@link Model#fit(java.util.Collection)} for the accumulated matches up
+	 * to rounding.
+	 *
+	 * @param statistics
+	 *
+	 * @throws NotEnoughDataPointsException if not enough matches were accumulated
+	 * @throws IllDefinedDataPointsException if the accumulated matches do not
+	 *   define a unique solution
+	 */
+	public void fit( final S statistics ) throws NotEnoughDataPointsException, IllDefinedDataPointsException;
+}
@@ -39,10 +39,19 @@ package mpicbg.models;
 
 
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  *
@@ -75,7 +84,7 @@ public class Tile< M extends Model< M > > implements Serializable
 	 * {@link PointMatch#getP1() p1} and {@link PointMatch#getP1() p1} have the
 	 * same world coordinates for all {@link PointMatch PointMatches}.
 	 */
-	final protected Set< PointMatch > matches = new HashSet< PointMatch >();
+	final protected Set< PointMatch > matches = new LinkedHashSet< PointMatch >();
 	final public Set< PointMatch > getMatches(){ return matches; }
 
 	/**
@@ -121,7 +130,7 @@ public class Tile< M extends Model< M > > implements Serializable
 	 * Note that point correspondences do not know about the tiles they belong
 	 * to.
 	 */
-	final protected Set< Tile< ? > > connectedTiles = new HashSet< Tile< ? > >();
+	final protected Set< Tile< ? > > connectedTiles = new LinkedHashSet< Tile< ? > >();
 	final public Set< Tile< ? > > getConnectedTiles() { return connectedTiles; }
 
 
@@ -343,17 +352,23 @@ public class Tile< M extends Model< M > > implements Serializable
 
 	/**
 	 * Find all {@link Tile}s that represent one connectivity graph by
-	 * recursively tracing the {@link #connectedTiles}.
+	 * tracing the {@link #connectedTiles}.  The graph is traversed with an
+	 * explicit stack such that large graphs do not exhaust the call stack.
 	 *
 	 * @param graph
 	 */
 	final protected void traceConnectedGraph( final Set< Tile< ? > > graph )
 	{
+		final ArrayDeque< Tile< ? > > stack = new ArrayDeque< Tile< ? > >();
 		graph.add( this );
-		for ( final Tile< ? > t : connectedTiles )
+		stack.push( this );
+		while ( !stack.isEmpty() )
 		{
-			if ( !graph.contains( t ) )
-				t.traceConnectedGraph( graph );
+			for ( final Tile< ? > t : stack.pop().connectedTiles )
+			{
+				if ( graph.add( t ) )
+					stack.push( t );
+			}
 		}
 	}
 
@@ -397,4 +412,133 @@ A:		for ( final Tile< ? > tile : tiles )
 		}
 		return graphs;
 	}
+
+	/**
+	 * Identify the set of connected graphs that contains all given tiles
+	 * using a given {@link ThreadPoolExecutor}.  The connections of all tiles
+	 * are inspected concurrently and merged in a lock-free union-find
+	 * structure.  The graphs are returned in the same order as by
+	 * {@link #identifyConnectedGraphs(Collection)}.
+	 *
+	 * Unlike {@link #identifyConnectedGraphs(Collection)}, connections to
+	 * tiles that are not in <code>tiles</code> are ignored, i.e.
+	 * <code>tiles</code> is expected to be closed under
+	 * {@link #getConnectedTiles()} as it is for the tiles of a
+	 * {@link TileConfiguration}.
+	 *
+	 * @param tiles
+	 * @param executor
+	 * @return
+	 */
+	final static public ArrayList< Set< Tile< ? > > > identifyConnectedGraphs(
+			final Collection< ? extends Tile< ? > > tiles,
+			final ThreadPoolExecutor executor )
+	{
+		final ArrayList< Tile< ? > > tileList = new ArrayList< Tile< ? > >( tiles );
+		final int nTiles = tileList.size();
+		final HashMap< Tile< ? >, Integer > indices = new HashMap< Tile< ? >, Integer >( 2 * nTiles );
+		final AtomicIntegerArray roots = new AtomicIntegerArray( nTiles );
+		for ( int i = 0; i < nTiles; ++i )
+		{
+			indices.put( tileList.get( i ), i );
+			roots.set( i, i );
+		}
+
+		final int nThreads = executor.getMaximumPoolSize();
+		final int tilesPerThread = nTiles / nThreads + ( nTiles % nThreads == 0 ? 0 : 1 );
+		final ArrayList< Future< Void > > tasks = new ArrayList< Future< Void > >( nThreads );
+		for ( int j = 0; j < nThreads; ++j )
+		{
+			final int start = j * tilesPerThread;
+			final int end = Math.min( ( j + 1 ) * tilesPerThread, nTiles );
+			tasks.add( executor.submit( () -> unionConnectedTiles( tileList, indices, roots, start, end ) ) );
+		}
+		for ( final Future< Void > task : tasks )
+		{
+			try
+			{
+				task.get();
+			}
+			catch ( final InterruptedException | ExecutionException e )
+			{
+				throw new RuntimeException( e );
+			}
+		}
+
+		/* roots are always the smallest index of their graph */
+		final ArrayList< Set< Tile< ? > > > graphs = new ArrayList< Set< Tile< ? > > >();
+		final HashMap< Integer, Set< Tile< ? > > > graphsByRoot = new HashMap< Integer, Set< Tile< ? > > >();
+		for ( int i = 0; i < nTiles; ++i )
+		{
+			final int root = findRoot( roots, i );
+			Set< Tile< ? > > graph = graphsByRoot.get( root );
+			if ( graph == null )
+			{
+				graph = new HashSet< Tile< ? > >();
+				graphsByRoot.put( root, graph );
+				graphs.add( graph );
+			}
+			graph.add( tileList.get( i ) );
+		}
+		return graphs;
+	}
+
+	static private Void unionConnectedTiles(
+			final List< Tile< ? > > tiles,
+			final Map< Tile< ? >, Integer > indices,
+			final AtomicIntegerArray roots,
+			final int start,
+			final int end )
+	{
+		for ( int i = start; i < end; ++i )
+		{
+			for ( final Tile< ? > t : tiles.get( i ).connectedTiles )
+			{
+				final Integer j = indices.get( t );
+				if ( j != null )
+					union( roots, i, j );
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Find the root of i with concurrent path halving.
+	 */
+	static private int findRoot( final AtomicIntegerArray roots, int i )
+	{
+		while ( true )
+		{
+			final int p = roots.get( i );
+			if ( p == i )
+				return i;
+			final int q = roots.get( p );
+			if ( p != q )
+				roots.compareAndSet( i, p, q );
+			i = q;
+		}
+	}
+
+	/**
+	 * Link the roots of i and j, the larger root always becomes a child of
+	 * the smaller one.
+	 */
+	static private void union( final AtomicIntegerArray roots, int i, int j )
+	{
+		while ( true )
+		{
+			i = findRoot( roots, i );
+			j = findRoot( roots, j );
+			if ( i == j )
+				return;
+			if ( i < j )
+			{
+				final int k = i;
+				i = j;
+				j = k;
+			}
+			if ( roots.compareAndSet( i, i, j ) )
+				return;
+		}
+	}
 }
@@ -39,6 +39,10 @@ package mpicbg.models;
 
 import mpicbg.util.RealSum;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
@@ -46,10 +50,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 
@@ -69,12 +75,19 @@ public class TileConfiguration implements Serializable
 	final static protected DecimalFormat decimalFormat = new DecimalFormat();
 	final static protected DecimalFormatSymbols decimalFormatSymbols = new DecimalFormatSymbols();
 
-	final protected HashSet< Tile< ? > > tiles = new HashSet< Tile< ? > >();
+	final protected HashSet< Tile< ? > > tiles = new LinkedHashSet< Tile< ? > >();
 	final public HashSet< Tile< ? > > getTiles(){ return tiles; }
 
-	final protected HashSet< Tile< ? > > fixedTiles = new HashSet< Tile< ? > >();
+	final protected HashSet< Tile< ? > > fixedTiles = new LinkedHashSet< Tile< ? > >();
 	final public HashSet< Tile< ? > > getFixedTiles(){ return fixedTiles; }
 
+	/**
+	 * {@link Tile Tiles} added since the last optimization or pre-alignment,
+	 * see {@link #markOptimized()}
+	 */
+	final protected LinkedHashSet< Tile< ? > > newTiles = new LinkedHashSet< Tile< ? > >();
+	final public LinkedHashSet< Tile< ? > > getNewTiles(){ return newTiles; }
+
 	protected double minError = Double.MAX_VALUE;
 	final public double getMinError() {	return minError; }
 
@@ -102,32 +115,56 @@ public class TileConfiguration implements Serializable
 	{
 		tiles.clear();
 		fixedTiles.clear();
+		newTiles.clear();
 
 		minError = Double.MAX_VALUE;
 		maxError = 0.0;
 		error = Double.MAX_VALUE;
 	}
 
+	/**
+	 * Forget which {@link Tile Tiles} were {@link #getNewTiles() added} since
+	 * the last optimization such that the next
+	 * {@link #optimizeSilentlyIncremental(ErrorStatistic, double, int, int, double, int)
+	 * incremental optimization} considers only {@link Tile Tiles} added
+	 * after this call.  Called at the end of all optimizations and
+	 * pre-alignments of the whole configuration and of
+	 * {@link #optimizeSilentlyIncremental(ErrorStatistic, double, int, int, double, int)}.
+	 * Call it explicitly after aligning the {@link Tile Tiles} otherwise.
+	 */
+	public void markOptimized()
+	{
+		newTiles.clear();
+	}
+
 	/**
 	 * Add a single {@link Tile}.
 	 *
 	 * @param t
 	 */
-	public void addTile( final Tile< ? > t ){ tiles.add( t ); }
+	public void addTile( final Tile< ? > t )
+	{
+		if ( tiles.add( t ) )
+			newTiles.add( t );
+	}
 
 	/**
 	 * Add a {@link Collection} of {@link Tile Tiles}.
 	 *
 	 * @param t
 	 */
-	public void addTiles( final Collection< ? extends Tile< ? > > t ){ tiles.addAll( t ); }
+	public void addTiles( final Collection< ? extends Tile< ? > > t )
+	{
+		for ( final Tile< ? > tile : t )
+			addTile( tile );
+	}
 
 	/**
 	 * Add all {@link Tile Tiles} of another {@link TileConfiguration}.
 	 *
 	 * @param t
 	 */
-	public void addTiles( final TileConfiguration t ){ tiles.addAll( t.tiles ); }
+	public void addTiles( final TileConfiguration t ){ addTiles( t.tiles ); }
 
 	/**
 	 * Fix a single {@link Tile}.
@@ -152,7 +189,10 @@ public class TileConfiguration implements Serializable
 	 * {@link ThreadPoolExecutor}.
 	 */
 	protected void apply(final ThreadPoolExecutor executor) {
-		final List<Tile<?>> allTiles = new ArrayList<>(tiles);
+		apply(new ArrayList<>(tiles), executor);
+	}
+
+	private static void apply(final List<Tile<?>> allTiles, final ThreadPoolExecutor executor) {
 		final int nTiles = allTiles.size();
 		final int nThreads = executor.getMaximumPoolSize();
 		final int tilesPerThread = nTiles / nThreads + (nTiles % nThreads == 0 ? 0 : 1);
@@ -313,12 +353,62 @@ public class TileConfiguration implements Serializable
 			final int maxPlateauwidth,
 			final double damp ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
 	{
+		try
+		{
+			optimizeSilently( observer, maxAllowedError, maxIterations, maxPlateauwidth, damp, null, 0 );
+		}
+		catch ( final IOException e )
+		{
+			/* cannot happen without checkpoint */
+			throw new RuntimeException( e );
+		}
+	}
+
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} and write a checkpoint every
+	 * checkpointInterval iterations.  If the checkpoint file exists, the
+	 * optimization resumes from there.  Resuming gives identical results if
+	 * the configuration was built in the same order.  The checkpoint file is
+	 * deleted when the optimization terminates normally.
+	 *
+	 * @param maxAllowedError do not accept convergence if error is &gt; max_error
+	 * @param maxIterations stop after that many iterations even if there was
+	 *   no minimum found
+	 * @param maxPlateauwidth convergence is reached if the average absolute
+	 *   slope in an interval of this size and half this size is smaller than
+	 *   0.0001 (in double accuracy).  This is assumed to prevent the algorithm
+	 *   from stopping at plateaus smaller than this value.
+	 * @param checkpoint checkpoint file or null
+	 * @param checkpointInterval must be positive if a checkpoint file is
+	 *   passed
+	 *
+	 * @see #writeCheckpoint(File, int, ErrorStatistic)
+	 * @see #readCheckpoint(File, ErrorStatistic)
+	 */
+	public void optimizeSilently(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp,
+			final File checkpoint,
+			final int checkpointInterval ) throws NotEnoughDataPointsException, IllDefinedDataPointsException, IOException
+	{
+		if ( checkpoint != null && checkpointInterval < 1 )
+			throw new IllegalArgumentException( "checkpointInterval must be positive." );
+
 		int i = 0;
 
-		boolean proceed = i < maxIterations;
+		if ( checkpoint != null && checkpoint.exists() )
+			i = readCheckpoint( checkpoint, observer );
+		else
+		{
+			/* initialize the configuration with the current model of each tile */
+			apply();
+		}
 
-		/* initialize the configuration with the current model of each tile */
-		apply();
+		boolean proceed = i < maxIterations;
 
 
 //		println( "i mean min max" );
@@ -353,7 +443,340 @@ public class TileConfiguration implements Serializable
 //			println( new StringBuffer( i + " " ).append( error ).append( " " ).append( minError ).append( " " ).append( maxError ).toString() );
 
 			proceed &= ++i < maxIterations;
+
+			if ( proceed && checkpoint != null && i % checkpointInterval == 0 )
+				writeCheckpoint( checkpoint, i, observer );
+		}
+
+		/* the checkpoint is stale once the optimization terminated */
+		if ( checkpoint != null )
+			Checkpoint.delete( checkpoint );
+
+		markOptimized();
+	}
+
+	/**
+	 * Write the models of all {@link Tile Tiles}, the world coordinates of
+	 * all their {@link PointMatch PointMatches}, the iteration and the
+	 * {@link ErrorStatistic} to a checkpoint file.
+	 *
+	 * @param file
+	 * @param iteration
+	 * @param observer
+	 * @throws IOException
+	 */
+	public void writeCheckpoint( final File file, final int iteration, final ErrorStatistic observer ) throws IOException
+	{
+		Checkpoint.write( file, "TileConfiguration", ( final ObjectOutputStream out ) ->
+		{
+			out.writeInt( iteration );
+			out.writeInt( tiles.size() );
+			for ( final Tile< ? > tile : tiles )
+			{
+				out.writeObject( tile.getModel() );
+				out.writeInt( tile.getMatches().size() );
+				for ( final PointMatch match : tile.getMatches() )
+					Checkpoint.writeDoubles( out, match.getP1().getW() );
+			}
+			observer.write( out );
+		} );
+	}
+
+	/**
+	 * Restore the models of all {@link Tile Tiles}, the world coordinates of
+	 * all their {@link PointMatch PointMatches} and the
+	 * {@link ErrorStatistic} from a checkpoint written by
+	 * {@link #writeCheckpoint(File, int, ErrorStatistic)}.  The configuration
+	 * must have been built in the same order.  If the checkpoint does not
+	 * match, the configuration and the observer remain unchanged.
+	 *
+	 * @param file
+	 * @param observer
+	 * @return the iteration
+	 * @throws IOException if the checkpoint does not match this configuration
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public int readCheckpoint( final File file, final ErrorStatistic observer ) throws IOException
+	{
+		return Checkpoint.read( file, "TileConfiguration", ( final ObjectInputStream in ) ->
+		{
+			/* read everything before restoring anything such that a mismatch leaves the configuration untouched */
+			final int iteration = in.readInt();
+			if ( in.readInt() != tiles.size() )
+				throw new IOException( "Checkpoint does not match: number of tiles." );
+			final ArrayList< Model< ? > > models = new ArrayList< Model< ? > >( tiles.size() );
+			final ArrayList< double[] > coordinates = new ArrayList< double[] >();
+			for ( final Tile< ? > tile : tiles )
+			{
+				models.add( Checkpoint.readModelCopy( in, tile.getModel() ) );
+				if ( in.readInt() != tile.getMatches().size() )
+					throw new IOException( "Checkpoint does not match: number of matches." );
+				for ( final PointMatch match : tile.getMatches() )
+				{
+					final double[] w = new double[ match.getP1().getW().length ];
+					Checkpoint.readDoubles( in, w );
+					coordinates.add( w );
+				}
+			}
+			Checkpoint.readErrorStatistic( in, observer );
+
+			int i = 0;
+			int k = 0;
+			for ( final Tile< ? > tile : tiles )
+			{
+				( ( Model )tile.getModel() ).set( models.get( i++ ) );
+				for ( final PointMatch match : tile.getMatches() )
+				{
+					final double[] w = coordinates.get( k++ );
+					System.arraycopy( w, 0, match.getP1().getW(), 0, w.length );
+				}
+			}
+			return iteration;
+		} );
+	}
+
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} with multigrid W-cycles.  Each cycle smoothes
+	 * the configuration with a few sweeps of {@link Tile#fitModel()} and
+	 * {@link Tile#apply(double)}, optimizes a hierarchy of
+	 * {@link CoarseTileConfiguration CoarseTileConfigurations} that aggregate
+	 * neighboring {@link Tile Tiles}, transfers the coarse corrections back
+	 * to the member {@link Tile Tiles} and smoothes again.  Corrections thus
+	 * travel across the whole configuration in each cycle instead of one
+	 * {@link Tile} per iteration.
+	 *
+	 * @param maxAllowedError do not accept convergence if error is &gt; max_error
+	 * @param maxIterations stop after that many W-cycles even if there was
+	 *   no minimum found
+	 * @param maxPlateauwidth convergence is reached if the average absolute
+	 *   slope in an interval of this size and half this size is smaller than
+	 *   0.0001 (in double accuracy).  This is assumed to prevent the algorithm
+	 *   from stopping at plateaus smaller than this value.
+	 * @param numSmoothingIterations number of sweeps before and after the
+	 *   coarse correction on each level
+	 */
+	public void optimizeSilentlyHierarchical(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp,
+			final int numSmoothingIterations ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		int i = 0;
+
+		boolean proceed = i < maxIterations;
+
+		final ArrayList< CoarseTileConfiguration > levels = createHierarchy();
+
+		/* initialize the configuration with the current model of each tile */
+		apply();
+
+		while ( proceed )
+		{
+			wCycle( levels, 0, damp, numSmoothingIterations );
+			updateErrors();
+			observer.add( error );
+
+			if ( i > maxPlateauwidth )
+			{
+				proceed = error > maxAllowedError;
+
+				int d = maxPlateauwidth;
+				while ( !proceed && d >= 1 )
+				{
+					try
+					{
+						proceed |= Math.abs( observer.getWideSlope( d ) ) > 0.0001;
+					}
+					catch ( final Exception e ) { e.printStackTrace(); }
+					d /= 2;
+				}
+			}
+
+			proceed &= ++i < maxIterations;
 		}
+
+		markOptimized();
+	}
+
+	/**
+	 * Fit and apply all non-fixed {@link Tile Tiles} n times.
+	 */
+	protected void smooth( final double damp, final int n ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		for ( int k = 0; k < n; ++k )
+		{
+			for ( final Tile< ? > tile : tiles )
+			{
+				if ( fixedTiles.contains( tile ) ) continue;
+				tile.fitModel();
+				tile.apply( damp );
+			}
+		}
+	}
+
+	/**
+	 * Create a hierarchy of {@link CoarseTileConfiguration
+	 * CoarseTileConfigurations}, each aggregating the {@link Tile Tiles} of
+	 * the previous level.  Coarsening stops at a level with no more than 64
+	 * {@link Tile Tiles} or when it does not at least halve the number of
+	 * {@link Tile Tiles}.
+	 */
+	protected ArrayList< CoarseTileConfiguration > createHierarchy()
+	{
+		final ArrayList< CoarseTileConfiguration > levels = new ArrayList< CoarseTileConfiguration >();
+		TileConfiguration level = this;
+		while ( true )
+		{
+			final CoarseTileConfiguration coarse = new CoarseTileConfiguration( level, 1 );
+			levels.add( coarse );
+			final int numCoarseTiles = coarse.getTiles().size();
+			if ( numCoarseTiles <= 64 || 2 * numCoarseTiles > level.getTiles().size() )
+				return levels;
+			level = coarse;
+		}
+	}
+
+	/**
+	 * One multigrid W-cycle from level l of a hierarchy created by
+	 * {@link #createHierarchy()}, i.e. each coarse level but the coarsest is
+	 * visited twice per visit of its fine level.  This compensates for the
+	 * weak coarse corrections of plain aggregation.  The coarsest level is
+	 * smoothed with as many sweeps as it has {@link Tile Tiles}, which is no
+	 * less than its diameter, but at most 100.  All {@link Tile Tiles} must
+	 * be {@linkplain #apply() applied}.
+	 */
+	protected void wCycle(
+			final List< CoarseTileConfiguration > levels,
+			final int l,
+			final double damp,
+			final int numSmoothingIterations ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		smooth( damp, numSmoothingIterations );
+
+		final CoarseTileConfiguration coarse = levels.get( l );
+		final int numCoarseTiles = coarse.getTiles().size();
+		if ( numCoarseTiles > coarse.getFixedTiles().size() )
+		{
+			coarse.update();
+			if ( l == levels.size() - 1 )
+				coarse.smooth( damp, Math.min( numCoarseTiles, 100 ) );
+			else
+			{
+				coarse.wCycle( levels, l + 1, damp, numSmoothingIterations );
+				coarse.wCycle( levels, l + 1, damp, numSmoothingIterations );
+			}
+			coarse.prolongate();
+		}
+
+		smooth( damp, numSmoothingIterations );
+	}
+
+	/**
+	 * Collect all {@link Tile Tiles} of this configuration that are at most
+	 * radius connections away from the {@link #getNewTiles() new tiles}.
+	 */
+	protected LinkedHashSet< Tile< ? > > collectNeighborhood( final int radius )
+	{
+		final LinkedHashSet< Tile< ? > > neighborhood = new LinkedHashSet< Tile< ? > >( newTiles );
+		ArrayList< Tile< ? > > level = new ArrayList< Tile< ? > >( newTiles );
+		for ( int r = 0; r < radius && level.size() > 0; ++r )
+		{
+			final ArrayList< Tile< ? > > nextLevel = new ArrayList< Tile< ? > >();
+			for ( final Tile< ? > tile : level )
+				for ( final Tile< ? > t : tile.getConnectedTiles() )
+					if ( tiles.contains( t ) && neighborhood.add( t ) )
+						nextLevel.add( t );
+			level = nextLevel;
+		}
+		return neighborhood;
+	}
+
+	/**
+	 * Pre-align the {@link #getNewTiles() new tiles} to the
+	 * {@link Tile Tiles} that were added before like {@link #preAlign()}
+	 * without changing the latter.
+	 *
+	 * @return - a list of {@link Tile}s that could not be pre-aligned
+	 * @throws NotEnoughDataPointsException
+	 * @throws IllDefinedDataPointsException
+	 */
+	public List< Tile< ? > > preAlignIncremental() throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		final TileConfiguration local = new TileConfiguration();
+		for ( final Tile< ? > tile : newTiles )
+		{
+			local.tiles.add( tile );
+			if ( fixedTiles.contains( tile ) )
+				local.fixedTiles.add( tile );
+			for ( final Tile< ? > t : tile.getConnectedTiles() )
+			{
+				if ( tiles.contains( t ) && !newTiles.contains( t ) )
+				{
+					local.tiles.add( t );
+					local.fixedTiles.add( t );
+				}
+			}
+		}
+		if ( local.fixedTiles.size() == 0 )
+			return new ArrayList< Tile< ? > >( newTiles );
+		return local.preAlign();
+	}
+
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of the {@link Tile Tiles} that were added since the last optimization
+	 * (see {@link #markOptimized()}) and of all {@link Tile Tiles} that are at most radius
+	 * connections away from them.  All other {@link Tile Tiles} remain
+	 * unchanged such that the effort depends on the size of the
+	 * neighborhood and not on the size of the configuration.  Call
+	 * {@link #preAlignIncremental()} first if the new tiles are not yet
+	 * roughly aligned.
+	 *
+	 * The observer records the average displacement in the neighborhood,
+	 * {@link #getError()}, {@link #getMinError()} and {@link #getMaxError()}
+	 * are updated for the whole configuration at the end.
+	 *
+	 * @param maxAllowedError do not accept convergence if error is &gt; max_error
+	 * @param maxIterations stop after that many iterations even if there was
+	 *   no minimum found
+	 * @param maxPlateauwidth convergence is reached if the average absolute
+	 *   slope in an interval of this size and half this size is smaller than
+	 *   0.0001 (in double accuracy).  This is assumed to prevent the algorithm
+	 *   from stopping at plateaus smaller than this value.
+	 * @param radius number of connections to the new tiles up to which
+	 *   {@link Tile Tiles} are re-optimized
+	 */
+	public void optimizeSilentlyIncremental(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp,
+			final int radius ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		if ( newTiles.size() == 0 )
+			return;
+
+		final TileConfiguration local = new TileConfiguration();
+		for ( final Tile< ? > tile : collectNeighborhood( radius ) )
+		{
+			local.tiles.add( tile );
+			if ( fixedTiles.contains( tile ) )
+				local.fixedTiles.add( tile );
+
+			/* make sure the matches into the unchanged surrounding are up to date */
+			for ( final Tile< ? > t : tile.getConnectedTiles() )
+				if ( !local.tiles.contains( t ) )
+					t.apply();
+		}
+
+		local.optimizeSilently( observer, maxAllowedError, maxIterations, maxPlateauwidth, damp );
+
+		markOptimized();
+		updateErrors();
 	}
 
 	public void optimizeSilentlyConcurrent(
@@ -365,6 +788,61 @@ public class TileConfiguration implements Serializable
 	{
 		TileUtil.optimizeConcurrently(observer, maxAllowedError, maxIterations, maxPlateauwidth, damp,
 				this, tiles, fixedTiles, Runtime.getRuntime().availableProcessors());
+		markOptimized();
+	}
+
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} with concurrent Gauss-Seidel sweeps over a
+	 * {@link TileUtil#colorTiles(java.util.Collection) coloring} of the tile
+	 * graph.
+	 *
+	 * @see TileUtil#optimizeColored(ErrorStatistic, double, int, int, double, TileConfiguration, Set, Set, int, boolean)
+	 */
+	public void optimizeSilentlyColored(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp )
+	{
+		TileUtil.optimizeColored(observer, maxAllowedError, maxIterations, maxPlateauwidth, damp,
+				this, tiles, fixedTiles, Runtime.getRuntime().availableProcessors(), false);
+		markOptimized();
+	}
+
+	/**
+	 * Compile the {@link Tile Tiles} of this configuration into a compact,
+	 * index-based {@link CompiledTileConfiguration}.
+	 *
+	 * @throws IllegalArgumentException if a model does not support fitting
+	 *   to {@link PointMatchMoments2D} or {@link PointMatchMoments3D}
+	 */
+	public CompiledTileConfiguration compile()
+	{
+		return new CompiledTileConfiguration( tiles, fixedTiles );
+	}
+
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} on a {@link #compile() compiled}
+	 * representation of the tile graph.  Iterations run without allocation,
+	 * the {@link PointMatch PointMatches} are updated at the end.
+	 *
+	 * @see #optimizeSilently(ErrorStatistic, double, int, int, double)
+	 */
+	public void optimizeSilentlyCompiled(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		final CompiledTileConfiguration compiled = compile();
+		compiled.optimize( observer, maxAllowedError, maxIterations, maxPlateauwidth, damp );
+		compiled.writeBack();
+		updateErrors();
+		markOptimized();
 	}
 
 	/**
@@ -443,6 +921,78 @@ public class TileConfiguration implements Serializable
 	}
 
 
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} by solving the global least-squares problem
+	 * of all non-fixed {@link Tile Tiles} at once with a
+	 * {@link SparseTileSolver}.  Supports {@link TranslationModel2D},
+	 * {@link RigidModel2D}, {@link SimilarityModel2D} and
+	 * {@link AffineModel2D}.
+	 *
+	 * @param maxIterations maximal number of conjugate gradient iterations
+	 * @param maxResidual stop if the residual of the normal equations
+	 *   relative to the initial residual is smaller than this
+	 * @param executor may be null for single-threaded execution
+	 */
+	public void solveSilently(
+			final int maxIterations,
+			final double maxResidual,
+			final ThreadPoolExecutor executor )
+	{
+		final ArrayList< Tile< ? > > freeTiles = new ArrayList< Tile< ? > >();
+		for ( final Tile< ? > tile : tiles )
+			if ( !fixedTiles.contains( tile ) )
+				freeTiles.add( tile );
+
+		final SparseTileSolver solver = new SparseTileSolver( freeTiles );
+
+		/* initialize the configuration with the current model of each tile */
+		if ( executor == null )
+			apply();
+		else
+			apply( executor );
+
+		solver.solve( maxIterations, maxResidual, 16, executor );
+
+		if ( executor == null )
+			updateErrors();
+		else
+			updateErrors( executor );
+
+		markOptimized();
+	}
+
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} by solving the global least-squares problem
+	 * and tell about it.
+	 *
+	 * @param maxIterations maximal number of conjugate gradient iterations
+	 * @param maxResidual stop if the residual of the normal equations
+	 *   relative to the initial residual is smaller than this
+	 */
+	public void solve(
+			final int maxIterations,
+			final double maxResidual )
+	{
+		println( "Solving..." );
+
+		final ThreadPoolExecutor executor = ( ThreadPoolExecutor )Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+		try
+		{
+			solveSilently( maxIterations, maxResidual, executor );
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		println( new StringBuffer( "Successfully solved configuration of " ).append( tiles.size() ).append( " tiles:" ).toString() );
+		println( new StringBuffer( "  average displacement: " ).append( decimalFormat.format( error ) ).append( "px" ).toString() );
+		println( new StringBuffer( "  minimal displacement: " ).append( decimalFormat.format( minError ) ).append( "px" ).toString() );
+		println( new StringBuffer( "  maximal displacement: " ).append( decimalFormat.format( maxError ) ).append( "px" ).toString() );
+	}
+
 	public void optimizeAndFilter(
 			final double maxAllowedError,
 			final int maxIterations,
@@ -616,9 +1166,126 @@ A:				for ( final Tile< ? > t : tiles )
 			}
 		}
 
+		markOptimized();
 		return unAlignedTiles;
 	}
 
+	/**
+	 * Computes a pre-alignment of all non-fixed {@link Tile}s like
+	 * {@link #preAlign()} using a given {@link ThreadPoolExecutor}.
+	 *
+	 * The graph is traversed breadth-first and level-synchronously starting
+	 * at the fixed tiles.  All unaligned tiles that are connected to the
+	 * tiles aligned in the previous level are fitted concurrently, each to
+	 * the {@link PointMatch PointMatches} that connect it to all already
+	 * aligned {@link Tile}s.  Independent connected graphs are traversed
+	 * simultaneously.  Since a {@link Tile} is fitted to all its aligned
+	 * neighbors and not only to the first one found, the result may differ
+	 * slightly from {@link #preAlign()}.
+	 *
+	 * @return - a list of {@link Tile}s that could not be pre-aligned
+	 * @throws NotEnoughDataPointsException
+	 * @throws IllDefinedDataPointsException
+	 */
+	public List<Tile<?>> preAlign(final ThreadPoolExecutor executor) throws NotEnoughDataPointsException, IllDefinedDataPointsException {
+		final HashSet<Tile<?>> unAlignedTiles = new HashSet<>(tiles);
+		List<Tile<?>> level = new ArrayList<>();
+
+		// if no tile is fixed, take another
+		if (fixedTiles.isEmpty()) {
+			if (tiles.isEmpty())
+				return new ArrayList<>();
+			level.add(tiles.iterator().next());
+		} else {
+			for (final Tile<?> tile : tiles)
+				if (fixedTiles.contains(tile))
+					level.add(tile);
+		}
+		unAlignedTiles.removeAll(level);
+
+		// all points of aligned tiles, a PointMatch p of an unaligned tile
+		// connects to an aligned tile if its p2 is in this set
+		final HashSet<Point> alignedPoints = new HashSet<>();
+		for (final Tile<?> tile : level)
+			addP1s(tile, alignedPoints);
+
+		while (!level.isEmpty() && !unAlignedTiles.isEmpty()) {
+			// transform all points of the last level into world coordinates
+			apply(level, executor);
+
+			final LinkedHashSet<Tile<?>> candidateSet = new LinkedHashSet<>();
+			for (final Tile<?> tile : level)
+				for (final Tile<?> connectedTile : tile.getConnectedTiles())
+					if (unAlignedTiles.contains(connectedTile))
+						candidateSet.add(connectedTile);
+			final List<Tile<?>> candidates = new ArrayList<>(candidateSet);
+
+			final int nTiles = candidates.size();
+			final int nThreads = executor.getMaximumPoolSize();
+			final int tilesPerThread = nTiles / nThreads + (nTiles % nThreads == 0 ? 0 : 1);
+			final List<Future<List<Tile<?>>>> fitTasks = new ArrayList<>(nThreads);
+
+			for (int j = 0; j < nThreads; j++) {
+				final int start = j * tilesPerThread;
+				final int end = Math.min((j + 1) * tilesPerThread, nTiles);
+				fitTasks.add(executor.submit(() -> fitToAlignedOfRange(candidates, alignedPoints, start, end)));
+			}
+
+			level = new ArrayList<>();
+			for (final Future<List<Tile<?>>> task : fitTasks) {
+				try {
+					level.addAll(task.get());
+				} catch (final InterruptedException e) {
+					throw new RuntimeException(e);
+				} catch (final ExecutionException e) {
+					if (e.getCause() instanceof NotEnoughDataPointsException)
+						throw (NotEnoughDataPointsException) e.getCause();
+					if (e.getCause() instanceof IllDefinedDataPointsException)
+						throw (IllDefinedDataPointsException) e.getCause();
+					throw new RuntimeException(e);
+				}
+			}
+
+			unAlignedTiles.removeAll(level);
+			for (final Tile<?> tile : level)
+				addP1s(tile, alignedPoints);
+		}
+
+		markOptimized();
+		return new ArrayList<>(unAlignedTiles);
+	}
+
+	private static void addP1s(final Tile<?> tile, final Set<Point> points) {
+		for (final PointMatch pm : tile.getMatches())
+			points.add(pm.getP1());
+	}
+
+	/**
+	 * Fit the models of a range of tiles to their {@link PointMatch PointMatches}
+	 * into already aligned tiles.
+	 *
+	 * @return the tiles that could be fitted
+	 */
+	private static List<Tile<?>> fitToAlignedOfRange(
+			final List<Tile<?>> tiles,
+			final Set<Point> alignedPoints,
+			final int start,
+			final int end) throws NotEnoughDataPointsException, IllDefinedDataPointsException {
+		final List<Tile<?>> fittedTiles = new ArrayList<>();
+		for (int i = start; i < end; i++) {
+			final Tile<?> targetTile = tiles.get(i);
+			final ArrayList<PointMatch> pm = new ArrayList<>();
+			for (final PointMatch match : targetTile.getMatches())
+				if (alignedPoints.contains(match.getP2()))
+					pm.add(match);
+			if (pm.size() >= targetTile.getModel().getMinNumMatches()) {
+				targetTile.getModel().fit(pm);
+				fittedTiles.add(targetTile);
+			}
+		}
+		return fittedTiles;
+	}
+
 	/**
 	 * Returns an {@link ArrayList} of {@link PointMatch} that connect the targetTile and the referenceTile. The order of the
 	 * {@link PointMatch} is PointMatch.p1 = target, PointMatch.p2 = reference. A {@link Model}.fit() will then solve the fit
@@ -40,18 +40,21 @@ package mpicbg.models;
 import ij.IJ;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.ThreadPoolExecutor;
 
 /**
@@ -65,11 +68,71 @@ public class TileUtil
 {
 
 	/**
-	 * Returns a lazy collection of arrays of {@link Tile}, where none of the tiles of one specific array
+	 * Color the graph of {@link Tile Tiles} such that no two connected
+	 * {@link Tile Tiles} have the same color.  Colors are assigned greedily in
+	 * order of decreasing number of connections (largest degree first),
+	 * which for the sparse tile graphs of montages and stacks typically
+	 * requires no more colors than the maximal number of connections plus
+	 * one.  Connections to {@link Tile Tiles} that are not in
+	 * <code>tiles</code> are ignored.
+	 *
+	 * The coloring depends only on the graph and can be computed once and
+	 * reused for all iterations of an optimization.
+	 *
+	 * @param tiles
+	 * @return a {@link List} of colors, each a {@link List} of mutually
+	 *   unconnected {@link Tile Tiles}
+	 */
+	static public List< List< Tile< ? > > > colorTiles( final Collection< ? extends Tile< ? > > tiles )
+	{
+		final ArrayList< Tile< ? > > tileList = new ArrayList< Tile< ? > >( tiles );
+		final int n = tileList.size();
+		final HashMap< Tile< ? >, Integer > indices = new HashMap< Tile< ? >, Integer >( 2 * n );
+		for ( int i = 0; i < n; ++i )
+			indices.put( tileList.get( i ), i );
+
+		final Integer[] order = new Integer[ n ];
+		for ( int i = 0; i < n; ++i )
+			order[ i ] = i;
+		Arrays.sort( order, ( a, b ) -> Integer.compare(
+				tileList.get( b ).getConnectedTiles().size(),
+				tileList.get( a ).getConnectedTiles().size() ) );
+
+		final int[] colors = new int[ n ];
+		Arrays.fill( colors, -1 );
+		/* stamps[ c ] == i + 1 if color c is used by a neighbor of tile i */
+		int[] stamps = new int[ 16 ];
+		final ArrayList< List< Tile< ? > > > colorList = new ArrayList< List< Tile< ? > > >();
+		for ( final int i : order )
+		{
+			final Tile< ? > tile = tileList.get( i );
+			for ( final Tile< ? > t : tile.getConnectedTiles() )
+			{
+				final Integer j = indices.get( t );
+				if ( j != null && colors[ j ] >= 0 )
+					stamps[ colors[ j ] ] = i + 1;
+			}
+			int c = 0;
+			while ( c < colorList.size() && stamps[ c ] == i + 1 )
+				++c;
+			if ( c == colorList.size() )
+			{
+				colorList.add( new ArrayList< Tile< ? > >() );
+				if ( c == stamps.length )
+					stamps = Arrays.copyOf( stamps, 2 * c );
+			}
+			colors[ i ] = c;
+			colorList.get( c ).add( tile );
+		}
+		return colorList;
+	}
+
+	/**
+	 * Returns a collection of arrays of {@link Tile}, where none of the tiles of one specific array
 	 * are connected to any of the tiles in that same array.
 	 *
-	 * Assumes that all tiles are not connected to all tiles, otherwise this operation will be very expensive
-	 * and the returned arrays will contain a single {@link Tile} each.
+	 * The arrays are the colors of {@link #colorTiles(Collection)}, split into
+	 * arrays of at most maxArrayElements.
 	 *
 	 * @param tiles The {@link Set} of {@link Tile}, where each {@link Tile} contains a {@link Set} of other {@link Tile} to whom it is connected with {@link PointMatch}es.
 	 * @param maxArrayElements The maximum number of tiles to include in any one of the returned arrays.
@@ -79,65 +142,16 @@ public class TileUtil
 			final Set< Tile < ? > > tiles,
 			final int maxArrayElements )
 	{
-		return new Iterable<Tile<?>[]>()
+		final ArrayList< Tile< ? >[] > groups = new ArrayList< Tile< ? >[] >();
+		for ( final List< Tile< ? > > color : colorTiles( tiles ) )
 		{
-			@Override
-			public final Iterator<Tile<?>[]> iterator()
+			for ( int start = 0; start < color.size(); start += maxArrayElements )
 			{
-				return new Iterator<Tile<?>[]>()
-				{
-					/**
-					 * Set of remaining tiles, which has been shuffled to try to minimize
-					 * the probability that neighboring tiles are adjacent when iterating.
-					 */
-					final HashSet<Tile<?>> remaining = new HashSet<Tile<?>>( shuffle(tiles) );
-
-					private final Collection<Tile<?>> shuffle( final Collection<Tile<?>> ts ) {
-						final ArrayList<Tile<?>> s = new ArrayList<Tile<?>>( ts );
-						Collections.shuffle( s );
-						return s;
-					}
-
-					@Override
-					public final boolean hasNext() {
-						return remaining.size() > 0;
-					}
-
-					@Override
-					public Tile<?>[] next() {
-						final Tile<?>[] array = new Tile[ maxArrayElements ];
-						final Iterator<Tile<?>> it = remaining.iterator();
-						array[0] = it.next();
-						it.remove();
-						int next = 1;
-						while (next < maxArrayElements && it.hasNext()) {
-							final Tile<?> t = it.next();
-							for (int i=0; i<next; ++i) {
-								if (array[i].getConnectedTiles().contains(t)) {
-									continue;
-								} else {
-									array[next] = t;
-									next += 1;
-									it.remove();
-									break;
-								}
-							}
-						}
-						if (maxArrayElements != next) {
-							final Tile<?>[] a = new Tile[ next ];
-							System.arraycopy(array, 0, a, 0, next);
-							return a;
-						}
-						return array;
-					}
-
-					@Override
-					public void remove() {
-						throw new UnsupportedOperationException();
-					}
-				};
+				final List< Tile< ? > > group = color.subList( start, Math.min( start + maxArrayElements, color.size() ) );
+				groups.add( group.toArray( new Tile< ? >[ group.size() ] ) );
 			}
-		};
+		}
+		return groups;
 	}
 
 	static public void optimizeConcurrently(
@@ -284,4 +298,178 @@ public class TileUtil
 		}
 		return null;
 	}
+
+	/**
+	 * Like {@link #optimizeConcurrently(ErrorStatistic, double, int, int, double, TileConfiguration, Set, Set, int, boolean)}
+	 * but with a Gauss-Seidel sweep over the colors of a
+	 * {@link #colorTiles(Collection) coloring} of the free tiles that is
+	 * computed once.  All tiles of one color are not connected and are
+	 * fitted and applied concurrently on a work-stealing {@link ForkJoinPool}.
+	 * Errors are reduced from per-task partial results.
+	 */
+	static public void optimizeColored(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp,
+			final TileConfiguration tc,
+			final Set<Tile<?>> tiles,
+			final Set<Tile<?>> fixedTiles,
+			final int nThreads,
+			final boolean verbose) {
+
+		final ForkJoinPool pool = new ForkJoinPool(nThreads);
+
+		try {
+			final List<Tile<?>> freeTiles = new ArrayList<>(tiles.size() - fixedTiles.size());
+			for (final Tile<?> t : tiles) {
+				if (fixedTiles.contains(t)) continue;
+				freeTiles.add(t);
+			}
+			final List<Tile<?>> allTiles = new ArrayList<>(tiles);
+
+			final long t0 = System.currentTimeMillis();
+			final List<List<Tile<?>>> colors = colorTiles(freeTiles);
+			final long t1 = System.currentTimeMillis();
+			if (verbose) {
+				IJ.log("Coloring " + freeTiles.size() + " tiles with " + colors.size() + " colors took " + (t1 - t0) + " ms");
+			}
+
+			/* initialize the configuration with the current model of each tile */
+			pool.invoke(new TileAction(allTiles, 0, allTiles.size(), grainSize(allTiles.size(), nThreads), Tile::apply));
+
+			int i = 0;
+			boolean proceed = i < maxIterations;
+
+			while (proceed) {
+				for (final List<Tile<?>> color : colors) {
+					pool.invoke(new TileAction(color, 0, color.size(), grainSize(color.size(), nThreads), tile -> {
+						tile.fitModel();
+						tile.apply(damp);
+					}));
+				}
+
+				final double[] minMaxSum = pool.invoke(new ErrorTask(allTiles, 0, allTiles.size(), grainSize(allTiles.size(), nThreads)));
+				tc.minError = minMaxSum[0];
+				tc.maxError = minMaxSum[1];
+				tc.error = minMaxSum[2] / allTiles.size();
+				observer.add(tc.getError());
+
+				if (verbose) {
+					IJ.log(i + ": " + tc.getError() + " " + observer.max);
+				}
+
+				if (i > maxPlateauwidth) {
+					proceed = tc.getError() > maxAllowedError;
+
+					int d = maxPlateauwidth;
+					while (!proceed && d >= 1) {
+						try {
+							proceed = Math.abs(observer.getWideSlope(d)) > 0.0001;
+						} catch (final Exception e) {
+							e.printStackTrace();
+						}
+						d /= 2;
+					}
+				}
+
+				proceed &= ++i < maxIterations;
+			}
+
+			if (verbose) {
+				IJ.log("Colored tile optimization loop took " + (System.currentTimeMillis() - t1) + " ms");
+			}
+
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static int grainSize(final int n, final int nThreads) {
+		return Math.max(1, n / (8 * nThreads));
+	}
+
+	private interface TileOperation {
+		void run(Tile<?> tile) throws NotEnoughDataPointsException, IllDefinedDataPointsException;
+	}
+
+	/**
+	 * Run an operation on a range of tiles, split recursively into ranges of
+	 * at most grainSize tiles.
+	 */
+	private static class TileAction extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Tile<?>> tiles;
+		private final int start, end, grainSize;
+		private final TileOperation operation;
+
+		TileAction(final List<Tile<?>> tiles, final int start, final int end, final int grainSize, final TileOperation operation) {
+			this.tiles = tiles;
+			this.start = start;
+			this.end = end;
+			this.grainSize = grainSize;
+			this.operation = operation;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= grainSize) {
+				try {
+					for (int i = start; i < end; i++)
+						operation.run(tiles.get(i));
+				} catch (final NotEnoughDataPointsException | IllDefinedDataPointsException e) {
+					throw new RuntimeException(e);
+				}
+			} else {
+				final int mid = (start + end) >>> 1;
+				invokeAll(
+						new TileAction(tiles, start, mid, grainSize, operation),
+						new TileAction(tiles, mid, end, grainSize, operation));
+			}
+		}
+	}
+
+	/**
+	 * Update the cost of a range of tiles and reduce their min, max and sum
+	 * of distances.
+	 */
+	private static class ErrorTask extends RecursiveTask<double[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Tile<?>> tiles;
+		private final int start, end, grainSize;
+
+		ErrorTask(final List<Tile<?>> tiles, final int start, final int end, final int grainSize) {
+			this.tiles = tiles;
+			this.start = start;
+			this.end = end;
+			this.grainSize = grainSize;
+		}
+
+		@Override
+		protected double[] compute() {
+			if (end - start <= grainSize) {
+				final double[] minMaxSum = new double[] { Double.MAX_VALUE, 0.0, 0.0 };
+				for (int i = start; i < end; i++) {
+					final Tile<?> t = tiles.get(i);
+					t.updateCost();
+					final double d = t.getDistance();
+					if (d < minMaxSum[0]) minMaxSum[0] = d;
+					if (d > minMaxSum[1]) minMaxSum[1] = d;
+					minMaxSum[2] += d;
+				}
+				return minMaxSum;
+			}
+			final int mid = (start + end) >>> 1;
+			final ErrorTask left = new ErrorTask(tiles, start, mid, grainSize);
+			left.fork();
+			final double[] b = new ErrorTask(tiles, mid, end, grainSize).compute();
+			final double[] a = left.join();
+			return new double[] { Math.min(a[0], b[0]), Math.max(a[1], b[1]), a[2] + b[2] };
+		}
+	}
 }
@@ -40,10 +40,12 @@ package mpicbg.models;
 import java.awt.Shape;
 import java.awt.geom.GeneralPath;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import mpicbg.util.KDTree;
 import mpicbg.util.Util;
 
 /**
@@ -97,6 +99,184 @@ public class TransformMesh implements InvertibleCoordinateTransform
 	final protected HashMap< PointMatch, ArrayList< AffineModel2D > > va = new HashMap< PointMatch, ArrayList< AffineModel2D > >();
 	public HashMap< PointMatch, ArrayList< AffineModel2D > > getVA(){ return va; };
 
+	/**
+	 * A snapshot of vertex coordinates indexed by a {@link KDTree}.
+	 */
+	final static protected class VertexIndex
+	{
+		final protected PointMatch[] vertices;
+		final protected KDTree tree;
+
+		protected VertexIndex( final PointMatch[] vertices, final double[][] coordinates )
+		{
+			this.vertices = vertices;
+			tree = new KDTree( coordinates );
+		}
+
+		protected PointMatch nearest( final double[] there )
+		{
+			final int i = tree.nearestNeighbor( there );
+			return i < 0 ? null : vertices[ i ];
+		}
+	}
+
+	/**
+	 * Indices of the source and target coordinates of all vertices for
+	 * closest vertex lookups.  Both are created when needed and dropped when
+	 * the vertices change.
+	 */
+	volatile protected VertexIndex sourceIndex = null;
+	volatile protected VertexIndex targetIndex = null;
+
+	/**
+	 * A uniform grid of buckets over the bounding boxes of the source or
+	 * target triangles.  Each bucket lists all triangles whose bounding box
+	 * intersects it in the iteration order of {@link #av} such that the
+	 * first containing triangle is the same as found by iterating over
+	 * {@link #av}.
+	 */
+	final static protected class TriangleGrid
+	{
+		final protected AffineModel2D[] affines;
+		final protected ArrayList< ArrayList< PointMatch > > triangles;
+		final protected boolean source;
+
+		final protected double minX, minY, scaleX, scaleY;
+		final protected int numX, numY;
+
+		/* triangles of bucket i are entries[ offsets[ i ] ] to entries[ offsets[ i + 1 ] - 1 ] */
+		final protected int[] offsets;
+		final protected int[] entries;
+
+		protected TriangleGrid( final HashMap< AffineModel2D, ArrayList< PointMatch > > av, final boolean source )
+		{
+			this.source = source;
+			final int n = av.size();
+			affines = new AffineModel2D[ n ];
+			triangles = new ArrayList< ArrayList< PointMatch > >( n );
+			final double[] bounds = new double[ 4 * n ];
+
+			double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE, x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+			int t = 0;
+			for ( final Entry< AffineModel2D, ArrayList< PointMatch > > entry : av.entrySet() )
+			{
+				affines[ t ] = entry.getKey();
+				triangles.add( entry.getValue() );
+				double tx0 = Double.MAX_VALUE, ty0 = Double.MAX_VALUE, tx1 = -Double.MAX_VALUE, ty1 = -Double.MAX_VALUE;
+				for ( final PointMatch pm : entry.getValue() )
+				{
+					final double[] c = source ? pm.getP1().getL() : pm.getP2().getW();
+					tx0 = Math.min( tx0, c[ 0 ] );
+					ty0 = Math.min( ty0, c[ 1 ] );
+					tx1 = Math.max( tx1, c[ 0 ] );
+					ty1 = Math.max( ty1, c[ 1 ] );
+				}
+				bounds[ 4 * t ] = tx0;
+				bounds[ 4 * t + 1 ] = ty0;
+				bounds[ 4 * t + 2 ] = tx1;
+				bounds[ 4 * t + 3 ] = ty1;
+				x0 = Math.min( x0, tx0 );
+				y0 = Math.min( y0, ty0 );
+				x1 = Math.max( x1, tx1 );
+				y1 = Math.max( y1, ty1 );
+				++t;
+			}
+
+			/* about one triangle per bucket */
+			final double width = Math.max( x1 - x0, Double.MIN_NORMAL );
+			final double height = Math.max( y1 - y0, Double.MIN_NORMAL );
+			final double cellSize = Math.sqrt( width * height / Math.max( 1, n ) );
+			minX = x0;
+			minY = y0;
+			numX = n == 0 ? 0 : Math.max( 1, Math.min( n, ( int )Math.ceil( width / cellSize ) ) );
+			numY = n == 0 ? 0 : Math.max( 1, Math.min( n, ( int )Math.ceil( height / cellSize ) ) );
+			scaleX = numX / width;
+			scaleY = numY / height;
+
+			final int numCells = numX * numY;
+			final int[] cellBounds = new int[ 4 * n ];
+			offsets = new int[ numCells + 1 ];
+			for ( t = 0; t < n; ++t )
+			{
+				final int cx0 = cellBounds[ 4 * t ] = cellX( bounds[ 4 * t ] );
+				final int cy0 = cellBounds[ 4 * t + 1 ] = cellY( bounds[ 4 * t + 1 ] );
+				final int cx1 = cellBounds[ 4 * t + 2 ] = cellX( bounds[ 4 * t + 2 ] );
+				final int cy1 = cellBounds[ 4 * t + 3 ] = cellY( bounds[ 4 * t + 3 ] );
+				for ( int cy = cy0; cy <= cy1; ++cy )
+					for ( int cx = cx0; cx <= cx1; ++cx )
+						++offsets[ cy * numX + cx + 1 ];
+			}
+			for ( int i = 0; i < numCells; ++i )
+				offsets[ i + 1 ] += offsets[ i ];
+
+			entries = new int[ offsets[ numCells ] ];
+			final int[] fill = Arrays.copyOf( offsets, numCells );
+			for ( t = 0; t < n; ++t )
+				for ( int cy = cellBounds[ 4 * t + 1 ]; cy <= cellBounds[ 4 * t + 3 ]; ++cy )
+					for ( int cx = cellBounds[ 4 * t ]; cx <= cellBounds[ 4 * t + 2 ]; ++cx )
+						entries[ fill[ cy * numX + cx ]++ ] = t;
+		}
+
+		final protected int cellX( final double x )
+		{
+			return Math.max( 0, Math.min( numX - 1, ( int )( ( x - minX ) * scaleX ) ) );
+		}
+
+		final protected int cellY( final double y )
+		{
+			return Math.max( 0, Math.min( numY - 1, ( int )( ( y - minY ) * scaleY ) ) );
+		}
+
+		/**
+		 * Find the first triangle that contains a location.
+		 *
+		 * @return index of the triangle or -1 if there is none
+		 */
+		protected int find( final double[] location )
+		{
+			if ( numX == 0 )
+				return -1;
+			final double fx = ( location[ 0 ] - minX ) * scaleX;
+			final double fy = ( location[ 1 ] - minY ) * scaleY;
+			/* outside, also catches NaN */
+			if ( !( fx >= 0 && fy >= 0 && fx <= numX && fy <= numY ) )
+				return -1;
+			final int cell = Math.min( numY - 1, ( int )fy ) * numX + Math.min( numX - 1, ( int )fx );
+			for ( int i = offsets[ cell ]; i < offsets[ cell + 1 ]; ++i )
+			{
+				final int t = entries[ i ];
+				if ( source ? isInSourcePolygon( triangles.get( t ), location ) : isInConvexTargetPolygon( triangles.get( t ), location ) )
+					return t;
+			}
+			return -1;
+		}
+	}
+
+	volatile protected TriangleGrid sourceGrid = null;
+	volatile protected TriangleGrid targetGrid = null;
+
+	protected TriangleGrid getSourceGrid()
+	{
+		TriangleGrid grid = sourceGrid;
+		if ( grid == null )
+		{
+			grid = new TriangleGrid( av, true );
+			sourceGrid = grid;
+		}
+		return grid;
+	}
+
+	protected TriangleGrid getTargetGrid()
+	{
+		TriangleGrid grid = targetGrid;
+		if ( grid == null )
+		{
+			grid = new TriangleGrid( av, false );
+			targetGrid = grid;
+		}
+		return grid;
+	}
+
 	final static protected PointFactory< Point > defaultPointFactory = new PointFactory< Point >()
 	{
 		private static final long serialVersionUID = -8338916724246569904L;
@@ -336,6 +516,46 @@ public class TransformMesh implements InvertibleCoordinateTransform
 				va.put( pm, new ArrayList< AffineModel2D >() );
 			va.get( pm ).add( m );
 		}
+
+		invalidateIndices();
+	}
+
+	/**
+	 * Drop the indices of source and target coordinates of all vertices and
+	 * triangles.  Call this after modifying source coordinates.
+	 */
+	public void invalidateIndices()
+	{
+		sourceIndex = null;
+		targetIndex = null;
+		sourceGrid = null;
+		targetGrid = null;
+	}
+
+	/**
+	 * Drop the index of target coordinates of all vertices and triangles.
+	 * This happens
+	 * in {@link #updateAffines()} and {@link #updateAffine(PointMatch)},
+	 * call it after modifying target coordinates without updating the
+	 * affines.
+	 */
+	public void invalidateTargetIndex()
+	{
+		targetIndex = null;
+		targetGrid = null;
+	}
+
+	protected VertexIndex createIndex( final boolean source )
+	{
+		final PointMatch[] vertices = va.keySet().toArray( new PointMatch[ va.size() ] );
+		final double[][] coordinates = new double[ 2 ][ vertices.length ];
+		for ( int i = 0; i < vertices.length; ++i )
+		{
+			final double[] c = source ? vertices[ i ].getP1().getL() : vertices[ i ].getP2().getW();
+			coordinates[ 0 ][ i ] = c[ 0 ];
+			coordinates[ 1 ][ i ] = c[ 1 ];
+		}
+		return new VertexIndex( vertices, coordinates );
 	}
 
 	protected void illustrateTriangle( final AffineModel2D ai, final GeneralPath path )
@@ -461,6 +681,7 @@ public class TransformMesh implements InvertibleCoordinateTransform
 	 */
 	public void updateAffine( final PointMatch p )
 	{
+		invalidateTargetIndex();
 		for ( final AffineModel2D ai : va.get( p ) )
 		{
 			try
@@ -478,6 +699,7 @@ public class TransformMesh implements InvertibleCoordinateTransform
 	 */
 	public void updateAffines()
 	{
+		invalidateTargetIndex();
 		final Set< AffineModel2D > s = av.keySet();
 		for ( final AffineModel2D ai : s )
 		{
@@ -502,23 +724,13 @@ public class TransformMesh implements InvertibleCoordinateTransform
 	 */
 	public PointMatch findClosestSourcePoint( final double[] there )
 	{
-		final Set< PointMatch > points = va.keySet();
-
-		PointMatch closest = null;
-		double cd = Double.MAX_VALUE;
-		for ( final PointMatch m : points )
+		VertexIndex index = sourceIndex;
+		if ( index == null )
 		{
-			final double[] here = m.getP1().getL();
-			final double dx = here[ 0 ] - there[ 0 ];
-			final double dy = here[ 1 ] - there[ 1 ];
-			final double d = dx * dx + dy * dy;
-			if ( d < cd )
-			{
-				cd = d;
-				closest = m;
-			}
+			index = createIndex( true );
+			sourceIndex = index;
 		}
-		return closest;
+		return index.nearest( there );
 	}
 
 	/**
@@ -533,23 +745,13 @@ public class TransformMesh implements InvertibleCoordinateTransform
 	 */
 	public PointMatch findClosestTargetPoint( final double[] there )
 	{
-		final Set< PointMatch > points = va.keySet();
-
-		PointMatch closest = null;
-		double cd = Double.MAX_VALUE;
-		for ( final PointMatch m : points )
+		VertexIndex index = targetIndex;
+		if ( index == null )
 		{
-			final double[] here = m.getP2().getW();
-			final double dx = here[ 0 ] - there[ 0 ];
-			final double dy = here[ 1 ] - there[ 1 ];
-			final double d = dx * dx + dy * dy;
-			if ( d < cd )
-			{
-				cd = d;
-				closest = m;
-			}
+			index = createIndex( false );
+			targetIndex = index;
 		}
-		return closest;
+		return index.nearest( there );
 	}
 
 	/**
@@ -628,16 +830,10 @@ public class TransformMesh implements InvertibleCoordinateTransform
 	{
 		assert location.length == 2 : "2d transform meshs can be applied to 2d points only.";
 
-		final Set< AffineModel2D > s = av.keySet();
-		for ( final AffineModel2D ai : s )
-		{
-			final ArrayList< PointMatch > pm = av.get( ai );
-			if ( isInSourcePolygon( pm, location ) )
-			{
-				ai.applyInPlace( location );
-				return;
-			}
-		}
+		final TriangleGrid grid = getSourceGrid();
+		final int t = grid.find( location );
+		if ( t >= 0 )
+			grid.affines[ t ].applyInPlace( location );
 	}
 
 	//@Override
@@ -657,15 +853,12 @@ public class TransformMesh implements InvertibleCoordinateTransform
 	{
 		assert location.length == 2 : "2d transform meshs can be applied to 2d points only.";
 
-		final Set< AffineModel2D > s = av.keySet();
-		for ( final AffineModel2D ai : s )
+		final TriangleGrid grid = getTargetGrid();
+		final int t = grid.find( location );
+		if ( t >= 0 )
 		{
-			final ArrayList< PointMatch > pm = av.get( ai );
-			if ( isInConvexTargetPolygon( pm, location ) )
-			{
-				ai.applyInverseInPlace( location );
-				return;
-			}
+			grid.affines[ t ].applyInverseInPlace( location );
+			return;
 		}
 		throw new NoninvertibleModelException( "Noninvertible location ( " + location[ 0 ] + ", " + location[ 1 ] + " )" );
 	}
@@ -761,6 +954,8 @@ public class TransformMesh implements InvertibleCoordinateTransform
 				w2[ i ] *= scale;
 			}
 
+			invalidateIndices();
+
 			updateAffines();
 		}
 	}
@@ -45,7 +45,7 @@ import java.util.Collection;
  *
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
  */
-public class TranslationModel2D extends AbstractAffineModel2D< TranslationModel2D >
+public class TranslationModel2D extends AbstractAffineModel2D< TranslationModel2D > implements StatisticsModel< PointMatchMoments2D >
 {
 	private static final long serialVersionUID = -6412303652902075611L;
 
@@ -235,6 +235,30 @@ public class TranslationModel2D extends AbstractAffineModel2D< TranslationModel2
 		ty = qcy - pcy;
 	}
 
+	@Override
+	public PointMatchMoments2D createStatistics()
+	{
+		return new PointMatchMoments2D();
+	}
+
+	/**
+	 * Closed form weighted least squares solution from accumulated
+	 * {@link PointMatchMoments2D moments}.
+	 *
+	 * @param moments
+	 * @throws NotEnoughDataPointsException
+	 */
+	@Override
+	final public void fit( final PointMatchMoments2D moments ) throws NotEnoughDataPointsException
+	{
+		if ( moments.n < MIN_NUM_MATCHES ) throw new NotEnoughDataPointsException( moments.n + " data points are not enough to estimate a 2d translation model, at least " + MIN_NUM_MATCHES + " data points required." );
+
+		final double ws = moments.ws;
+
+		tx = moments.oqx - moments.opx + ( moments.sqx - moments.spx ) / ws;
+		ty = moments.oqy - moments.opy + ( moments.sqy - moments.spy ) / ws;
+	}
+
 	@Override
 	public TranslationModel2D copy()
 	{
@@ -43,7 +43,7 @@ import java.util.Collection;
  *
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
  */
-public class TranslationModel3D extends AbstractAffineModel3D< TranslationModel3D > implements InvertibleBoundable
+public class TranslationModel3D extends AbstractAffineModel3D< TranslationModel3D > implements InvertibleBoundable, StatisticsModel< PointMatchMoments3D >
 {
 	private static final long serialVersionUID = 2917354712492515946L;
 
@@ -158,6 +158,31 @@ public class TranslationModel3D extends AbstractAffineModel3D< TranslationModel3
 		cost = m.getCost();
 	}
 
+	@Override
+	public PointMatchMoments3D createStatistics()
+	{
+		return new PointMatchMoments3D();
+	}
+
+	/**
+	 * Closed form weighted least squares solution from accumulated
+	 * {@link PointMatchMoments3D moments}.
+	 *
+	 * @param moments
+	 * @throws NotEnoughDataPointsException
+	 */
+	@Override
+	final public void fit( final PointMatchMoments3D moments ) throws NotEnoughDataPointsException
+	{
+		if ( moments.n < MIN_NUM_MATCHES ) throw new NotEnoughDataPointsException( moments.n + " data points are not enough to estimate a 3d translation model, at least " + MIN_NUM_MATCHES + " data points required." );
+
+		final double ws = moments.ws;
+
+		translation[ 0 ] = moments.oqx - moments.opx + ( moments.sqx - moments.spx ) / ws;
+		translation[ 1 ] = moments.oqy - moments.opy + ( moments.sqy - moments.spy ) / ws;
+		translation[ 2 ] = moments.oqz - moments.opz + ( moments.sqz - moments.spz ) / ws;
+	}
+
 	@Override
 	public TranslationModel3D copy()
 	{
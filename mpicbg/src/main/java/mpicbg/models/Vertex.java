@@ -39,6 +39,7 @@ package mpicbg.models;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Set;
 
 /**
@@ -52,7 +53,7 @@ public class Vertex extends Point
 	/**
 	 * A set of {@link Spring Springs}.
 	 */
-	final protected HashMap< Vertex, Spring > springs = new HashMap< Vertex, Spring >();
+	final protected HashMap< Vertex, Spring > springs = new LinkedHashMap< Vertex, Spring >();
 	public Collection< Spring > getSprings(){ return springs.values(); }
 	/**
 	 * Get all {@link Vertex Vertices} that are connected to this
@@ -0,0 +1,246 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.util;
+
+/**
+ * A static kd-tree over n-dimensional points for nearest neighbor and radius
+ * queries.  Coordinates are passed as an n-dimensional array of doubles,
+ * e.g. four 2d points as:
+ * <pre><code>
+ * double[][]{
+ *   {x<sub>1</sub>, x<sub>2</sub>, x<sub>3</sub>, x<sub>4</sub>},
+ *   {y<sub>1</sub>, y<sub>2</sub>, y<sub>3</sub>, y<sub>4</sub>} }
+ * </code></pre>
+ * The coordinates are referenced, not copied, and must not be modified while
+ * the tree is in use.  The tree is stored implicitly in a permutation of
+ * point indices such that the root of each range is its median element.
+ * Queries do not modify the tree and can be executed concurrently.
+ *
+ * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
+ */
+public class KDTree
+{
+	final protected double[][] coordinates;
+	final protected int numDimensions;
+	final protected int size;
+
+	/**
+	 * Point indices, the root of range [lo, hi) is at (lo + hi) / 2 and splits
+	 * the range along dimension depth % numDimensions.
+	 */
+	final protected int[] indices;
+
+	/**
+	 * State of a nearest neighbor search.
+	 */
+	final static private class Nearest
+	{
+		int index = -1;
+		double squareDistance = Double.MAX_VALUE;
+	}
+
+	/**
+	 * Build a tree over the first size points.
+	 *
+	 * @param coordinates {@code coordinates[ d ][ i ]}
+	 * @param size number of points
+	 */
+	public KDTree( final double[][] coordinates, final int size )
+	{
+		this.coordinates = coordinates;
+		this.numDimensions = coordinates.length;
+		this.size = size;
+
+		indices = new int[ size ];
+		for ( int i = 0; i < size; ++i )
+			indices[ i ] = i;
+
+		build( 0, size, 0 );
+	}
+
+	/**
+	 * Build a tree over all points.
+	 *
+	 * @param coordinates {@code coordinates[ d ][ i ]}
+	 */
+	public KDTree( final double[][] coordinates )
+	{
+		this( coordinates, coordinates.length == 0 ? 0 : coordinates[ 0 ].length );
+	}
+
+	public int numDimensions(){ return numDimensions; }
+	public int size(){ return size; }
+
+	private void build( final int lo, final int hi, final int depth )
+	{
+		if ( hi - lo < 2 )
+			return;
+
+		final int median = ( lo + hi ) >>> 1;
+		select( coordinates[ depth % numDimensions ], lo, hi - 1, median );
+		build( lo, median, depth + 1 );
+		build( median + 1, hi, depth + 1 );
+	}
+
+	/**
+	 * Partially sort indices[ lo..hi ] (inclusive) such that indices[ k ]
+	 * refers to the k-th smallest value in x, smaller values left and larger
+	 * values right of it (Hoare's selection).
+	 */
+	private void select( final double[] x, int lo, int hi, final int k )
+	{
+		while ( hi > lo )
+		{
+			final double pivot = x[ indices[ ( lo + hi ) >>> 1 ] ];
+			int i = lo;
+			int j = hi;
+			while ( i <= j )
+			{
+				while ( x[ indices[ i ] ] < pivot ) ++i;
+				while ( x[ indices[ j ] ] > pivot ) --j;
+				if ( i <= j )
+				{
+					final int t = indices[ i ];
+					indices[ i ] = indices[ j ];
+					indices[ j ] = t;
+					++i;
+					--j;
+				}
+			}
+			if ( k <= j )
+				hi = j;
+			else if ( k >= i )
+				lo = i;
+			else
+				return;
+		}
+	}
+
+	private double squareDistance( final int index, final double[] location )
+	{
+		double sum = 0;
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			final double dd = coordinates[ d ][ index ] - location[ d ];
+			sum += dd * dd;
+		}
+		return sum;
+	}
+
+	/**
+	 * Find the point closest to location.
+	 *
+	 * @param location
+	 * @return index of the nearest point or -1 if the tree is empty
+	 */
+	public int nearestNeighbor( final double[] location )
+	{
+		final Nearest nearest = new Nearest();
+		nearestNeighbor( 0, size, 0, location, nearest );
+		return nearest.index;
+	}
+
+	private void nearestNeighbor(
+			final int lo,
+			final int hi,
+			final int depth,
+			final double[] location,
+			final Nearest nearest )
+	{
+		if ( hi <= lo )
+			return;
+
+		final int median = ( lo + hi ) >>> 1;
+		final int index = indices[ median ];
+		final double squareDistance = squareDistance( index, location );
+		if ( squareDistance < nearest.squareDistance )
+		{
+			nearest.squareDistance = squareDistance;
+			nearest.index = index;
+		}
+
+		final int d = depth % numDimensions;
+		final double delta = location[ d ] - coordinates[ d ][ index ];
+		if ( delta < 0 )
+		{
+			nearestNeighbor( lo, median, depth + 1, location, nearest );
+			if ( delta * delta < nearest.squareDistance )
+				nearestNeighbor( median + 1, hi, depth + 1, location, nearest );
+		}
+		else
+		{
+			nearestNeighbor( median + 1, hi, depth + 1, location, nearest );
+			if ( delta * delta < nearest.squareDistance )
+				nearestNeighbor( lo, median, depth + 1, location, nearest );
+		}
+	}
+
+	/**
+	 * Find all points within radius of location.
+	 *
+	 * @param location
+	 * @param radius
+	 * @param result receives the indices of all points within radius in no
+	 *   particular order, must be large enough to hold all of them
+	 *
+	 * @return number of points within radius
+	 */
+	public int radiusSearch( final double[] location, final double radius, final int[] result )
+	{
+		return radiusSearch( 0, size, 0, location, radius * radius, result, 0 );
+	}
+
+	private int radiusSearch(
+			final int lo,
+			final int hi,
+			final int depth,
+			final double[] location,
+			final double squareRadius,
+			final int[] result,
+			int n )
+	{
+		if ( hi <= lo )
+			return n;
+
+		final int median = ( lo + hi ) >>> 1;
+		final int index = indices[ median ];
+		if ( squareDistance( index, location ) <= squareRadius )
+			result[ n++ ] = index;
+
+		final int d = depth % numDimensions;
+		final double delta = location[ d ] - coordinates[ d ][ index ];
+		final boolean isFarSideInRange = delta * delta <= squareRadius;
+		if ( delta < 0 )
+		{
+			n = radiusSearch( lo, median, depth + 1, location, squareRadius, result, n );
+			if ( isFarSideInRange )
+				n = radiusSearch( median + 1, hi, depth + 1, location, squareRadius, result, n );
+		}
+		else
+		{
+			n = radiusSearch( median + 1, hi, depth + 1, location, squareRadius, result, n );
+			if ( isFarSideInRange )
+				n = radiusSearch( lo, median, depth + 1, location, squareRadius, result, n );
+		}
+		return n;
+	}
+}
@@ -236,6 +236,20 @@ public class RingBuffer< T > extends AbstractList< T >
 		size = 0;
 	}
 	
+	/**
+	 * Remove all elements and continue counting at a given real index, that
+	 * is, the next element added will have this index.  This allows to
+	 * restore a {@link RingBuffer} from its elements.
+	 * 
+	 * @param nextIndex
+	 */
+	public void clear( final int nextIndex )
+	{
+		clear();
+		nextRealIndex = nextIndex;
+		nextBufferIndex = nextIndex % buffer.length;
+	}
+	
 	@Override
 	public Iterator< T > iterator() { return new RingBufferIterator(); }
 
@@ -890,6 +890,7 @@ J:				for ( int j = i + 1; j < range; )
 			meshes.get( i ).init( tiles.get( i ).getModel() );
 
 		/* optimize the meshes */
+		final ExecutorService execMeshes = Executors.newFixedThreadPool( p.maxNumThreads );
 		try
 		{
 			final long t0 = System.currentTimeMillis();
@@ -900,7 +901,9 @@ J:				for ( int j = i + 1; j < range; )
 					p.maxEpsilon,
 					p.maxIterationsSpringMesh,
 					p.maxPlateauwidthSpringMesh,
-					p.visualize );
+					0.5,
+					p.visualize,
+					execMeshes );
 
 			IJ.log( "Done optimizing spring meshes. Took " + ( System.currentTimeMillis() - t0 ) + " ms" );
 
@@ -911,6 +914,10 @@ J:				for ( int j = i + 1; j < range; )
 			e.printStackTrace();
 			return;
 		}
+		finally
+		{
+			execMeshes.shutdown();
+		}
 
 		/* calculate bounding box */
 		final double[] min = new double[ 2 ];